@@ -0,0 +1,52 @@
+package com.github.kleash.service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The comparison services wired the way the application wires them, without the web, JPA and H2 parts of the
+ * Boot context. Property defaults come from the @Value annotations, overridable per benchmark.
+ */
+public final class BenchmarkContext implements AutoCloseable {
+
+    private final AnnotationConfigApplicationContext context;
+    private final Path workDirectory;
+
+    public BenchmarkContext(Map<String, Object> properties) throws IOException {
+        this.workDirectory = Files.createTempDirectory("compare-bench-");
+        Map<String, Object> allProperties = new HashMap<>(properties);
+        allProperties.putIfAbsent("file.comparison.storage.base-path", workDirectory.resolve("storage").toString());
+
+        context = new AnnotationConfigApplicationContext();
+        context.getEnvironment().getPropertySources().addFirst(new MapPropertySource("benchmark", allProperties));
+        context.registerBean(MeterRegistry.class, SimpleMeterRegistry::new); // Actuator provides it in the application
+        context.register(ComparisonMetrics.class, FileParserService.class, StorageService.class, PairResultStore.class, MyersSequenceDiff.class, MemoryBudgetService.class, ParseCacheService.class, CompareService.class);
+        context.refresh();
+    }
+
+    public BenchmarkContext() throws IOException {
+        this(Map.of());
+    }
+
+    public <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+
+    public Path getWorkDirectory() {
+        return workDirectory;
+    }
+
+    @Override
+    public void close() throws IOException {
+        context.close();
+        org.springframework.util.FileSystemUtils.deleteRecursively(workDirectory);
+    }
+}
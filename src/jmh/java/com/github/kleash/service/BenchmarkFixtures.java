@@ -0,0 +1,174 @@
+package com.github.kleash.service;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.github.kleash.util.FileTypeUtil;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Synthetic Source 1 / Source 2 file pairs for the benchmarks. Source 2 is a copy of Source 1 in which roughly
+ * {@code mismatchRate} of the data rows have one cell changed. Generation is seeded, so runs are repeatable.
+ * <p>
+ * Standalone use: {@code BenchmarkFixtures <dir> <CSV|EXCEL_XLSX|JSON|TEXT> <rows> <columns> <mismatchRate>}
+ */
+public final class BenchmarkFixtures {
+
+    private static final long SEED = 42L;
+    private static final String[] WORDS = {"alpha", "bravo", "charlie", "delta", "echo", "foxtrot", "golf", "hotel"};
+
+    private BenchmarkFixtures() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 5) {
+            System.err.println("Usage: BenchmarkFixtures <dir> <CSV|EXCEL_XLSX|JSON|TEXT> <rows> <columns> <mismatchRate>");
+            System.exit(1);
+        }
+        Path[] pair = writePair(Path.of(args[0]), FileTypeUtil.FileType.valueOf(args[1]),
+                Integer.parseInt(args[2]), Integer.parseInt(args[3]), Double.parseDouble(args[4]));
+        System.out.println("Wrote " + pair[0] + " and " + pair[1]);
+    }
+
+    /**
+     * @return {source1, source2}, named source1.ext and source2.ext inside {@code directory}
+     */
+    public static Path[] writePair(Path directory, FileTypeUtil.FileType type, int rows, int columns, double mismatchRate) throws IOException {
+        Files.createDirectories(directory);
+        String extension = extension(type);
+        Path source1 = directory.resolve("source1." + extension);
+        Path source2 = directory.resolve("source2." + extension);
+        write(source1, type, rows, columns, 0.0);
+        write(source2, type, rows, columns, mismatchRate);
+        return new Path[]{source1, source2};
+    }
+
+    public static String extension(FileTypeUtil.FileType type) {
+        switch (type) {
+            case CSV: return "csv";
+            case EXCEL_XLS: return "xls";
+            case EXCEL_XLSX: return "xlsx";
+            case JSON: return "json";
+            case TEXT: return "txt";
+            default: throw new IllegalArgumentException("No fixture format for " + type);
+        }
+    }
+
+    private static void write(Path file, FileTypeUtil.FileType type, int rows, int columns, double mismatchRate) throws IOException {
+        CellSource cells = new CellSource(columns, mismatchRate);
+        switch (type) {
+            case CSV:
+                writeDelimited(file, rows, cells, ',');
+                break;
+            case TEXT:
+                writeDelimited(file, rows, cells, '\t');
+                break;
+            case JSON:
+                writeJson(file, rows, cells);
+                break;
+            case EXCEL_XLSX:
+                writeXlsx(file, rows, cells);
+                break;
+            default:
+                throw new IllegalArgumentException("No fixture format for " + type);
+        }
+    }
+
+    private static void writeDelimited(Path file, int rows, CellSource cells, char delimiter) throws IOException {
+        try (BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            for (int c = 0; c < cells.columns; c++) {
+                if (c > 0) writer.write(delimiter);
+                writer.write(header(c));
+            }
+            writer.newLine();
+            for (int r = 0; r < rows; r++) {
+                String[] row = cells.row(r);
+                for (int c = 0; c < row.length; c++) {
+                    if (c > 0) writer.write(delimiter);
+                    writer.write(row[c]);
+                }
+                writer.newLine();
+            }
+        }
+    }
+
+    private static void writeJson(Path file, int rows, CellSource cells) throws IOException {
+        try (OutputStream out = Files.newOutputStream(file);
+             JsonGenerator generator = new JsonFactory().createGenerator(out, JsonEncoding.UTF8)) {
+            generator.writeStartArray();
+            for (int r = 0; r < rows; r++) {
+                String[] row = cells.row(r);
+                generator.writeStartObject();
+                for (int c = 0; c < row.length; c++) {
+                    generator.writeStringField(header(c), row[c]);
+                }
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    private static void writeXlsx(Path file, int rows, CellSource cells) throws IOException {
+        try (SXSSFWorkbook workbook = new SXSSFWorkbook(100);
+             OutputStream out = Files.newOutputStream(file)) {
+            Sheet sheet = workbook.createSheet("data");
+            Row headerRow = sheet.createRow(0);
+            for (int c = 0; c < cells.columns; c++) {
+                headerRow.createCell(c).setCellValue(header(c));
+            }
+            for (int r = 0; r < rows; r++) {
+                String[] values = cells.row(r);
+                Row row = sheet.createRow(r + 1);
+                for (int c = 0; c < values.length; c++) {
+                    row.createCell(c).setCellValue(values[c]);
+                }
+            }
+            workbook.write(out);
+        }
+    }
+
+    private static String header(int column) {
+        return "col" + column;
+    }
+
+    // Produces the same base rows for both sides; the Source 2 instance changes one cell in some of them
+    private static class CellSource {
+        private final int columns;
+        private final double mismatchRate;
+        private final Random values = new Random(SEED);
+        private final Random mismatches = new Random(SEED + 1);
+
+        CellSource(int columns, double mismatchRate) {
+            this.columns = columns;
+            this.mismatchRate = mismatchRate;
+        }
+
+        String[] row(int rowIndex) {
+            String[] row = new String[columns];
+            for (int c = 0; c < columns; c++) {
+                switch (c % 4) {
+                    case 0: row[c] = Integer.toString(rowIndex * columns + c); break;
+                    case 1: row[c] = WORDS[values.nextInt(WORDS.length)] + "-" + values.nextInt(1000); break;
+                    case 2: row[c] = String.format(Locale.ROOT, "%.2f", values.nextDouble() * 10000); break;
+                    default: row[c] = "2024-" + (1 + values.nextInt(12)) + "-" + (1 + values.nextInt(28)); break;
+                }
+            }
+            if (mismatchRate > 0 && mismatches.nextDouble() < mismatchRate) {
+                int column = mismatches.nextInt(columns);
+                row[column] = row[column] + "x";
+            }
+            return row;
+        }
+    }
+}
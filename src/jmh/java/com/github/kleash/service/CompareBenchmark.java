@@ -0,0 +1,84 @@
+package com.github.kleash.service;
+
+import com.github.kleash.dto.ComparisonOptions;
+import com.github.kleash.dto.ComparisonResponse;
+import com.github.kleash.dto.FilePairResult;
+import com.github.kleash.dto.ManualPair;
+import com.github.kleash.util.FileTypeUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One file pair: parse, compare and report through compareSinglePairAndSaveReport, and the same pair end to
+ * end through compareFiles (pairing, executor hand-off and metrics included).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompareBenchmark {
+
+    @Param({"CSV", "EXCEL_XLSX", "JSON", "TEXT"})
+    public FileTypeUtil.FileType fileType;
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"20"})
+    public int columns;
+
+    @Param({"0.01"})
+    public double mismatchRate;
+
+    // Empty = decide by file size, as the application does
+    @Param({""})
+    public String streaming;
+
+    // file.comparison.parallel.intra-pair-min-bytes; 1 splits every streamed CSV pair into row chunks
+    @Param({"0"})
+    public long intraPairMinBytes;
+
+    private BenchmarkContext context;
+    private CompareService compareService;
+    private Path source1;
+    private Path source2;
+    private Path sessionPath;
+    private ComparisonOptions options;
+    private List<ManualPair> manualPairs;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        context = new BenchmarkContext(Map.of("file.comparison.parallel.intra-pair-min-bytes", intraPairMinBytes));
+        compareService = context.bean(CompareService.class);
+        sessionPath = context.bean(StorageService.class).createSessionDirectory();
+        Path[] pair = BenchmarkFixtures.writePair(sessionPath, fileType, rows, columns, mismatchRate);
+        source1 = pair[0];
+        source2 = pair[1];
+        options = new ComparisonOptions();
+        options.setStreaming(streaming.isEmpty() ? null : Boolean.valueOf(streaming));
+        manualPairs = List.of(new ManualPair(source1.getFileName().toString(), source2.getFileName().toString()));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+    }
+
+    @Benchmark
+    public FilePairResult compareSinglePairAndSaveReport() {
+        return compareService.compareSinglePairAndSaveReport(source1, source2, sessionPath, null, false, false, options);
+    }
+
+    @Benchmark
+    public ComparisonResponse compareFilesEndToEnd() {
+        return compareService.compareFiles(List.of(source1), List.of(source2), false, sessionPath, manualPairs,
+                null, false, false, options);
+    }
+}
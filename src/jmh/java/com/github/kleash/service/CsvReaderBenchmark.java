@@ -0,0 +1,94 @@
+package com.github.kleash.service;
+
+import com.github.kleash.util.FileTypeUtil;
+import com.opencsv.CSVReader;
+import com.opencsv.exceptions.CsvValidationException;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a whole CSV file with OpenCSV against MappedCsvReader, with and without creating Strings. The
+ * {@code bytes} counter is reported per second, which gives the input throughput of each reader.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class CsvReaderBenchmark {
+
+    @Param({"500000"})
+    public int rows;
+
+    @Param({"20"})
+    public int columns;
+
+    private BenchmarkContext context;
+    private Path file;
+    private long fileSize;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long bytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            bytes = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        context = new BenchmarkContext();
+        file = BenchmarkFixtures.writePair(context.getWorkDirectory().resolve("fixtures"), FileTypeUtil.FileType.CSV, rows, columns, 0.0)[0];
+        fileSize = Files.size(file);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+    }
+
+    @Benchmark
+    public void openCsv(Throughput throughput, Blackhole blackhole) throws IOException, CsvValidationException {
+        try (CSVReader reader = new CSVReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+            String[] row;
+            while ((row = reader.readNext()) != null) {
+                blackhole.consume(row);
+            }
+        }
+        throughput.bytes += fileSize;
+    }
+
+    // What the comparison gets: every field decoded into a String
+    @Benchmark
+    public void mappedRows(Throughput throughput, Blackhole blackhole) throws IOException {
+        try (MappedCsvReader reader = new MappedCsvReader(file)) {
+            String[] row;
+            while ((row = reader.next()) != null) {
+                blackhole.consume(row);
+            }
+        }
+        throughput.bytes += fileSize;
+    }
+
+    // Tokenizing only: fields stay byte ranges of the mapping
+    @Benchmark
+    public void mappedTokenize(Throughput throughput, Blackhole blackhole) throws IOException {
+        try (MappedCsvReader reader = new MappedCsvReader(file)) {
+            while (reader.nextRecord()) {
+                blackhole.consume(reader.fieldCount());
+            }
+        }
+        throughput.bytes += fileSize;
+    }
+}
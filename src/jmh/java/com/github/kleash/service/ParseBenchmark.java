@@ -0,0 +1,68 @@
+package com.github.kleash.service;
+
+import com.github.kleash.util.FileTypeUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing of one file (from scratch and from the parse cache), and column filtering of an already parsed file, per file type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+    @Param({"CSV", "EXCEL_XLSX", "JSON", "TEXT"})
+    public FileTypeUtil.FileType fileType;
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"20"})
+    public int columns;
+
+    private BenchmarkContext context;
+    private FileParserService fileParserService;
+    private ParseCacheService parseCacheService;
+    private Path file;
+    private FileParserService.ParsedFileResult parsed;
+    private final Set<String> ignoredColumns = Set.of("col1", "col5");
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        context = new BenchmarkContext();
+        fileParserService = context.bean(FileParserService.class);
+        parseCacheService = context.bean(ParseCacheService.class);
+        file = BenchmarkFixtures.writePair(context.getWorkDirectory().resolve("fixtures"), fileType, rows, columns, 0.0)[0];
+        parsed = parseCacheService.parseFileIntoRowsAndHeader(file, null); // Also fills the cache for parseCached
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+    }
+
+    @Benchmark
+    public FileParserService.ParsedFileResult parseFileIntoRowsAndHeader() throws IOException {
+        return fileParserService.parseFileIntoRowsAndHeader(file);
+    }
+
+    // A file parsed before, decoded from the parse cache's memory tier
+    @Benchmark
+    public FileParserService.ParsedFileResult parseCached() throws IOException {
+        return parseCacheService.parseFileIntoRowsAndHeader(file, null);
+    }
+
+    @Benchmark
+    public List<String> getProcessedLines() {
+        return fileParserService.getProcessedLines(parsed, ignoredColumns, false);
+    }
+}
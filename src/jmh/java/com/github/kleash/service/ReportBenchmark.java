@@ -0,0 +1,68 @@
+package com.github.kleash.service;
+
+import com.github.kleash.dto.ComparisonOptions;
+import com.github.kleash.dto.FilePairResult;
+import com.github.kleash.util.FileTypeUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * CSV report generation for a pair result computed once up front (in-memory mode, so the report lists every line),
+ * into a String and streamed to the report file, plain or gzipped.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportBenchmark {
+
+    @Param({"10000"})
+    public int rows;
+
+    @Param({"20"})
+    public int columns;
+
+    @Param({"0.0", "0.01", "0.5"})
+    public double mismatchRate;
+
+    @Param({"false", "true"})
+    public boolean gzip;
+
+    private BenchmarkContext context;
+    private StorageService storageService;
+    private Path sessionPath;
+    private FilePairResult pairResult;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        context = new BenchmarkContext(Map.of("file.comparison.report.gzip", gzip));
+        storageService = context.bean(StorageService.class);
+        sessionPath = storageService.createSessionDirectory();
+        Path[] pair = BenchmarkFixtures.writePair(sessionPath, FileTypeUtil.FileType.CSV, rows, columns, mismatchRate);
+        ComparisonOptions options = new ComparisonOptions();
+        options.setStreaming(false);
+        options.setFullReportForIdenticalFiles(true);
+        pairResult = context.bean(CompareService.class).compareSinglePairAndSaveReport(pair[0], pair[1], sessionPath, null, false, false, options);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        context.close();
+    }
+
+    @Benchmark
+    public String generateCsvContent() {
+        return CsvReportGenerator.generateCsvContent(pairResult);
+    }
+
+    @Benchmark
+    public Path storeReport() throws IOException {
+        return storageService.storeReport("report_benchmark.csv", sessionPath, writer -> CsvReportGenerator.writeReport(pairResult, writer));
+    }
+}
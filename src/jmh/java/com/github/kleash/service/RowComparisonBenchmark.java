@@ -0,0 +1,135 @@
+package com.github.kleash.service;
+
+import com.github.kleash.dto.ColumnRule;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The per-row kept-column comparison alone: the KeptColumnMap loop against the list-building loop it replaced.
+ * Each invocation compares {@code rows} row pairs drawn cyclically from a fixed pool, so a 1M-row run does not
+ * need 1M rows in memory. Run with {@code -prof gc} to see the allocation rate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowComparisonBenchmark {
+
+    private static final int POOL_SIZE = 8192;
+
+    @Param({"1000000"})
+    public int rows;
+
+    @Param({"40"})
+    public int columns;
+
+    @Param({"0.01"})
+    public double mismatchRate;
+
+    private String[][] source1Rows;
+    private String[][] source2Rows;
+    private String[][] source1NumericRows;
+    private String[][] source2NumericRows; // Same values as source1NumericRows, written with another number of decimals
+    private Set<Integer> ignoreIndices;
+    private KeptColumnMap keptColumns;
+    private CellComparator[] numericComparators;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        Random random = new Random(42);
+        source1Rows = new String[POOL_SIZE][columns];
+        source2Rows = new String[POOL_SIZE][columns];
+        for (int r = 0; r < POOL_SIZE; r++) {
+            for (int c = 0; c < columns; c++) {
+                String value = (c % 3 == 0 ? " " : "") + "value-" + random.nextInt(100000);
+                source1Rows[r][c] = value;
+                source2Rows[r][c] = new String(value); // Equal but not identical, as with two parsed files
+            }
+            if (random.nextDouble() < mismatchRate) {
+                source2Rows[r][random.nextInt(columns)] += "x";
+            }
+        }
+        ignoreIndices = Set.of(1, columns / 2);
+        keptColumns = new KeptColumnMap(ignoreIndices, columns);
+
+        source1NumericRows = new String[POOL_SIZE][columns];
+        source2NumericRows = new String[POOL_SIZE][columns];
+        for (int r = 0; r < POOL_SIZE; r++) {
+            for (int c = 0; c < columns; c++) {
+                long cents = random.nextInt(10_000_000);
+                source1NumericRows[r][c] = (cents / 100) + "." + String.format("%02d", cents % 100);
+                source2NumericRows[r][c] = source1NumericRows[r][c] + "0";
+            }
+        }
+        ColumnRule numeric = new ColumnRule();
+        numeric.setColumn("0");
+        numeric.setType(ColumnRule.Type.NUMERIC);
+        numeric.setAbsoluteTolerance(0.001);
+        numericComparators = new CellComparator[columns];
+        Arrays.fill(numericComparators, CellComparators.compile(numeric));
+    }
+
+    @Benchmark
+    public void keptColumnMap(Blackhole blackhole) {
+        for (int r = 0; r < rows; r++) {
+            int i = r & (POOL_SIZE - 1);
+            blackhole.consume(KeptColumnMap.keptColumnsEqual(source1Rows[i], keptColumns, source2Rows[i], keptColumns));
+        }
+    }
+
+    // As the comparison runs: the equality check, then every column of the rows that mismatch
+    @Benchmark
+    public void keptColumnMapWithColumnCounts(Blackhole blackhole) {
+        int[] counts = new int[columns];
+        for (int r = 0; r < rows; r++) {
+            int i = r & (POOL_SIZE - 1);
+            if (!KeptColumnMap.keptColumnsEqual(source1Rows[i], keptColumns, source2Rows[i], keptColumns)) {
+                blackhole.consume(KeptColumnMap.countMismatchedColumns(source1Rows[i], keptColumns, source2Rows[i], keptColumns, null, counts));
+            }
+        }
+        blackhole.consume(counts);
+    }
+
+    // Every column under a NUMERIC rule, no cell textually equal: the scaled-long path (add -prof gc: no allocation)
+    @Benchmark
+    public void numericRules(Blackhole blackhole) {
+        for (int r = 0; r < rows; r++) {
+            int i = r & (POOL_SIZE - 1);
+            blackhole.consume(KeptColumnMap.keptColumnsEqual(source1NumericRows[i], keptColumns, source2NumericRows[i], keptColumns, numericComparators));
+        }
+    }
+
+    @Benchmark
+    public void trimmedListsBaseline(Blackhole blackhole) {
+        for (int r = 0; r < rows; r++) {
+            int i = r & (POOL_SIZE - 1);
+            blackhole.consume(listCompare(source1Rows[i], ignoreIndices, source2Rows[i], ignoreIndices));
+        }
+    }
+
+    // The comparison as it was before KeptColumnMap
+    private static boolean listCompare(String[] row1, Set<Integer> ignoreIndices1, String[] row2, Set<Integer> ignoreIndices2) {
+        List<String> kept1 = new ArrayList<>();
+        for (int c = 0; c < row1.length; c++) {
+            if (!ignoreIndices1.contains(c)) kept1.add(row1[c] == null ? "" : row1[c].trim());
+        }
+        List<String> kept2 = new ArrayList<>();
+        for (int c = 0; c < row2.length; c++) {
+            if (!ignoreIndices2.contains(c)) kept2.add(row2[c] == null ? "" : row2[c].trim());
+        }
+        if (kept1.size() != kept2.size()) return false;
+        for (int k = 0; k < kept1.size(); k++) {
+            if (!kept1.get(k).equals(kept2.get(k))) return false;
+        }
+        return true;
+    }
+}
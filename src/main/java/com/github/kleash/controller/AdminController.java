@@ -3,6 +3,9 @@ package com.github.kleash.controller;
 
 import com.github.kleash.model.ComparisonLog;
 import com.github.kleash.repository.ComparisonLogRepository;
+import com.github.kleash.service.ComparisonAdmissionService;
+import com.github.kleash.service.MemoryBudgetService;
+import com.github.kleash.service.ParseCacheService;
 import com.github.kleash.service.StorageService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.InputStreamResource;
@@ -36,6 +39,15 @@ public class AdminController {
     @Autowired
     private StorageService storageService; // To resolve paths
 
+    @Autowired
+    private ParseCacheService parseCacheService;
+
+    @Autowired
+    private MemoryBudgetService memoryBudgetService;
+
+    @Autowired
+    private ComparisonAdmissionService admissionService;
+
     @GetMapping("/dashboard")
     public String dashboard(Model model) {
         // This will serve the admin_dashboard.html template
@@ -57,6 +69,9 @@ public class AdminController {
         metrics.put("totalFilesProcessed", comparisonLogRepository.getTotalFilesCompared()); // Custom query
         metrics.put("totalMatchedPairsOverall", comparisonLogRepository.getTotalFullyMatchedPairsOverall());
         metrics.put("totalMismatchedPairsOverall", comparisonLogRepository.getTotalMismatchedPairsOverall());
+        metrics.put("parseCache", parseCacheService.getStatistics()); // Hits, misses and size of the parsed-file cache
+        metrics.put("memoryBudget", memoryBudgetService.getStatistics()); // Heap tracked for running comparisons, and spills
+        metrics.put("admission", admissionService.getStatistics()); // Comparisons running and queued, and their waits
         // Add more as needed
         return metrics;
     }
@@ -1,32 +1,48 @@
 package com.github.kleash.controller;
 
 import com.github.kleash.dto.ColumnIgnoreConfig;
+import com.github.kleash.dto.ColumnRule;
+import com.github.kleash.dto.ComparisonJobStatus;
+import com.github.kleash.dto.ComparisonOptions;
 import com.github.kleash.dto.ComparisonResponse;
+import com.github.kleash.dto.KeyColumnConfig;
+import com.github.kleash.dto.LineDifference;
 import com.github.kleash.dto.ManualPair;
 import com.github.kleash.dto.OverallMetrics; // For constructing error responses
+import com.github.kleash.dto.ResultPage;
+import com.github.kleash.service.CellComparators;
+import com.github.kleash.service.ChunkedUploadService;
 import com.github.kleash.service.CompareService;
+import com.github.kleash.service.ComparisonAdmissionService;
+import com.github.kleash.service.ComparisonJob;
+import com.github.kleash.service.ComparisonJobService;
+import com.github.kleash.service.LocalFileSourceService;
+import com.github.kleash.service.PairResultStore;
+import com.github.kleash.service.ReportArchiveService;
+import com.github.kleash.service.StreamingUploadService;
 import com.github.kleash.service.StorageService;
 import com.github.kleash.service.ComparisonLoggingService; // Import for logging
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
+import org.apache.commons.fileupload2.core.FileUploadSizeException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.InputStreamResource;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.stereotype.Controller;
 import org.springframework.ui.Model;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import jakarta.servlet.http.HttpServletRequest; // For User-Agent and other request details
 import jakarta.servlet.http.HttpSession;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.file.AccessDeniedException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
@@ -46,11 +62,33 @@ public class CompareController {
     @Autowired
     private ComparisonLoggingService loggingService; // Autowire the logging service
 
+    @Autowired
+    private ComparisonJobService jobService;
+
+    @Autowired
+    private ComparisonAdmissionService admissionService;
+
+    @Autowired
+    private PairResultStore pairResultStore;
+
+    @Autowired
+    private StreamingUploadService uploadService;
+
+    @Autowired
+    private ChunkedUploadService chunkedUploadService;
+
+    @Autowired
+    private LocalFileSourceService localFileSourceService;
+
+    @Autowired
+    private ReportArchiveService reportArchiveService;
+
     @Autowired
     private ObjectMapper objectMapper; // For parsing manualPairs JSON
 
     // Key to store the ABSOLUTE path of the session directory in HTTP session
     private static final String LAST_COMPARISON_SESSION_PATH_KEY = "lastComparisonSessionPath";
+    private static final int MAX_PAGE_SIZE = 1000; // Lines or differences per page of a pair's details
 
     @GetMapping("/")
     public String index(Model model) {
@@ -68,91 +106,52 @@ public class CompareController {
             @RequestParam(value = "s2IgnoreConfigJson", required = false) String s2IgnoreConfigJson,
             @RequestParam(value = "s1HasHeader", defaultValue = "true") boolean s1HasHeader,
             @RequestParam(value = "s2HasHeader", defaultValue = "true") boolean s2HasHeader,
+            @RequestParam(value = "streaming", required = false) Boolean streaming,
+            @RequestParam(value = "keyConfigJson", required = false) String keyConfigJson,
+            @RequestParam(value = "textDiffStrategy", required = false) String textDiffStrategy,
+            @RequestParam(value = "fullReportForIdenticalFiles", defaultValue = "false") boolean fullReportForIdenticalFiles,
+            @RequestParam(value = "source1Sheet", required = false) String source1Sheet,
+            @RequestParam(value = "source2Sheet", required = false) String source2Sheet,
+            @RequestParam(value = "columnRulesJson", required = false) String columnRulesJson,
             HttpServletRequest httpRequest, // Injected to get request details like User-Agent
             HttpSession httpSession) {
 
         long startTime = System.currentTimeMillis();
         Path sessionPath = null; // Will store the absolute path to the session's storage directory
-        String relativeSessionPathForZip = null; // For logging the potential zip path
-
-        ColumnIgnoreConfig ignoreConfig = new ColumnIgnoreConfig();
-        try {
-            if (s1IgnoreConfigJson != null && !s1IgnoreConfigJson.isEmpty()) {
-                ignoreConfig.setSource1Ignore(objectMapper.readValue(s1IgnoreConfigJson, new TypeReference<Set<String>>() {}));
-            } else {
-                ignoreConfig.setSource1Ignore(Collections.emptySet());
-            }
-            if (s2IgnoreConfigJson != null && !s2IgnoreConfigJson.isEmpty()) {
-                ignoreConfig.setSource2Ignore(objectMapper.readValue(s2IgnoreConfigJson, new TypeReference<Set<String>>() {}));
-            } else {
-                ignoreConfig.setSource2Ignore(Collections.emptySet());
-            }
-        } catch (IOException e) {
-            logger.error("Error parsing column ignore config JSON: S1='{}', S2='{}', Error: {}", s1IgnoreConfigJson, s2IgnoreConfigJson, e.getMessage());
-            // Default to no ignores on parse error or return Bad Request
-            ignoreConfig.setSource1Ignore(Collections.emptySet());
-            ignoreConfig.setSource2Ignore(Collections.emptySet());
-            OverallMetrics emptyMetrics = new OverallMetrics();
-            return ResponseEntity.badRequest().body(new ComparisonResponse(emptyMetrics, Collections.emptyList(), null));
-        }
-        logger.info("Column Ignore Config: S1 ignore count: {}, S2 ignore count: {}", ignoreConfig.getSource1Ignore().size(), ignoreConfig.getSource2Ignore().size());
-        logger.info("Header flags: S1 has header: {}, S2 has header: {}", s1HasHeader, s2HasHeader);
-
 
+        ComparisonRequest request = parseComparisonRequest(sortFiles, manualPairsJson, s1IgnoreConfigJson, s2IgnoreConfigJson,
+                s1HasHeader, s2HasHeader, streaming, keyConfigJson, textDiffStrategy, fullReportForIdenticalFiles, source1Sheet, source2Sheet, columnRulesJson);
         // Filter out empty MultipartFile objects if no file is selected in a dropzone
-        List<MultipartFile> source1Files = (source1FilesArr != null) ?
-                Stream.of(source1FilesArr).filter(f -> f != null && !f.isEmpty()).collect(Collectors.toList()) :
-                Collections.emptyList();
-        List<MultipartFile> source2Files = (source2FilesArr != null) ?
-                Stream.of(source2FilesArr).filter(f -> f != null && !f.isEmpty()).collect(Collectors.toList()) :
-                Collections.emptyList();
-
-        if (source1Files.isEmpty() && source2Files.isEmpty()) {
-            logger.warn("Compare attempt with no valid files provided.");
-            OverallMetrics emptyMetrics = new OverallMetrics();
-            return ResponseEntity.badRequest().body(new ComparisonResponse(emptyMetrics, Collections.emptyList(), null));
+        List<MultipartFile> source1Files = nonEmptyFiles(source1FilesArr);
+        List<MultipartFile> source2Files = nonEmptyFiles(source2FilesArr);
+        if (request == null || (source1Files.isEmpty() && source2Files.isEmpty())) {
+            if (request != null) logger.warn("Compare attempt with no valid files provided.");
+            return ResponseEntity.badRequest().body(new ComparisonResponse(new OverallMetrics(), Collections.emptyList(), null));
         }
-
-        List<ManualPair> manualPairs = null;
-        if (manualPairsJson != null && !manualPairsJson.isEmpty() && !manualPairsJson.equals("[]")) {
-            try {
-                manualPairs = objectMapper.readValue(manualPairsJson, new TypeReference<List<ManualPair>>() {});
-                logger.info("Received {} manual pairs from UI: {}", manualPairs.size(), manualPairsJson);
-            } catch (IOException e) {
-                logger.error("Error parsing manualPairs JSON: '{}'. Error: {}", manualPairsJson, e.getMessage());
-                // Proceed without manual pairs if JSON is malformed, or return bad request
-            }
+        ComparisonAdmissionService.Ticket ticket = admissionService.reserve(httpSession.getId());
+        if (ticket == null) {
+            logger.warn("Comparison queue is full; turning away request of session {}.", httpSession.getId());
+            return tooManyRequests(admissionService.getRetryAfterSeconds()).body(new ComparisonResponse(new OverallMetrics(), Collections.emptyList(), "Too many comparisons queued; try again later."));
         }
 
         try {
             sessionPath = storageService.createSessionDirectory();
             logger.info("Created session directory for comparison: {}", sessionPath);
-
-            List<Path> s1StoredFilePaths = new ArrayList<>(); // Store paths of successfully stored files
-            for (MultipartFile file : source1Files) {
-                s1StoredFilePaths.add(storageService.storeUploadedFile(file, sessionPath));
-            }
-            logger.info("Stored {} files for Source 1 in session directory.", s1StoredFilePaths.size());
-
-            List<Path> s2StoredFilePaths = new ArrayList<>();
-            for (MultipartFile file : source2Files) {
-                s2StoredFilePaths.add(storageService.storeUploadedFile(file, sessionPath));
+            StoredFiles stored = storeUploadedFiles(source1Files, source2Files, sessionPath);
+
+            ComparisonResponse response;
+            try (ticket) {
+                ticket.submit(compareService.estimateHeapBytes(stored.source1Paths, stored.source2Paths, request.options));
+                if (!ticket.awaitAdmission()) {
+                    logger.warn("Comparison of session {} was not admitted in time.", httpSession.getId());
+                    storageService.deleteSessionDirectory(sessionPath);
+                    return tooManyRequests(admissionService.getRetryAfterSeconds())
+                            .body(new ComparisonResponse(new OverallMetrics(), Collections.emptyList(), "The server is busy with other comparisons; try again later."));
+                }
+                response = compareService.compareFiles(stored.source1Paths, stored.source2Paths, request.sortFiles, sessionPath, request.manualPairs,
+                        request.ignoreConfig, request.s1HasHeader, request.s2HasHeader, request.options);
             }
-            logger.info("Stored {} files for Source 2 in session directory.", s2StoredFilePaths.size());
-
-            // Pass s1StoredFilePaths and s2StoredFilePaths to compareService
-            ComparisonResponse response = compareService.compareFiles(s1StoredFilePaths, s2StoredFilePaths, sortFiles, sessionPath, manualPairs,
-                    ignoreConfig, s1HasHeader, s2HasHeader);
-
-            long executionTimeMs = System.currentTimeMillis() - startTime;
-
-            relativeSessionPathForZip = storageService.getRelativePathForClient(sessionPath, storageService.getBaseStoragePath());
-            String potentialZipPath = (relativeSessionPathForZip != null ? relativeSessionPathForZip : sessionPath.getFileName().toString())
-                    + "/comparison_reports_" + sessionPath.getFileName().toString() + ".zip";
-
-            // Pass the lists of stored file Paths to the logging service
-            loggingService.logComparison(response, sessionPath.getFileName().toString(), executionTimeMs, potentialZipPath, httpRequest, s1StoredFilePaths, s2StoredFilePaths);
-            logger.info("Comparison completed successfully in {} ms. Session: {}", executionTimeMs, sessionPath.getFileName());
+            logCompletedComparison(response, sessionPath, startTime, httpRequest.getHeader("User-Agent"), stored);
 
             httpSession.setAttribute(LAST_COMPARISON_SESSION_PATH_KEY, sessionPath.toString());
             return ResponseEntity.ok(response);
@@ -188,11 +187,404 @@ public class CompareController {
                 storageService.deleteSessionDirectory(sessionPath);
             }
             return ResponseEntity.status(500).body(new ComparisonResponse(errorMetrics, Collections.emptyList(), "An unexpected error occurred: " + e.getMessage()));
+        } finally {
+            ticket.close(); // Gives the reserved place back if the upload failed
+        }
+    }
+
+    /*
+     * Same form fields as /compare, but read as a stream: each file part is written to the session directory as it
+     * arrives, without the container buffering it first, so the limits are file.comparison.upload.* rather than
+     * spring.servlet.multipart.*. Files finalized through /uploads can be named instead with the source1UploadIds /
+     * source2UploadIds fields (JSON arrays of upload ids). Only the upload happens in the request; the comparison
+     * runs as a job to poll.
+     */
+    @PostMapping(value = "/compare/jobs", consumes = MediaType.MULTIPART_FORM_DATA_VALUE)
+    @ResponseBody
+    public ResponseEntity<ComparisonJobStatus> submitComparisonJob(HttpServletRequest httpRequest, HttpSession httpSession) {
+        if (!uploadService.isMultipart(httpRequest)) {
+            return ResponseEntity.badRequest().build();
+        }
+        // Before the upload, so a client told to come back later has not sent its files for nothing
+        ComparisonAdmissionService.Ticket ticket = admissionService.reserve(httpSession.getId());
+        if (ticket == null) {
+            logger.warn("Comparison queue is full; turning away job of session {}.", httpSession.getId());
+            return tooManyRequests(admissionService.getRetryAfterSeconds()).build();
+        }
+
+        Path sessionPath = null;
+        ComparisonJob job = null;
+        try {
+            sessionPath = storageService.createSessionDirectory();
+            StreamingUploadService.UploadedForm form = uploadService.receive(httpRequest, sessionPath);
+            ComparisonRequest request = parseComparisonRequest(formFlag(form.getField("sortFiles"), false), form.getField("manualPairs"),
+                    form.getField("s1IgnoreConfigJson"), form.getField("s2IgnoreConfigJson"),
+                    formFlag(form.getField("s1HasHeader"), true), formFlag(form.getField("s2HasHeader"), true),
+                    form.getField("streaming") == null || form.getField("streaming").isEmpty() ? null : formFlag(form.getField("streaming"), false),
+                    form.getField("keyConfigJson"), form.getField("textDiffStrategy"), formFlag(form.getField("fullReportForIdenticalFiles"), false),
+                    form.getField("source1Sheet"), form.getField("source2Sheet"), form.getField("columnRulesJson"));
+            StoredFiles stored = new StoredFiles();
+            stored.source1Paths.addAll(form.getFiles("source1Files"));
+            stored.source2Paths.addAll(form.getFiles("source2Files"));
+            List<String> source1UploadIds = parseUploadIds(form.getField("source1UploadIds"));
+            List<String> source2UploadIds = parseUploadIds(form.getField("source2UploadIds"));
+            if (source1UploadIds == null || source2UploadIds == null
+                    || !Stream.concat(source1UploadIds.stream(), source2UploadIds.stream()).allMatch(chunkedUploadService::isClaimable)) {
+                logger.warn("Comparison job refers to unknown or unfinalized uploads: S1 {}, S2 {}", form.getField("source1UploadIds"), form.getField("source2UploadIds"));
+                storageService.deleteSessionDirectory(sessionPath);
+                return ResponseEntity.badRequest().build();
+            }
+            for (String uploadId : source1UploadIds) {
+                stored.source1Paths.add(chunkedUploadService.claim(uploadId, sessionPath));
+            }
+            for (String uploadId : source2UploadIds) {
+                stored.source2Paths.add(chunkedUploadService.claim(uploadId, sessionPath));
+            }
+            if (request == null || (stored.source1Paths.isEmpty() && stored.source2Paths.isEmpty())) {
+                if (request != null) logger.warn("Compare attempt with no valid files provided.");
+                storageService.deleteSessionDirectory(sessionPath);
+                return ResponseEntity.badRequest().build();
+            }
+            logger.info("Streamed {} files for Source 1 and {} for Source 2 into session directory.", stored.source1Paths.size(), stored.source2Paths.size());
+
+            // The servlet request is recycled once this method returns, so the job keeps only what it needs from it
+            String userAgent = httpRequest.getHeader("User-Agent");
+            Path jobSessionPath = sessionPath;
+            long estimatedBytes = compareService.estimateHeapBytes(stored.source1Paths, stored.source2Paths, request.options);
+            job = jobService.submit(sessionPath, ticket, estimatedBytes, progress -> {
+                long startTime = System.currentTimeMillis();
+                ComparisonResponse response = compareService.compareFiles(stored.source1Paths, stored.source2Paths, request.sortFiles, jobSessionPath, request.manualPairs,
+                        request.ignoreConfig, request.s1HasHeader, request.s2HasHeader, request.options, progress);
+                logCompletedComparison(response, jobSessionPath, startTime, userAgent, stored);
+                return response;
+            });
+            httpSession.setAttribute(LAST_COMPARISON_SESSION_PATH_KEY, sessionPath.toString());
+            return ResponseEntity.accepted().body(job.toStatus(0));
+        } catch (FileUploadSizeException e) {
+            logger.warn("Rejected upload for comparison job: {}", e.getMessage());
+            storageService.deleteSessionDirectory(sessionPath);
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        } catch (IllegalArgumentException | IllegalStateException e) {
+            logger.warn("Could not use uploads for comparison job: {}", e.getMessage()); // Claimed by a concurrent request
+            storageService.deleteSessionDirectory(sessionPath);
+            return ResponseEntity.badRequest().build();
+        } catch (IOException e) {
+            logger.error("IOException while storing files for comparison job: {}", e.getMessage(), e);
+            if (sessionPath != null) {
+                storageService.deleteSessionDirectory(sessionPath);
+            }
+            return ResponseEntity.status(500).build();
+        } catch (RuntimeException e) {
+            logger.error("Unexpected exception while preparing comparison job: {}", e.getMessage(), e);
+            if (job != null) {
+                jobService.cancel(job.getId()); // Deletes the session once the job has stopped
+            } else if (sessionPath != null) {
+                storageService.deleteSessionDirectory(sessionPath); // Including uploads already claimed into it
+            }
+            return ResponseEntity.status(500).build();
+        } finally {
+            if (job == null) ticket.close(); // No job to hold the reserved place
+        }
+    }
+
+    /*
+     * Compares files already on the server's disk in place: source1Path / source2Path are each a file, a directory
+     * or a glob under file.comparison.local-paths.allowed-roots. Nothing is uploaded or copied; only the reports go
+     * to a new session directory. Other parameters as for /compare; the comparison runs as a job to poll.
+     */
+    @PostMapping("/compare/paths")
+    @ResponseBody
+    public ResponseEntity<ComparisonJobStatus> submitPathComparisonJob(
+            @RequestParam(value = "source1Path", required = false) String source1Path,
+            @RequestParam(value = "source2Path", required = false) String source2Path,
+            @RequestParam(defaultValue = "false") boolean sortFiles,
+            @RequestParam(value = "manualPairs", required = false) String manualPairsJson,
+            @RequestParam(value = "s1IgnoreConfigJson", required = false) String s1IgnoreConfigJson,
+            @RequestParam(value = "s2IgnoreConfigJson", required = false) String s2IgnoreConfigJson,
+            @RequestParam(value = "s1HasHeader", defaultValue = "true") boolean s1HasHeader,
+            @RequestParam(value = "s2HasHeader", defaultValue = "true") boolean s2HasHeader,
+            @RequestParam(value = "streaming", required = false) Boolean streaming,
+            @RequestParam(value = "keyConfigJson", required = false) String keyConfigJson,
+            @RequestParam(value = "textDiffStrategy", required = false) String textDiffStrategy,
+            @RequestParam(value = "fullReportForIdenticalFiles", defaultValue = "false") boolean fullReportForIdenticalFiles,
+            @RequestParam(value = "source1Sheet", required = false) String source1Sheet,
+            @RequestParam(value = "source2Sheet", required = false) String source2Sheet,
+            @RequestParam(value = "columnRulesJson", required = false) String columnRulesJson,
+            HttpServletRequest httpRequest,
+            HttpSession httpSession) {
+        if (!localFileSourceService.isEnabled()) {
+            logger.warn("Path comparison requested but file.comparison.local-paths.allowed-roots is not set.");
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        ComparisonRequest request = parseComparisonRequest(sortFiles, manualPairsJson, s1IgnoreConfigJson, s2IgnoreConfigJson,
+                s1HasHeader, s2HasHeader, streaming, keyConfigJson, textDiffStrategy, fullReportForIdenticalFiles, source1Sheet, source2Sheet, columnRulesJson);
+        if (request == null) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        StoredFiles stored = new StoredFiles();
+        try {
+            stored.source1Paths.addAll(localFileSourceService.resolve(source1Path));
+            stored.source2Paths.addAll(localFileSourceService.resolve(source2Path));
+        } catch (AccessDeniedException e) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        } catch (IllegalArgumentException e) {
+            logger.warn("Could not resolve local paths for comparison: {}", e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (IOException e) {
+            logger.error("IOException while listing local files for comparison: {}", e.getMessage(), e);
+            return ResponseEntity.status(500).build();
+        }
+        if (stored.source1Paths.isEmpty() && stored.source2Paths.isEmpty()) {
+            logger.warn("Path comparison attempt with no paths provided.");
+            return ResponseEntity.badRequest().build();
+        }
+        logger.info("Comparing {} local files for Source 1 and {} for Source 2 in place.", stored.source1Paths.size(), stored.source2Paths.size());
+
+        // Nothing is uploaded, so the place is reserved only once there is a comparison to queue
+        ComparisonAdmissionService.Ticket ticket = admissionService.reserve(httpSession.getId());
+        if (ticket == null) {
+            logger.warn("Comparison queue is full; turning away path comparison of session {}.", httpSession.getId());
+            return tooManyRequests(admissionService.getRetryAfterSeconds()).build();
+        }
+        Path sessionPath;
+        try {
+            sessionPath = storageService.createSessionDirectory();
+        } catch (IOException e) {
+            logger.error("Could not create session directory for path comparison: {}", e.getMessage(), e);
+            ticket.close();
+            return ResponseEntity.status(500).build();
+        }
+        String userAgent = httpRequest.getHeader("User-Agent");
+        long estimatedBytes = compareService.estimateHeapBytes(stored.source1Paths, stored.source2Paths, request.options);
+        ComparisonJob job = jobService.submit(sessionPath, ticket, estimatedBytes, progress -> {
+            long startTime = System.currentTimeMillis();
+            ComparisonResponse response = compareService.compareFiles(stored.source1Paths, stored.source2Paths, request.sortFiles, sessionPath, request.manualPairs,
+                    request.ignoreConfig, request.s1HasHeader, request.s2HasHeader, request.options, progress);
+            logCompletedComparison(response, sessionPath, startTime, userAgent, stored);
+            return response;
+        });
+        httpSession.setAttribute(LAST_COMPARISON_SESSION_PATH_KEY, sessionPath.toString());
+        return ResponseEntity.accepted().body(job.toStatus(0));
+    }
+
+    // completedPairsFrom: number of completed pair results the client already has
+    @GetMapping("/compare/jobs/{jobId}")
+    @ResponseBody
+    public ResponseEntity<ComparisonJobStatus> getComparisonJob(@PathVariable String jobId,
+                                                                @RequestParam(value = "completedPairsFrom", defaultValue = "0") int completedPairsFrom) {
+        ComparisonJob job = jobService.getJob(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(job.toStatus(completedPairsFrom));
+    }
+
+    @PostMapping("/compare/jobs/{jobId}/cancel")
+    @ResponseBody
+    public ResponseEntity<ComparisonJobStatus> cancelComparisonJob(@PathVariable String jobId) {
+        ComparisonJob job = jobService.cancel(jobId);
+        if (job == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok(job.toStatus(0));
+    }
+
+    // Reads the request parameters shared by /compare and /compare/jobs; null if they are unusable
+    private ComparisonRequest parseComparisonRequest(boolean sortFiles, String manualPairsJson, String s1IgnoreConfigJson, String s2IgnoreConfigJson,
+                                                     boolean s1HasHeader, boolean s2HasHeader, Boolean streaming, String keyConfigJson,
+                                                     String textDiffStrategy, boolean fullReportForIdenticalFiles, String source1Sheet, String source2Sheet,
+                                                     String columnRulesJson) {
+        ComparisonRequest request = new ComparisonRequest();
+        request.sortFiles = sortFiles;
+        request.s1HasHeader = s1HasHeader;
+        request.s2HasHeader = s2HasHeader;
+
+        ColumnIgnoreConfig ignoreConfig = new ColumnIgnoreConfig();
+        try {
+            if (s1IgnoreConfigJson != null && !s1IgnoreConfigJson.isEmpty()) {
+                ignoreConfig.setSource1Ignore(objectMapper.readValue(s1IgnoreConfigJson, new TypeReference<Set<String>>() {}));
+            } else {
+                ignoreConfig.setSource1Ignore(Collections.emptySet());
+            }
+            if (s2IgnoreConfigJson != null && !s2IgnoreConfigJson.isEmpty()) {
+                ignoreConfig.setSource2Ignore(objectMapper.readValue(s2IgnoreConfigJson, new TypeReference<Set<String>>() {}));
+            } else {
+                ignoreConfig.setSource2Ignore(Collections.emptySet());
+            }
+        } catch (IOException e) {
+            logger.error("Error parsing column ignore config JSON: S1='{}', S2='{}', Error: {}", s1IgnoreConfigJson, s2IgnoreConfigJson, e.getMessage());
+            return null;
+        }
+        logger.info("Column Ignore Config: S1 ignore count: {}, S2 ignore count: {}", ignoreConfig.getSource1Ignore().size(), ignoreConfig.getSource2Ignore().size());
+        logger.info("Header flags: S1 has header: {}, S2 has header: {}", s1HasHeader, s2HasHeader);
+        request.ignoreConfig = ignoreConfig;
+
+        ComparisonOptions options = new ComparisonOptions();
+        options.setStreaming(streaming);
+        options.setTextDiffStrategy(textDiffStrategy);
+        options.setFullReportForIdenticalFiles(fullReportForIdenticalFiles);
+        options.setSource1Sheet(source1Sheet == null || source1Sheet.isBlank() ? null : source1Sheet.trim());
+        options.setSource2Sheet(source2Sheet == null || source2Sheet.isBlank() ? null : source2Sheet.trim());
+        if (keyConfigJson != null && !keyConfigJson.isEmpty()) {
+            try {
+                options.setKeyColumns(objectMapper.readValue(keyConfigJson, KeyColumnConfig.class));
+            } catch (IOException e) {
+                logger.error("Error parsing key column config JSON: '{}', Error: {}", keyConfigJson, e.getMessage());
+                return null;
+            }
+            logger.info("Key columns: S1: {}, S2: {}", options.getKeyColumns().getSource1Keys(), options.getKeyColumns().getSource2Keys());
+        }
+        if (columnRulesJson != null && !columnRulesJson.isBlank() && !columnRulesJson.equals("[]")) {
+            try {
+                options.setColumnRules(objectMapper.readValue(columnRulesJson, new TypeReference<List<ColumnRule>>() {}));
+                options.getColumnRules().forEach(CellComparators::compile); // Rejects unusable rules before any file is compared
+            } catch (IOException | IllegalArgumentException e) {
+                logger.error("Error parsing column rules JSON: '{}', Error: {}", columnRulesJson, e.getMessage());
+                return null;
+            }
+            logger.info("Column rules: {}", options.getColumnRules());
+        }
+        request.options = options;
+
+        if (manualPairsJson != null && !manualPairsJson.isEmpty() && !manualPairsJson.equals("[]")) {
+            try {
+                request.manualPairs = objectMapper.readValue(manualPairsJson, new TypeReference<List<ManualPair>>() {});
+                logger.info("Received {} manual pairs from UI: {}", request.manualPairs.size(), manualPairsJson);
+            } catch (IOException e) {
+                logger.error("Error parsing manualPairs JSON: '{}'. Error: {}", manualPairsJson, e.getMessage());
+                // Proceed without manual pairs if JSON is malformed, or return bad request
+            }
+        }
+        return request;
+    }
+
+    // JSON array of chunked upload ids; empty if absent, null if malformed
+    private List<String> parseUploadIds(String uploadIdsJson) {
+        if (uploadIdsJson == null || uploadIdsJson.isBlank()) return Collections.emptyList();
+        try {
+            return objectMapper.readValue(uploadIdsJson, new TypeReference<List<String>>() {});
+        } catch (IOException e) {
+            logger.error("Error parsing upload ids JSON: '{}', Error: {}", uploadIdsJson, e.getMessage());
+            return null;
+        }
+    }
+
+    // 429 with a Retry-After hint, for comparisons the admission queue has no room for
+    private ResponseEntity.BodyBuilder tooManyRequests(long retryAfterSeconds) {
+        return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds));
+    }
+
+    private List<MultipartFile> nonEmptyFiles(MultipartFile[] files) {
+        return (files != null) ?
+                Stream.of(files).filter(f -> f != null && !f.isEmpty()).collect(Collectors.toList()) :
+                Collections.emptyList();
+    }
+
+    // Same reading of a boolean form field as @RequestParam binding
+    private boolean formFlag(String value, boolean defaultValue) {
+        if (value == null || value.isEmpty()) return defaultValue;
+        String flag = value.trim().toLowerCase(Locale.ROOT);
+        return flag.equals("true") || flag.equals("on") || flag.equals("yes") || flag.equals("1");
+    }
+
+    private StoredFiles storeUploadedFiles(List<MultipartFile> source1Files, List<MultipartFile> source2Files, Path sessionPath) throws IOException {
+        StoredFiles stored = new StoredFiles();
+        for (MultipartFile file : source1Files) {
+            stored.source1Paths.add(storageService.storeUploadedFile(file, sessionPath));
+        }
+        logger.info("Stored {} files for Source 1 in session directory.", stored.source1Paths.size());
+
+        for (MultipartFile file : source2Files) {
+            stored.source2Paths.add(storageService.storeUploadedFile(file, sessionPath));
+        }
+        logger.info("Stored {} files for Source 2 in session directory.", stored.source2Paths.size());
+        return stored;
+    }
+
+    private void logCompletedComparison(ComparisonResponse response, Path sessionPath, long startTime, String userAgent, StoredFiles stored) {
+        long executionTimeMs = System.currentTimeMillis() - startTime;
+
+        String relativeSessionPathForZip = storageService.getRelativePathForClient(sessionPath, storageService.getBaseStoragePath());
+        String potentialZipPath = (relativeSessionPathForZip != null ? relativeSessionPathForZip : sessionPath.getFileName().toString())
+                + "/comparison_reports_" + sessionPath.getFileName().toString() + ".zip";
+
+        // Pass the lists of stored file Paths to the logging service
+        loggingService.logComparison(response, sessionPath.getFileName().toString(), executionTimeMs, potentialZipPath, userAgent,
+                stored.source1Paths, stored.source2Paths);
+        logger.info("Comparison completed successfully in {} ms. Session: {}", executionTimeMs, sessionPath.getFileName());
+    }
+
+    // Parsed form of the request parameters shared by /compare and /compare/jobs
+    private static class ComparisonRequest {
+        private boolean sortFiles;
+        private List<ManualPair> manualPairs;
+        private ColumnIgnoreConfig ignoreConfig;
+        private boolean s1HasHeader;
+        private boolean s2HasHeader;
+        private ComparisonOptions options;
+    }
+
+    private static class StoredFiles {
+        private final List<Path> source1Paths = new ArrayList<>();
+        private final List<Path> source2Paths = new ArrayList<>();
+    }
+
+    // Pages through the differences of one pair of the last comparison in this HTTP session
+    @GetMapping("/compare/pairs/{pairId}/differences")
+    @ResponseBody
+    public ResponseEntity<ResultPage<LineDifference>> getPairDifferences(@PathVariable String pairId,
+                                                                         @RequestParam(value = "offset", defaultValue = "0") long offset,
+                                                                         @RequestParam(value = "limit", defaultValue = "100") int limit,
+                                                                         HttpSession httpSession) {
+        Path sessionPath = lastComparisonSessionPath(httpSession);
+        if (sessionPath == null) return ResponseEntity.notFound().build();
+        if (offset < 0 || limit < 1) return ResponseEntity.badRequest().build();
+        try {
+            ResultPage<LineDifference> page = pairResultStore.readDifferences(sessionPath, pairId, offset, Math.min(limit, MAX_PAGE_SIZE));
+            return page != null ? ResponseEntity.ok(page) : ResponseEntity.notFound().build();
+        } catch (IOException e) {
+            logger.error("Could not read differences of pair {} in session {}: {}", pairId, sessionPath.getFileName(), e.getMessage());
+            return ResponseEntity.status(500).build();
+        }
+    }
+
+    // Pages through the parsed content of one side (source=1 or 2) of a pair
+    @GetMapping("/compare/pairs/{pairId}/content")
+    @ResponseBody
+    public ResponseEntity<ResultPage<String>> getPairContent(@PathVariable String pairId,
+                                                             @RequestParam(value = "source") int source,
+                                                             @RequestParam(value = "offset", defaultValue = "0") long offset,
+                                                             @RequestParam(value = "limit", defaultValue = "100") int limit,
+                                                             HttpSession httpSession) {
+        Path sessionPath = lastComparisonSessionPath(httpSession);
+        if (sessionPath == null) return ResponseEntity.notFound().build();
+        if ((source != 1 && source != 2) || offset < 0 || limit < 1) return ResponseEntity.badRequest().build();
+        try {
+            ResultPage<String> page = pairResultStore.readContent(sessionPath, pairId, source == 1, offset, Math.min(limit, MAX_PAGE_SIZE));
+            return page != null ? ResponseEntity.ok(page) : ResponseEntity.notFound().build();
+        } catch (IOException e) {
+            logger.error("Could not read content of pair {} in session {}: {}", pairId, sessionPath.getFileName(), e.getMessage());
+            return ResponseEntity.status(500).build();
+        }
+    }
+
+    private Path lastComparisonSessionPath(HttpSession httpSession) {
+        String sessionPathString = (String) httpSession.getAttribute(LAST_COMPARISON_SESSION_PATH_KEY);
+        if (sessionPathString == null) {
+            logger.warn("Pair details requested but no comparison session found in HTTP session.");
+            return null;
         }
+        Path sessionPath = Path.of(sessionPathString);
+        return Files.isDirectory(sessionPath) ? sessionPath : null;
     }
 
+    /*
+     * The first download of a session's reports is streamed while the ZIP is being built, entries deflated in
+     * parallel; later downloads are served from the archive kept in the session directory, until its reports change.
+     */
     @GetMapping("/download-reports")
-    public ResponseEntity<Resource> downloadReportsZip(HttpSession httpSession) {
+    public ResponseEntity<StreamingResponseBody> downloadReportsZip(HttpSession httpSession) {
         String sessionPathString = (String) httpSession.getAttribute(LAST_COMPARISON_SESSION_PATH_KEY);
 
         if (sessionPathString == null) {
@@ -207,39 +599,34 @@ public class CompareController {
         }
 
         // Construct the ZIP file name based on the session directory's name (which is a UUID)
-        String zipFileName = "comparison_reports_" + sessionAbsolutePath.getFileName().toString() + ".zip";
-        Path zipFilePath = null;
-
+        String zipFileName = ReportArchiveService.archiveFileName(sessionAbsolutePath);
+        ResponseEntity.BodyBuilder response = ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + zipFileName + "\"")
+                .contentType(MediaType.parseMediaType("application/zip"));
+
+        // Note: Automatic cleanup after download might be too aggressive.
+        // The user might want to interact more with the results or download again.
+        // For now, we leave the cleanup to the /cleanup-comparison-session endpoint.
         try {
-            // The createZipFromReports method will create the zip inside the session directory
-            zipFilePath = storageService.createZipFromReports(sessionAbsolutePath, zipFileName);
-
-            if (!Files.exists(zipFilePath)) {
-                logger.error("ZIP file {} was expected but not found after creation attempt.", zipFilePath);
-                return ResponseEntity.status(500).body(null); // Internal server error
+            Path cachedZip = reportArchiveService.getCachedArchive(sessionAbsolutePath);
+            if (cachedZip != null) {
+                logger.info("Serving ZIP file: {}", cachedZip);
+                return response.contentLength(Files.size(cachedZip)).body(out -> Files.copy(cachedZip, out));
             }
-
-            Resource resource = new InputStreamResource(new FileInputStream(zipFilePath.toFile()));
-            logger.info("Serving ZIP file: {}", zipFilePath);
-
-            // Note: Automatic cleanup after download might be too aggressive.
-            // The user might want to interact more with the results or download again.
-            // Consider a separate explicit cleanup action or timed cleanup.
-            // For now, we leave the cleanup to the /cleanup-comparison-session endpoint.
-
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + zipFilePath.getFileName().toString() + "\"")
-                    .contentType(MediaType.parseMediaType("application/zip"))
-                    .contentLength(Files.size(zipFilePath))
-                    .body(resource);
         } catch (IOException e) {
-            logger.error("Error creating or serving ZIP file from session path {}: {}", sessionAbsolutePath, e.getMessage(), e);
-            // If zipFilePath was created but an error occurred while serving, try to delete it.
-            if (zipFilePath != null && Files.exists(zipFilePath)) {
-                try { Files.delete(zipFilePath); } catch (IOException ex) { logger.error("Could not delete partially created/failed zip {}: {}", zipFilePath, ex.getMessage()); }
-            }
+            logger.error("Error reading reports of session path {}: {}", sessionAbsolutePath, e.getMessage(), e);
             return ResponseEntity.status(500).body(null);
         }
+        logger.info("Streaming new ZIP file for session {}", sessionAbsolutePath.getFileName());
+        return response.body(out -> {
+            try {
+                reportArchiveService.writeArchive(sessionAbsolutePath, out);
+            } catch (IOException e) {
+                // The response is under way, so all that is left is to cut it short
+                logger.error("Error creating or serving ZIP file from session path {}: {}", sessionAbsolutePath, e.getMessage());
+                throw e;
+            }
+        });
     }
 
     @PostMapping("/cleanup-comparison-session")
@@ -250,6 +637,10 @@ public class CompareController {
         if (sessionPathString != null) {
             Path sessionAbsolutePath = Path.of(sessionPathString);
             logger.info("User initiated cleanup for session: {}", sessionPathString);
+            if (jobService.cancelSessionJobs(sessionAbsolutePath)) {
+                // The job deletes the session itself once it stops; a repeated cleanup then finds nothing left to delete
+                return ResponseEntity.status(HttpStatus.CONFLICT).body("The comparison of this session is being cancelled; try the cleanup again once it has stopped.");
+            }
             storageService.deleteSessionDirectory(sessionAbsolutePath); // This handles actual deletion
             httpSession.removeAttribute(LAST_COMPARISON_SESSION_PATH_KEY); // Clear from HTTP session
             return ResponseEntity.ok("Comparison session data and temporary files cleaned up successfully.");
@@ -0,0 +1,100 @@
+package com.github.kleash.controller;
+
+import com.github.kleash.dto.UploadStatus;
+import com.github.kleash.service.ChunkedUpload;
+import com.github.kleash.service.ChunkedUploadService;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.*;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.io.IOException;
+
+/**
+ * Resumable uploads for files too large to send in one request. Create the upload, PUT each chunk (raw bytes, with
+ * its SHA-256 in the X-Chunk-SHA256 header), GET the upload to see which chunks are still missing, then finalize.
+ * Finalized uploads are passed to /compare/jobs by id (source1UploadIds / source2UploadIds).
+ */
+@Controller
+@RequestMapping("/uploads")
+public class UploadController {
+    private static final Logger logger = LoggerFactory.getLogger(UploadController.class);
+    private static final String CHUNK_CHECKSUM_HEADER = "X-Chunk-SHA256";
+
+    @Autowired
+    private ChunkedUploadService uploadService;
+
+    @PostMapping
+    @ResponseBody
+    public ResponseEntity<UploadStatus> createUpload(@RequestParam("fileName") String fileName,
+                                                     @RequestParam("size") long size,
+                                                     @RequestParam("chunkSize") int chunkSize) {
+        try {
+            ChunkedUpload upload = uploadService.create(fileName, size, chunkSize);
+            return ResponseEntity.status(HttpStatus.CREATED).body(upload.toStatus());
+        } catch (IllegalArgumentException e) {
+            logger.warn("Rejected chunked upload of {}: {}", fileName, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (IOException e) {
+            logger.error("Could not create chunked upload of {}: {}", fileName, e.getMessage(), e);
+            return ResponseEntity.status(500).build();
+        }
+    }
+
+    @GetMapping("/{uploadId}")
+    @ResponseBody
+    public ResponseEntity<UploadStatus> getUpload(@PathVariable String uploadId) {
+        ChunkedUpload upload = uploadService.getUpload(uploadId);
+        return upload != null ? ResponseEntity.ok(upload.toStatus()) : ResponseEntity.notFound().build();
+    }
+
+    // Chunks may be sent in any order, in parallel, and again after a failure. The body is the raw bytes (application/octet-stream)
+    @PutMapping(value = "/{uploadId}/chunks/{index}", consumes = MediaType.APPLICATION_OCTET_STREAM_VALUE)
+    @ResponseBody
+    public ResponseEntity<UploadStatus> putChunk(@PathVariable String uploadId, @PathVariable int index,
+                                                 @RequestHeader(value = CHUNK_CHECKSUM_HEADER, required = false) String checksum,
+                                                 HttpServletRequest httpRequest) {
+        try {
+            ChunkedUpload upload = uploadService.writeChunk(uploadId, index, httpRequest.getInputStream(), checksum);
+            return upload != null ? ResponseEntity.ok(upload.toStatus()) : ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            logger.warn("Rejected chunk {} of upload {}: {}", index, uploadId, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        } catch (IOException e) {
+            logger.warn("Chunk {} of upload {} was not completely received: {}", index, uploadId, e.getMessage());
+            return ResponseEntity.status(500).build();
+        }
+    }
+
+    @PostMapping("/{uploadId}/finalize")
+    @ResponseBody
+    public ResponseEntity<UploadStatus> finalizeUpload(@PathVariable String uploadId,
+                                                       @RequestParam(value = "sha256", required = false) String sha256) {
+        try {
+            ChunkedUpload upload = uploadService.finalizeUpload(uploadId, sha256);
+            return upload != null ? ResponseEntity.ok(upload.toStatus()) : ResponseEntity.notFound().build();
+        } catch (IllegalArgumentException e) {
+            logger.warn("Could not finalize upload {}: {}", uploadId, e.getMessage());
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            ChunkedUpload upload = uploadService.getUpload(uploadId);
+            return ResponseEntity.status(HttpStatus.CONFLICT).body(upload != null ? upload.toStatus() : null);
+        } catch (IOException e) {
+            logger.error("Could not finalize upload {}: {}", uploadId, e.getMessage(), e);
+            return ResponseEntity.status(500).build();
+        }
+    }
+
+    @DeleteMapping("/{uploadId}")
+    @ResponseBody
+    public ResponseEntity<Void> deleteUpload(@PathVariable String uploadId) {
+        return uploadService.delete(uploadId) ? ResponseEntity.noContent().build() : ResponseEntity.notFound().build();
+    }
+}
@@ -0,0 +1,13 @@
+package com.github.kleash.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ColumnMismatchCount {
+    private String column; // Header name in Source 1, or "Column n" (1-based file column) without one
+    private int mismatchCount; // Mismatched rows that differ in this column
+}
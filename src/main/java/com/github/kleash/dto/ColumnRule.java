@@ -0,0 +1,20 @@
+package com.github.kleash.dto;
+import lombok.Data;
+
+@Data
+public class ColumnRule {
+    public enum Type { NUMERIC, DATE, CASE_INSENSITIVE, REGEX }
+    // Column the rule applies to, as a Source 1 header name or 0-based column index (same format as ColumnIgnoreConfig)
+    private String column;
+    private Type type;
+    // NUMERIC: cells are equal if they differ by at most the absolute tolerance, or by at most the relative
+    // tolerance times the larger of the two values. Both default to 0, i.e. numerically equal (1.0 = 1.00)
+    private Double absoluteTolerance;
+    private Double relativeTolerance;
+    // DATE: DateTimeFormatter patterns of each side (e.g. "dd/MM/yyyy HH:mm"); null = ISO date or date-time
+    private String source1Format;
+    private String source2Format;
+    // REGEX: both cells have every match of pattern replaced with replacement (default "") before comparing
+    private String pattern;
+    private String replacement;
+}
@@ -0,0 +1,25 @@
+package com.github.kleash.dto;
+
+import lombok.Data;
+import java.util.List;
+
+@Data
+public class ComparisonJobStatus {
+    public enum State {
+        QUEUED, RUNNING, COMPLETED, FAILED, CANCELLED
+    }
+
+    private String jobId;
+    private State state;
+    private int pairsTotal; // 0 until the pairs have been planned
+    private int pairsDone;
+    private long rowsProcessed; // Rows read so far, both sources together
+    private long submittedAt; // Epoch milliseconds
+    private Long startedAt;
+    private Long finishedAt;
+    private String errorMessage;
+    // Pair results finished so far (in completion order), starting at completedPairsOffset
+    private int completedPairsOffset;
+    private List<FilePairResult> completedPairResults;
+    private ComparisonResponse result; // Set once the job is COMPLETED
+}
@@ -0,0 +1,23 @@
+package com.github.kleash.dto;
+
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class ComparisonOptions {
+    // Compare rows straight from the files without keeping them in memory.
+    // null = decide per pair from file size (file.comparison.streaming.threshold-bytes)
+    private Boolean streaming;
+    // When set, rows are matched by these key columns instead of by position
+    private KeyColumnConfig keyColumns;
+    // How individual columns compare (numeric tolerance, date formats, ...); other columns compare as trimmed text
+    private List<ColumnRule> columnRules;
+    // Line-diff strategy for TEXT/JSON pairs; null = file.comparison.text-diff.strategy
+    private String textDiffStrategy;
+    // Byte-identical pairs get a summary-only report unless this is set
+    private boolean fullReportForIdenticalFiles;
+    // Excel sheet to compare on each side, by name or 0-based index; null = first sheet
+    private String source1Sheet;
+    private String source2Sheet;
+}
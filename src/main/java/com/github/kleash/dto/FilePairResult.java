@@ -1,4 +1,5 @@
 package com.github.kleash.dto;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Data;
 import java.util.ArrayList;
 import java.util.List;
@@ -6,18 +7,35 @@ import java.util.List;
 @Data
 public class FilePairResult {
     public enum Status { MATCHED, MISMATCHED, MISSING_IN_SOURCE1, MISSING_IN_SOURCE2, PARSE_ERROR_S1, PARSE_ERROR_S2, DIFFERENT_ROW_COUNT}
+    public enum ComparisonMode { POSITIONAL, KEYED, SEQUENCE_DIFF }
     private String source1FileName;
     private String source2FileName;
+    @JsonIgnore
     private transient java.nio.file.Path source1FilePath; // Server-side path, not for JSON response
+    @JsonIgnore
     private transient java.nio.file.Path source2FilePath; // Server-side path, not for JSON response
     private Status status;
+    private ComparisonMode comparisonMode = ComparisonMode.POSITIONAL;
+    private boolean byteIdentical; // Matched on file digest alone; content is only loaded when a full report was requested
     private String errorMessage;
+    private String pairId; // Id under which content and differences can be paged from the session's result store
+    // Held only until the pair's report and result store are written; clients page them by pairId
+    @JsonIgnore
     private List<String> source1Content; // Parsed content
+    @JsonIgnore
     private List<String> source2Content; // Parsed content
-    private List<LineDifference> differences = new ArrayList<>();
+    @JsonIgnore
+    private List<LineDifference> differences = new ArrayList<>(); // The first file.comparison.differences.max-in-memory only
+    @JsonIgnore
+    private transient java.nio.file.Path differenceOverflowPath; // Differences beyond those, as a result-store record file pair (.dat/.idx)
+    private List<LineDifference> differenceSample = new ArrayList<>(); // Random sample over all differences, in line order
+    private int source1LineCount = 0;
+    private int source2LineCount = 0;
+    private int differenceCount = 0;
     private int matchCount = 0;
     private int mismatchCount = 0;
     private int missingInSource1Count = 0;
     private int missingInSource2Count = 0;
+    private List<ColumnMismatchCount> columnMismatches = new ArrayList<>(); // Per kept column, in column order; empty without mismatched rows
     private String individualReportPath; // Relative path to the individual CSV report for this pair (for client)
 }
\ No newline at end of file
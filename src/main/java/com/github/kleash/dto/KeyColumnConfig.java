@@ -0,0 +1,12 @@
+package com.github.kleash.dto;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+public class KeyColumnConfig {
+    // Columns that identify a row, as header names or 0-based column indices (same format as ColumnIgnoreConfig).
+    // Order matters for composite keys. If source2Keys is empty the source1Keys are used for both sides.
+    private List<String> source1Keys;
+    private List<String> source2Keys;
+}
@@ -13,4 +13,9 @@ public class LineDifference {
     private String source1Line;
     private String source2Line;
     private DiffType type;
+    private String key; // Row key for key-based comparisons, null for positional ones
+
+    public LineDifference(int lineNumber, String source1Line, String source2Line, DiffType type) {
+        this(lineNumber, source1Line, source2Line, type, null);
+    }
 }
\ No newline at end of file
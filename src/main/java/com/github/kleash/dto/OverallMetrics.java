@@ -2,6 +2,9 @@ package com.github.kleash.dto;
 
 import lombok.Data;
 
+import java.util.LinkedHashMap;
+import java.util.Map;
+
 @Data
 public class OverallMetrics {
     private int totalFilesS1;
@@ -15,4 +18,5 @@ public class OverallMetrics {
     private int totalLineMismatches;
     private int totalLinesMissingInS1; // Across all compared pairs
     private int totalLinesMissingInS2; // Across all compared pairs
+    private Map<String, Integer> columnMismatchCounts = new LinkedHashMap<>(); // Per column name, summed across pairs
 }
\ No newline at end of file
@@ -0,0 +1,15 @@
+package com.github.kleash.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import java.util.List;
+
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class ResultPage<T> {
+    private long offset; // Index of the first item in this page
+    private long total; // Items available in all pages together
+    private List<T> items;
+}
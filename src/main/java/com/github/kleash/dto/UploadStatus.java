@@ -0,0 +1,17 @@
+package com.github.kleash.dto;
+
+import lombok.Data;
+import java.util.List;
+
+@Data
+public class UploadStatus {
+    private String uploadId;
+    private String fileName;
+    private long size; // Total bytes of the file
+    private int chunkSize; // Bytes per chunk; the last chunk holds the remainder
+    private int chunkCount;
+    private int receivedChunks;
+    private List<Integer> missingChunks; // Indices still to be sent, in ascending order
+    private boolean finalized;
+    private String sha256; // Digest of the assembled file, once finalized
+}
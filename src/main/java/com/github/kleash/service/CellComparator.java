@@ -0,0 +1,11 @@
+package com.github.kleash.service;
+
+/**
+ * Decides whether two cells of one column are equal. Compiled once per pair from the request's column rules (see
+ * {@link CellComparators}) and shared by the threads comparing it, so implementations keep no per-call state.
+ */
+@FunctionalInterface
+public interface CellComparator {
+    // Either cell may be null (an absent or empty cell)
+    boolean equal(String cell1, String cell2);
+}
@@ -0,0 +1,253 @@
+package com.github.kleash.service;
+
+import com.github.kleash.dto.ColumnRule;
+
+import java.math.BigDecimal;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.OffsetDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.format.DateTimeParseException;
+import java.time.temporal.TemporalAccessor;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * The comparators behind {@link ColumnRule}s. Every one first tries the default comparison (trimmed text), so cells
+ * that are textually equal never reach the rule, and falls back to it for cells the rule cannot read (e.g. "N/A" in
+ * a numeric column).
+ */
+public final class CellComparators {
+
+    // ISO date, optionally with a time and an offset: 2024-03-01, 2024-03-01T10:15, 2024-03-01T10:15:30+01:00
+    private static final DateTimeFormatter ISO_DATE_OR_DATE_TIME = new DateTimeFormatterBuilder()
+            .append(DateTimeFormatter.ISO_LOCAL_DATE)
+            .optionalStart().appendLiteral('T').append(DateTimeFormatter.ISO_LOCAL_TIME)
+            .optionalStart().appendOffsetId().optionalEnd()
+            .optionalEnd()
+            .toFormatter();
+
+    private CellComparators() {
+    }
+
+    /**
+     * Compiles one rule; throws IllegalArgumentException for a rule that cannot be used (no type, a negative
+     * tolerance, an invalid date pattern or regex).
+     */
+    public static CellComparator compile(ColumnRule rule) {
+        if (rule == null || rule.getType() == null) {
+            throw new IllegalArgumentException("Column rule without a type");
+        }
+        if (rule.getColumn() == null || rule.getColumn().isBlank()) {
+            throw new IllegalArgumentException("Column rule without a column");
+        }
+        switch (rule.getType()) {
+            case NUMERIC:
+                double absoluteTolerance = rule.getAbsoluteTolerance() != null ? rule.getAbsoluteTolerance() : 0;
+                double relativeTolerance = rule.getRelativeTolerance() != null ? rule.getRelativeTolerance() : 0;
+                if (!(absoluteTolerance >= 0) || !(relativeTolerance >= 0)) {
+                    throw new IllegalArgumentException("Tolerances of column " + rule.getColumn() + " must be zero or positive");
+                }
+                return new NumericComparator(absoluteTolerance, relativeTolerance);
+            case DATE:
+                return new DateComparator(dateFormatter(rule.getSource1Format()), dateFormatter(rule.getSource2Format()));
+            case CASE_INSENSITIVE:
+                return CellComparators::trimmedEqualsIgnoreCase;
+            case REGEX:
+                if (rule.getPattern() == null || rule.getPattern().isEmpty()) {
+                    throw new IllegalArgumentException("REGEX rule of column " + rule.getColumn() + " has no pattern");
+                }
+                try {
+                    return new RegexComparator(Pattern.compile(rule.getPattern()), rule.getReplacement() != null ? rule.getReplacement() : "");
+                } catch (PatternSyntaxException e) {
+                    throw new IllegalArgumentException("Invalid pattern for column " + rule.getColumn() + ": " + e.getDescription(), e);
+                }
+            default:
+                throw new IllegalArgumentException("Unsupported column rule type " + rule.getType());
+        }
+    }
+
+    private static DateTimeFormatter dateFormatter(String pattern) {
+        return pattern == null || pattern.isBlank() ? ISO_DATE_OR_DATE_TIME : DateTimeFormatter.ofPattern(pattern.trim());
+    }
+
+    private static boolean trimmedEqualsIgnoreCase(String a, String b) {
+        if (a == null) a = "";
+        if (b == null) b = "";
+        int start1 = 0;
+        int end1 = a.length();
+        while (start1 < end1 && a.charAt(start1) <= ' ') start1++;
+        while (end1 > start1 && a.charAt(end1 - 1) <= ' ') end1--;
+        int start2 = 0;
+        int end2 = b.length();
+        while (start2 < end2 && b.charAt(start2) <= ' ') start2++;
+        while (end2 > start2 && b.charAt(end2 - 1) <= ' ') end2--;
+        int length = end1 - start1;
+        return length == end2 - start2 && a.regionMatches(true, start1, b, start2, length);
+    }
+
+    /**
+     * Plain decimals (optional sign, digits, optional fraction, at most 15 significant digits) are read straight from
+     * the characters into a scaled long, so comparing them allocates nothing; only other numbers (exponents, longer
+     * values) go through BigDecimal.
+     */
+    static final class NumericComparator implements CellComparator {
+        static final long NOT_PLAIN = Long.MIN_VALUE;
+        private static final int MAX_DIGITS = 15; // Any decimal of up to 15 significant digits is exact as a double too
+        private static final int MAX_SCALE = 31;  // Fits the 5 bits the scale is packed into
+        private static final long[] POWERS_OF_TEN = new long[19];
+        private static final double[] POWERS_OF_TEN_DOUBLE = new double[MAX_SCALE + 1];
+
+        static {
+            POWERS_OF_TEN[0] = 1;
+            for (int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+            for (int i = 0; i <= MAX_SCALE; i++) POWERS_OF_TEN_DOUBLE[i] = Double.parseDouble("1e" + i);
+        }
+
+        private final double absoluteTolerance;
+        private final double relativeTolerance;
+
+        NumericComparator(double absoluteTolerance, double relativeTolerance) {
+            this.absoluteTolerance = absoluteTolerance;
+            this.relativeTolerance = relativeTolerance;
+        }
+
+        @Override
+        public boolean equal(String cell1, String cell2) {
+            if (KeptColumnMap.trimmedEquals(cell1, cell2)) return true;
+            long packed1 = parsePlain(cell1);
+            long packed2 = parsePlain(cell2);
+            if (packed1 != NOT_PLAIN && packed2 != NOT_PLAIN) {
+                long unscaled1 = packed1 >> 5;
+                long unscaled2 = packed2 >> 5;
+                int scale1 = (int) (packed1 & 31);
+                int scale2 = (int) (packed2 & 31);
+                int scale = Math.max(scale1, scale2);
+                // Both at the common scale; the exact difference is then a long, unless that would overflow
+                if (scale - scale1 < POWERS_OF_TEN.length && scale - scale2 < POWERS_OF_TEN.length
+                        && Math.abs(unscaled1) <= Long.MAX_VALUE / 2 / POWERS_OF_TEN[scale - scale1]
+                        && Math.abs(unscaled2) <= Long.MAX_VALUE / 2 / POWERS_OF_TEN[scale - scale2]) {
+                    long difference = unscaled1 * POWERS_OF_TEN[scale - scale1] - unscaled2 * POWERS_OF_TEN[scale - scale2];
+                    if (difference == 0) return true;
+                    double absoluteDifference = Math.abs((double) difference) / POWERS_OF_TEN_DOUBLE[scale];
+                    double larger = Math.max(Math.abs(unscaled1 / POWERS_OF_TEN_DOUBLE[scale1]), Math.abs(unscaled2 / POWERS_OF_TEN_DOUBLE[scale2]));
+                    return absoluteDifference <= absoluteTolerance || absoluteDifference <= relativeTolerance * larger;
+                }
+            }
+            return equalAsBigDecimals(cell1, cell2);
+        }
+
+        private boolean equalAsBigDecimals(String cell1, String cell2) {
+            BigDecimal value1 = toBigDecimal(cell1);
+            BigDecimal value2 = toBigDecimal(cell2);
+            if (value1 == null || value2 == null) return false; // Not numbers, and already known to differ as text
+            BigDecimal difference = value1.subtract(value2).abs();
+            if (difference.signum() == 0) return true;
+            BigDecimal larger = value1.abs().max(value2.abs());
+            return difference.compareTo(BigDecimal.valueOf(absoluteTolerance)) <= 0
+                    || difference.compareTo(BigDecimal.valueOf(relativeTolerance).multiply(larger)) <= 0;
+        }
+
+        private static BigDecimal toBigDecimal(String cell) {
+            if (cell == null || cell.isBlank()) return null;
+            try {
+                return new BigDecimal(cell.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        // Unscaled value shifted left by 5 bits, or'ed with the scale; NOT_PLAIN for anything else
+        static long parsePlain(String cell) {
+            if (cell == null) return NOT_PLAIN;
+            int start = 0;
+            int end = cell.length();
+            while (start < end && cell.charAt(start) <= ' ') start++;
+            while (end > start && cell.charAt(end - 1) <= ' ') end--;
+            if (start == end) return NOT_PLAIN;
+
+            boolean negative = false;
+            char first = cell.charAt(start);
+            if (first == '-' || first == '+') {
+                negative = first == '-';
+                start++;
+            }
+            long unscaled = 0;
+            int significantDigits = 0;
+            int digits = 0;
+            int scale = -1; // -1 until the decimal point
+            for (int i = start; i < end; i++) {
+                char c = cell.charAt(i);
+                if (c == '.') {
+                    if (scale >= 0) return NOT_PLAIN;
+                    scale = 0;
+                    continue;
+                }
+                if (c < '0' || c > '9') return NOT_PLAIN;
+                digits++;
+                if (scale >= 0 && ++scale > MAX_SCALE) return NOT_PLAIN;
+                if (unscaled == 0 && c == '0') continue; // Leading zeros are not significant
+                if (++significantDigits > MAX_DIGITS) return NOT_PLAIN;
+                unscaled = unscaled * 10 + (c - '0');
+            }
+            if (digits == 0) return NOT_PLAIN;
+            if (scale < 0) scale = 0;
+            return ((negative ? -unscaled : unscaled) << 5) | scale;
+        }
+    }
+
+    // Both cells parsed with their side's pattern; equal if they name the same date, local date-time or instant
+    static final class DateComparator implements CellComparator {
+        private final DateTimeFormatter formatter1;
+        private final DateTimeFormatter formatter2;
+
+        DateComparator(DateTimeFormatter formatter1, DateTimeFormatter formatter2) {
+            this.formatter1 = formatter1;
+            this.formatter2 = formatter2;
+        }
+
+        @Override
+        public boolean equal(String cell1, String cell2) {
+            if (formatter1 == formatter2 && KeptColumnMap.trimmedEquals(cell1, cell2)) return true;
+            Object value1 = normalize(cell1, formatter1);
+            Object value2 = normalize(cell2, formatter2);
+            if (value1 == null || value2 == null) return KeptColumnMap.trimmedEquals(cell1, cell2);
+            return value1.equals(value2);
+        }
+
+        // An Instant if the text has an offset, otherwise a LocalDateTime (midnight for a date alone); null if unreadable
+        private static Object normalize(String cell, DateTimeFormatter formatter) {
+            if (cell == null || cell.isBlank()) return null;
+            try {
+                TemporalAccessor parsed = formatter.parseBest(cell.trim(), OffsetDateTime::from, LocalDateTime::from, LocalDate::from);
+                if (parsed instanceof OffsetDateTime) return ((OffsetDateTime) parsed).toInstant();
+                if (parsed instanceof LocalDate) return ((LocalDate) parsed).atStartOfDay();
+                return parsed;
+            } catch (DateTimeParseException e) {
+                return null;
+            }
+        }
+    }
+
+    // Both cells, trimmed, with every match of the pattern replaced before they are compared
+    static final class RegexComparator implements CellComparator {
+        private final Pattern pattern;
+        private final String replacement;
+
+        RegexComparator(Pattern pattern, String replacement) {
+            this.pattern = pattern;
+            this.replacement = replacement;
+        }
+
+        @Override
+        public boolean equal(String cell1, String cell2) {
+            if (KeptColumnMap.trimmedEquals(cell1, cell2)) return true;
+            return normalize(cell1).equals(normalize(cell2));
+        }
+
+        private String normalize(String cell) {
+            return pattern.matcher(cell == null ? "" : cell.trim()).replaceAll(replacement);
+        }
+    }
+}
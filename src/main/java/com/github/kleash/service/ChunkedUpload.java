@@ -0,0 +1,124 @@
+package com.github.kleash.service;
+
+import com.github.kleash.dto.UploadStatus;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * One file being uploaded in numbered chunks. Chunks may arrive in any order and in parallel, one write per chunk at
+ * a time; a chunk counts as received once it has been written completely and its checksum matched, and no longer
+ * while it is being written again.
+ */
+public class ChunkedUpload {
+
+    private final String id;
+    private final String fileName;
+    private final long size;
+    private final int chunkSize;
+    private final int chunkCount;
+    private final Path directory; // Session directory holding the assembled file
+    private final Path file;
+    private final BitSet receivedChunks;
+    private final BitSet chunksInFlight;
+    private boolean finalized;
+    private FileFingerprint fingerprint;
+    private long lastActivity = System.currentTimeMillis();
+
+    ChunkedUpload(String id, String fileName, long size, int chunkSize, Path directory) {
+        this.id = id;
+        this.fileName = fileName;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+        this.directory = directory;
+        this.file = directory.resolve(fileName);
+        this.receivedChunks = new BitSet(chunkCount);
+        this.chunksInFlight = new BitSet(chunkCount);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    Path getDirectory() {
+        return directory;
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    int getChunkCount() {
+        return chunkCount;
+    }
+
+    long chunkOffset(int index) {
+        return (long) index * chunkSize;
+    }
+
+    long chunkLength(int index) {
+        return Math.min(chunkSize, size - chunkOffset(index));
+    }
+
+    synchronized FileFingerprint getFingerprint() {
+        return fingerprint;
+    }
+
+    synchronized boolean isFinalized() {
+        return finalized;
+    }
+
+    synchronized long getLastActivity() {
+        return lastActivity;
+    }
+
+    /*
+     * A write of chunk index starts; false if one is already in progress. The chunk stops counting as received,
+     * since its bytes on disk are overwritten before they are verified again.
+     */
+    synchronized boolean beginChunk(int index) {
+        if (chunksInFlight.get(index)) return false;
+        chunksInFlight.set(index);
+        receivedChunks.clear(index);
+        lastActivity = System.currentTimeMillis();
+        return true;
+    }
+
+    synchronized void endChunk(int index, boolean received) {
+        chunksInFlight.clear(index);
+        if (received) receivedChunks.set(index);
+        lastActivity = System.currentTimeMillis();
+    }
+
+    // True when every chunk is in and no chunk is being rewritten, i.e. the file may be finalized
+    synchronized boolean isComplete() {
+        return chunksInFlight.isEmpty() && receivedChunks.cardinality() == chunkCount;
+    }
+
+    synchronized void markFinalized(FileFingerprint fingerprint) {
+        this.finalized = true;
+        this.fingerprint = fingerprint;
+        this.lastActivity = System.currentTimeMillis();
+    }
+
+    public synchronized UploadStatus toStatus() {
+        UploadStatus status = new UploadStatus();
+        status.setUploadId(id);
+        status.setFileName(fileName);
+        status.setSize(size);
+        status.setChunkSize(chunkSize);
+        status.setChunkCount(chunkCount);
+        status.setReceivedChunks(receivedChunks.cardinality());
+        List<Integer> missing = new ArrayList<>();
+        for (int i = receivedChunks.nextClearBit(0); i < chunkCount; i = receivedChunks.nextClearBit(i + 1)) {
+            missing.add(i);
+        }
+        status.setMissingChunks(missing);
+        status.setFinalized(finalized);
+        status.setSha256(fingerprint != null ? fingerprint.getDigest() : null);
+        return status;
+    }
+}
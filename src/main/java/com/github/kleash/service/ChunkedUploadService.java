@@ -0,0 +1,216 @@
+package com.github.kleash.service;
+
+import com.github.kleash.util.FileTypeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Resumable uploads: a file is created with its size, sent as numbered chunks (each with its SHA-256) in any order
+ * and in parallel, and finalized once every chunk is in. Each chunk is written straight to its offset in the file,
+ * which lives in a session directory of its own until a comparison claims it.
+ * <p>
+ * Invalid requests throw IllegalArgumentException, requests that do not fit the upload's state IllegalStateException;
+ * unknown upload ids give null.
+ */
+@Service
+public class ChunkedUploadService {
+    private static final Logger logger = LoggerFactory.getLogger(ChunkedUploadService.class);
+    private static final int WRITE_BUFFER_BYTES = 1 << 16;
+
+    @Autowired
+    private StorageService storageService;
+
+    @Value("${file.comparison.upload.max-file-size:10GB}")
+    private DataSize maxFileSize;
+
+    @Value("${file.comparison.upload.chunked.max-chunk-size:64MB}")
+    private DataSize maxChunkSize;
+
+    // Uploads not touched for this long are deleted, finalized or not
+    @Value("${file.comparison.upload.chunked.retention-minutes:1440}")
+    private long retentionMinutes;
+
+    private final Map<String, ChunkedUpload> uploads = new ConcurrentHashMap<>();
+
+    public ChunkedUpload create(String fileName, long size, int chunkSize) throws IOException {
+        purgeExpiredUploads();
+        if (fileName == null || fileName.isBlank() || fileName.contains("..") || !Path.of(fileName).getFileName().toString().equals(fileName)) {
+            throw new IllegalArgumentException("Invalid file name: " + fileName);
+        }
+        if (size < 1 || size > maxFileSize.toBytes()) {
+            throw new IllegalArgumentException("File size must be between 1 and " + maxFileSize.toBytes() + " bytes");
+        }
+        if (chunkSize < 1 || chunkSize > maxChunkSize.toBytes()) {
+            throw new IllegalArgumentException("Chunk size must be between 1 and " + maxChunkSize.toBytes() + " bytes");
+        }
+        if ((size + chunkSize - 1) / chunkSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Chunk size too small for a file of " + size + " bytes");
+        }
+
+        Path directory = storageService.createSessionDirectory();
+        ChunkedUpload upload = new ChunkedUpload(UUID.randomUUID().toString(), fileName, size, chunkSize, directory);
+        try (RandomAccessFile file = new RandomAccessFile(upload.getFile().toFile(), "rw")) {
+            file.setLength(size); // Chunks are written in place, so the file has its final length from the start
+        } catch (IOException e) {
+            storageService.deleteSessionDirectory(directory);
+            throw e;
+        }
+        uploads.put(upload.getId(), upload);
+        logger.info("Created chunked upload {} for {} ({} bytes in {} chunks)", upload.getId(), fileName, size, upload.getChunkCount());
+        return upload;
+    }
+
+    public ChunkedUpload getUpload(String uploadId) {
+        purgeExpiredUploads();
+        return uploads.get(uploadId);
+    }
+
+    /**
+     * Writes chunk {@code index} from {@code body} at its offset, hashing it on the way. The chunk only counts as
+     * received if its length and SHA-256 (hex) match; otherwise it can simply be sent again. A chunk sent again
+     * counts as missing until it has been verified again, and only one write per chunk runs at a time.
+     */
+    public ChunkedUpload writeChunk(String uploadId, int index, InputStream body, String expectedSha256) throws IOException {
+        ChunkedUpload upload = getUpload(uploadId);
+        if (upload == null) return null;
+        if (index < 0 || index >= upload.getChunkCount()) {
+            throw new IllegalArgumentException("Chunk index " + index + " outside 0.." + (upload.getChunkCount() - 1));
+        }
+        if (expectedSha256 == null || expectedSha256.isBlank()) {
+            throw new IllegalArgumentException("Missing chunk checksum");
+        }
+        synchronized (upload) {
+            if (upload.isFinalized()) {
+                throw new IllegalStateException("Upload " + uploadId + " is already finalized");
+            }
+            if (!upload.beginChunk(index)) {
+                throw new IllegalStateException("Chunk " + index + " of upload " + uploadId + " is already being written");
+            }
+        }
+
+        boolean received = false;
+        try (FileChannel channel = FileChannel.open(upload.getFile(), StandardOpenOption.WRITE);
+             InputStream in = new BufferedInputStream(body, WRITE_BUFFER_BYTES)) {
+            MessageDigest digest = newDigest();
+            long position = upload.chunkOffset(index);
+            long remaining = upload.chunkLength(index);
+            byte[] buffer = new byte[WRITE_BUFFER_BYTES];
+            int read;
+            while ((read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining + 1))) != -1) {
+                if (read > remaining) {
+                    throw new IllegalArgumentException("Chunk " + index + " is longer than " + upload.chunkLength(index) + " bytes");
+                }
+                digest.update(buffer, 0, read);
+                ByteBuffer data = ByteBuffer.wrap(buffer, 0, read);
+                while (data.hasRemaining()) {
+                    position += channel.write(data, position); // Positional: parallel chunks do not share a file pointer
+                }
+                remaining -= read;
+            }
+            if (remaining > 0) {
+                throw new IllegalArgumentException("Chunk " + index + " is " + remaining + " bytes short");
+            }
+            String actualSha256 = HexFormat.of().formatHex(digest.digest());
+            if (!actualSha256.equalsIgnoreCase(expectedSha256.trim())) {
+                throw new IllegalArgumentException("Checksum mismatch for chunk " + index);
+            }
+            received = true;
+        } finally {
+            upload.endChunk(index, received);
+        }
+        return upload;
+    }
+
+    /**
+     * Checks that every chunk is in and fingerprints the assembled file. If {@code expectedSha256} is given the
+     * whole file must match it.
+     */
+    public ChunkedUpload finalizeUpload(String uploadId, String expectedSha256) throws IOException {
+        ChunkedUpload upload = getUpload(uploadId);
+        if (upload == null) return null;
+        synchronized (upload) {
+            if (upload.isFinalized()) return upload;
+            if (!upload.isComplete()) {
+                throw new IllegalStateException("Upload " + uploadId + " still has missing or in-progress chunks");
+            }
+            FileFingerprint fingerprint;
+            try (InputStream in = Files.newInputStream(upload.getFile())) {
+                fingerprint = FileFingerprint.compute(in, null, FileTypeUtil.getFileType(upload.getFile().getFileName().toString()));
+            }
+            if (expectedSha256 != null && !expectedSha256.isBlank() && !fingerprint.getDigest().equalsIgnoreCase(expectedSha256.trim())) {
+                throw new IllegalArgumentException("Checksum mismatch for the assembled file");
+            }
+            upload.markFinalized(fingerprint);
+        }
+        logger.info("Finalized chunked upload {} (sha256 {})", uploadId, upload.getFingerprint().getDigest());
+        return upload;
+    }
+
+    public boolean isClaimable(String uploadId) {
+        ChunkedUpload upload = getUpload(uploadId);
+        return upload != null && upload.isFinalized();
+    }
+
+    // Moves a finalized upload into a comparison's session directory; the upload id is used up
+    public Path claim(String uploadId, Path sessionPath) throws IOException {
+        ChunkedUpload upload = getUpload(uploadId);
+        if (upload == null) {
+            throw new IllegalArgumentException("Unknown upload " + uploadId);
+        }
+        if (!upload.isFinalized()) {
+            throw new IllegalStateException("Upload " + uploadId + " is not finalized");
+        }
+        if (!uploads.remove(uploadId, upload)) {
+            throw new IllegalStateException("Upload " + uploadId + " was already claimed");
+        }
+        Path stored = storageService.adoptFile(upload.getFile(), sessionPath, upload.getFingerprint());
+        storageService.deleteSessionDirectory(upload.getDirectory());
+        return stored;
+    }
+
+    public boolean delete(String uploadId) {
+        ChunkedUpload upload = uploads.remove(uploadId);
+        if (upload == null) return false;
+        storageService.deleteSessionDirectory(upload.getDirectory());
+        return true;
+    }
+
+    private void purgeExpiredUploads() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(retentionMinutes);
+        uploads.values().removeIf(upload -> {
+            if (upload.getLastActivity() >= cutoff) return false;
+            logger.info("Deleting expired chunked upload {}", upload.getId());
+            storageService.deleteSessionDirectory(upload.getDirectory());
+            return true;
+        });
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
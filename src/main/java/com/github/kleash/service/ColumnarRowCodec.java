@@ -0,0 +1,224 @@
+package com.github.kleash.service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The binary form of a parsed file that the parse cache keeps in memory and on disk: the {@link RowStore}'s own
+ * column arrays, so decoding copies bytes into arrays and creates no String per cell.
+ * <p>
+ * Layout, every integer an unsigned varint: magic, cache key, flags, header (unless it is the first row), row count,
+ * the width of each row, column count, then per column its value count, the UTF-8 length of each value, the arena
+ * bytes, and the cells of the rows that reach it (0 for null, otherwise the value + 1).
+ */
+final class ColumnarRowCodec {
+    private static final int MAGIC = 0x50435232; // "PCR2"; changes with the layout, so entries of an older one are re-parsed
+    private static final int FLAG_HEADER = 1;
+    private static final int FLAG_HEADER_IS_FIRST_ROW = 2; // CSV and Excel, whose header is the first row itself
+    private static final int FLAG_FIRST_ROW_HEADER_FOR_DETECTION = 4;
+    private static final int HEADER_NULL = 0;
+    private static final int HEADER_TEXT = 1;
+
+    private ColumnarRowCodec() {
+    }
+
+    // The encoded rows, or null if they take more than maxBytes
+    static byte[] encode(String key, FileParserService.ParsedFileResult parsed, long maxBytes) {
+        Output out = new Output(Math.min(maxBytes, Integer.MAX_VALUE - 8));
+        try {
+            RowStore rows = parsed.getRows();
+            String[] header = parsed.getHeader();
+            boolean headerIsFirstRow = header != null && !rows.isEmpty() && Arrays.equals(header, rows.row(0));
+            out.writeVarInt(MAGIC);
+            out.writeString(key);
+            out.writeVarInt((header != null ? FLAG_HEADER : 0)
+                    | (headerIsFirstRow ? FLAG_HEADER_IS_FIRST_ROW : 0)
+                    | (parsed.isFirstRowHeaderForDetection() ? FLAG_FIRST_ROW_HEADER_FOR_DETECTION : 0));
+            if (header != null && !headerIsFirstRow) {
+                out.writeVarInt(header.length);
+                for (String name : header) out.writeCell(name);
+            }
+
+            out.writeVarInt(rows.size());
+            for (int row = 0; row < rows.size(); row++) out.writeVarInt(rows.width(row));
+            out.writeVarInt(rows.columnCount());
+            for (int column = 0; column < rows.columnCount(); column++) {
+                int valueCount = rows.valueCount(column);
+                out.writeVarInt(valueCount);
+                for (int value = 0; value < valueCount; value++) {
+                    out.writeVarInt(rows.valueStart(column, value + 1) - rows.valueStart(column, value));
+                }
+                out.writeArena(rows, column);
+                for (int row = 0; row < rows.size(); row++) {
+                    if (rows.width(row) > column) out.writeVarInt(rows.ref(column, row) + 1);
+                }
+            }
+            return out.toByteArray();
+        } catch (EntryTooLargeException e) {
+            return null;
+        }
+    }
+
+    // Throws IOException for data that is not an entry of this layout, or not the entry for key
+    static FileParserService.ParsedFileResult decode(byte[] data, String key) throws IOException {
+        Input in = new Input(data);
+        if (in.readVarInt() != MAGIC || !key.equals(in.readString())) {
+            throw new IOException("Not a parse cache entry for " + key);
+        }
+        int flags = in.readVarInt();
+        String[] header = null;
+        if ((flags & FLAG_HEADER) != 0 && (flags & FLAG_HEADER_IS_FIRST_ROW) == 0) {
+            header = new String[in.readCount()];
+            for (int i = 0; i < header.length; i++) header[i] = in.readCell();
+        }
+
+        int rowCount = in.readCount();
+        int[] widths = new int[rowCount];
+        for (int row = 0; row < rowCount; row++) widths[row] = in.readVarInt();
+        int columnCount = in.readCount();
+        byte[][] arenas = new byte[columnCount][];
+        int[][] offsets = new int[columnCount][];
+        int[][] refs = new int[columnCount][];
+        for (int column = 0; column < columnCount; column++) {
+            int valueCount = in.readCount();
+            offsets[column] = new int[valueCount + 1];
+            for (int value = 0; value < valueCount; value++) {
+                offsets[column][value + 1] = offsets[column][value] + in.readCount();
+            }
+            arenas[column] = in.readBytes(offsets[column][valueCount]);
+            refs[column] = new int[rowCount];
+            for (int row = 0; row < rowCount; row++) {
+                if (widths[row] <= column) continue;
+                int ref = in.readVarInt() - 1;
+                if (ref < RowStore.NULL_REF || ref >= valueCount) throw new IOException("Corrupt parse cache entry for " + key);
+                refs[column][row] = ref;
+            }
+        }
+        for (int width : widths) {
+            if (width < 0 || width > columnCount) throw new IOException("Corrupt parse cache entry for " + key);
+        }
+        if (in.remaining() != 0) throw new IOException("Corrupt parse cache entry for " + key);
+
+        RowStore rows = new RowStore(rowCount, widths, arenas, offsets, refs);
+        if ((flags & FLAG_HEADER_IS_FIRST_ROW) != 0) header = rows.isEmpty() ? null : rows.row(0);
+        return new FileParserService.ParsedFileResult(rows, header, (flags & FLAG_FIRST_ROW_HEADER_FOR_DETECTION) != 0);
+    }
+
+    private static final class EntryTooLargeException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+        private static final EntryTooLargeException INSTANCE = new EntryTooLargeException();
+
+        private EntryTooLargeException() {
+            super(null, null, false, false);
+        }
+    }
+
+    private static final class Output {
+        private final long maxBytes;
+        private byte[] buffer = new byte[1 << 12];
+        private int size;
+
+        Output(long maxBytes) {
+            this.maxBytes = maxBytes;
+        }
+
+        void writeVarInt(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7F) != 0) {
+                buffer[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void writeString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(bytes.length);
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, buffer, size, bytes.length);
+            size += bytes.length;
+        }
+
+        void writeArena(RowStore rows, int column) {
+            int length = rows.valueStart(column, rows.valueCount(column));
+            ensureCapacity(length);
+            rows.copyArena(column, buffer, size);
+            size += length;
+        }
+
+        // A header name: HEADER_NULL, or HEADER_TEXT and the text
+        void writeCell(String value) {
+            if (value == null) {
+                writeVarInt(HEADER_NULL);
+            } else {
+                writeVarInt(HEADER_TEXT);
+                writeString(value);
+            }
+        }
+
+        private void ensureCapacity(int extra) {
+            long needed = (long) size + extra;
+            if (needed <= buffer.length) return;
+            if (needed > maxBytes) throw EntryTooLargeException.INSTANCE;
+            buffer = Arrays.copyOf(buffer, (int) Math.min(maxBytes, Math.max(needed, buffer.length * 2L)));
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(buffer, size);
+        }
+    }
+
+    private static final class Input {
+        private final byte[] data;
+        private int position;
+
+        Input(byte[] data) {
+            this.data = data;
+        }
+
+        int readVarInt() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                if (position >= data.length) throw new IOException("Truncated parse cache entry");
+                byte b = data[position++];
+                value |= (b & 0x7F) << shift;
+                if (b >= 0) return value;
+            }
+            throw new IOException("Corrupt parse cache entry");
+        }
+
+        String readString() throws IOException {
+            int length = readVarInt();
+            if (length < 0 || length > data.length - position) throw new IOException("Truncated parse cache entry");
+            String value = new String(data, position, length, StandardCharsets.UTF_8);
+            position += length;
+            return value;
+        }
+
+        // A count or length, which cannot exceed the bytes left (each item takes at least one)
+        int readCount() throws IOException {
+            int count = readVarInt();
+            if (count < 0 || count > data.length - position) throw new IOException("Corrupt parse cache entry");
+            return count;
+        }
+
+        byte[] readBytes(int length) throws IOException {
+            if (length < 0 || length > data.length - position) throw new IOException("Truncated parse cache entry");
+            byte[] bytes = Arrays.copyOfRange(data, position, position + length);
+            position += length;
+            return bytes;
+        }
+
+        String readCell() throws IOException {
+            int code = readVarInt();
+            if (code == HEADER_NULL) return null;
+            if (code != HEADER_TEXT) throw new IOException("Corrupt parse cache entry");
+            return readString();
+        }
+
+        int remaining() {
+            return data.length - position;
+        }
+    }
+}
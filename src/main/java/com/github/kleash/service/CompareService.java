@@ -1,32 +1,187 @@
 package com.github.kleash.service;
 
 import com.github.kleash.dto.*;
-import com.opencsv.exceptions.CsvException;
+import com.github.kleash.util.FileTypeUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @Service
 public class CompareService {
     private static final Logger logger = LoggerFactory.getLogger(CompareService.class);
+    private static final String POSITIONAL_STRATEGY = "positional";
+    private static final char KEY_SEPARATOR = '\u001F'; // Unit separator between parts of a composite key
+    private static final int PROGRESS_INTERVAL_MASK = 1023; // Rows are reported to the progress (and cancellation checked) every 1024 rows
+    private static final int CHUNK_ROWS = 1 << 18; // Rows per chunk when one large pair is compared in parallel
+    private static final long STREAMED_FILE_HEAP_BYTES = 16L << 20; // Read buffers and retained differences of a streamed file
 
     @Autowired
     private FileParserService fileParserService;
 
+    @Autowired
+    private ParseCacheService parseCacheService;
+
+    @Autowired
+    private MemoryBudgetService memoryBudgetService;
+
+    @Autowired
+    private ComparisonMetrics comparisonMetrics;
+
     @Autowired
     private StorageService storageService;
 
+    @Autowired
+    private PairResultStore pairResultStore;
+
+    // Upper bound on file pairs compared at the same time across all requests (0 = one per available core)
+    @Value("${file.comparison.parallel.max-concurrent-pairs:0}")
+    private int maxConcurrentPairs;
+
+    // Pairs where either file is larger than this are compared row by row from disk instead of in memory
+    @Value("${file.comparison.streaming.threshold-bytes:104857600}")
+    private long streamingThresholdBytes;
+
+    // Streamed CSV pairs where either file is at least this large are compared in row chunks in parallel (0 = never)
+    @Value("${file.comparison.parallel.intra-pair-min-bytes:268435456}")
+    private long intraPairMinBytes;
+
+    // Threads of the fork/join pool comparing those chunks, shared by all pairs (0 = one per available core)
+    @Value("${file.comparison.parallel.intra-pair-threads:0}")
+    private int intraPairThreads;
+
+    // Differences of one pair kept in memory; later ones are streamed to a file in the session directory
+    @Value("${file.comparison.differences.max-in-memory:10000}")
+    private int maxDifferencesInMemory;
+
+    // Differences of one pair sampled at random (over all of them) into the comparison response (0 = none)
+    @Value("${file.comparison.differences.sample-size:100}")
+    private int differenceSampleSize;
+
+    // Memory allowed for the key index of one pair before rows are spilled to sorted runs on disk
+    @Value("${file.comparison.keyed.memory-budget-bytes:268435456}")
+    private long keyedMemoryBudgetBytes;
+
+    // Line-diff strategy for TEXT and JSON pairs: bean name of a SequenceDiffStrategy, or "positional"
+    @Value("${file.comparison.text-diff.strategy:myers}")
+    private String textDiffStrategy;
+
+    @Autowired
+    private Map<String, SequenceDiffStrategy> sequenceDiffStrategies;
+
+    // Pairs whose stored files have the same SHA-256 digest are reported MATCHED without parsing (unless columns are ignored or keyed)
+    @Value("${file.comparison.digest-fast-path.enabled:true}")
+    private boolean digestFastPathEnabled;
+
+    private ExecutorService pairExecutor;
+    private int pairConcurrency;
+    private ForkJoinPool chunkPool;
+
+    @PostConstruct
+    public void init() {
+        int poolSize = maxConcurrentPairs > 0 ? maxConcurrentPairs : Runtime.getRuntime().availableProcessors();
+        pairConcurrency = poolSize;
+        AtomicInteger threadCounter = new AtomicInteger();
+        pairExecutor = Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "compare-pair-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Pair comparison executor initialised with {} threads.", poolSize);
+
+        int chunkParallelism = intraPairThreads > 0 ? intraPairThreads : Runtime.getRuntime().availableProcessors();
+        AtomicInteger chunkThreadCounter = new AtomicInteger();
+        chunkPool = new ForkJoinPool(chunkParallelism, pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName("compare-chunk-" + chunkThreadCounter.incrementAndGet());
+            return thread;
+        }, null, false);
+        logger.info("Chunk comparison pool initialised with {} threads.", chunkParallelism);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        pairExecutor.shutdownNow();
+        chunkPool.shutdownNow();
+    }
+
+    /**
+     * Rough peak heap use of comparing these files, for admission: parsed rows take a multiple of the file size that
+     * depends on the format, streamed files a fixed amount, and only as many files are held at once as pairs are
+     * compared in parallel.
+     */
+    public long estimateHeapBytes(List<Path> source1FilePaths, List<Path> source2FilePaths, ComparisonOptions options) {
+        List<Long> fileEstimates = new ArrayList<>();
+        for (Path filePath : source1FilePaths) fileEstimates.add(estimateFileHeapBytes(filePath, options));
+        for (Path filePath : source2FilePaths) fileEstimates.add(estimateFileHeapBytes(filePath, options));
+        fileEstimates.sort(Comparator.reverseOrder());
+        long total = 0;
+        for (int i = 0; i < Math.min(fileEstimates.size(), 2 * pairConcurrency); i++) {
+            total += fileEstimates.get(i);
+        }
+        return total;
+    }
+
+    private long estimateFileHeapBytes(Path filePath, ComparisonOptions options) {
+        long size;
+        try {
+            size = Files.size(filePath);
+        } catch (IOException e) {
+            return 0; // Reported as a failed pair later
+        }
+        if (isStreamingComparison(options, filePath)) return Math.min(size, STREAMED_FILE_HEAP_BYTES);
+        switch (FileTypeUtil.getFileType(filePath.getFileName().toString())) {
+            case EXCEL_XLSX:
+                return size * 12; // Compressed XML, and POI's object model on top
+            case EXCEL_XLS:
+            case JSON:
+                return size * 4;
+            default:
+                return size * 2; // Row store and content lines
+        }
+    }
+
     public ComparisonResponse compareFiles(
             List<Path> source1FilePaths, List<Path> source2FilePaths,
             boolean sortFileNames, Path sessionPath, List<ManualPair> manualPairs,
-            ColumnIgnoreConfig ignoreConfig, boolean s1IncludesHeaderInOutput, boolean s2IncludesHeaderInOutput) {
+            ColumnIgnoreConfig ignoreConfig, boolean s1IncludesHeaderInOutput, boolean s2IncludesHeaderInOutput,
+            ComparisonOptions options) {
+        return compareFiles(source1FilePaths, source2FilePaths, sortFileNames, sessionPath, manualPairs, ignoreConfig,
+                s1IncludesHeaderInOutput, s2IncludesHeaderInOutput, options, new ComparisonProgress());
+    }
+
+    /**
+     * Same as above, reporting pairs done and rows read into {@code progress}. Cancelling the progress stops the
+     * run with a CancellationException.
+     */
+    public ComparisonResponse compareFiles(
+            List<Path> source1FilePaths, List<Path> source2FilePaths,
+            boolean sortFileNames, Path sessionPath, List<ManualPair> manualPairs,
+            ColumnIgnoreConfig ignoreConfig, boolean s1IncludesHeaderInOutput, boolean s2IncludesHeaderInOutput,
+            ComparisonOptions options, ComparisonProgress progress) {
+        progress.throwIfCancelled();
 
         List<Path> s1WorkList = new ArrayList<>(source1FilePaths);
         List<Path> s2WorkList = new ArrayList<>(source2FilePaths);
@@ -42,6 +197,8 @@ public class CompareService {
         metrics.setTotalFilesS1(s1WorkList.size());
         metrics.setTotalFilesS2(s2WorkList.size());
         List<FilePairResult> pairResults = new ArrayList<>();
+        // Pairs are submitted to the executor in report order; results are collected (and metrics merged) in that same order
+        List<PendingPairResult> pendingResults = new ArrayList<>();
 
         Set<Path> s1ProcessedPaths = new HashSet<>(); // Tracks S1 paths processed by manual or auto pairing
         Set<Path> s2ProcessedPaths = new HashSet<>(); // Tracks S2 paths processed
@@ -58,9 +215,9 @@ public class CompareService {
 
                 if (file1Path != null && file2Path != null &&
                         !s1ProcessedPaths.contains(file1Path) && !s2ProcessedPaths.contains(file2Path)) {
-                    FilePairResult result = compareSinglePairAndSaveReport(file1Path, file2Path, sessionPath, ignoreConfig, s1IncludesHeaderInOutput, s2IncludesHeaderInOutput);
-                    pairResults.add(result);
-                    updateMetricsFromPairResult(metrics, result, false, false);
+                    pendingResults.add(new PendingPairResult(submitPair(() ->
+                            compareSinglePairAndSaveReport(file1Path, file2Path, sessionPath, ignoreConfig, s1IncludesHeaderInOutput, s2IncludesHeaderInOutput, options, progress), progress),
+                            false, false));
                     s1ProcessedPaths.add(file1Path);
                     s2ProcessedPaths.add(file2Path);
                 } else {
@@ -71,7 +228,7 @@ public class CompareService {
                     errorResult.setStatus(FilePairResult.Status.PARSE_ERROR_S1); // Or a specific PAIRING_ERROR status
                     errorResult.setErrorMessage("File(s) in manual pair not found/uploaded or already processed in another manual pair.");
                     saveReportForPair(errorResult, sessionPath);
-                    pairResults.add(errorResult);
+                    pendingResults.add(new PendingPairResult(CompletableFuture.completedFuture(progress.pairCompleted(errorResult)), false, false));
                     if (file1Path != null) s1ProcessedPaths.add(file1Path); // Mark as processed to avoid re-processing
                     if (file2Path != null) s2ProcessedPaths.add(file2Path);
                 }
@@ -88,9 +245,9 @@ public class CompareService {
             for (int i = 0; i < autoPairCount; i++) {
                 Path file1 = s1AutoPairList.get(i);
                 Path file2 = s2AutoPairList.get(i);
-                FilePairResult result = compareSinglePairAndSaveReport(file1, file2, sessionPath, ignoreConfig, s1IncludesHeaderInOutput, s2IncludesHeaderInOutput);
-                pairResults.add(result);
-                updateMetricsFromPairResult(metrics, result, false, false);
+                pendingResults.add(new PendingPairResult(submitPair(() ->
+                        compareSinglePairAndSaveReport(file1, file2, sessionPath, ignoreConfig, s1IncludesHeaderInOutput, s2IncludesHeaderInOutput, options, progress), progress),
+                        false, false));
                 s1ProcessedPaths.add(file1); // Mark as processed
                 s2ProcessedPaths.add(file2);
             }
@@ -103,17 +260,24 @@ public class CompareService {
         logger.info("Identifying unpaired files.");
         for (Path file1 : s1WorkList) {
             if (!s1ProcessedPaths.contains(file1)) {
-                addMissingFileResult(file1, null, pairResults, metrics, sessionPath, false, ignoreConfig, s1IncludesHeaderInOutput);
+                pendingResults.add(new PendingPairResult(submitPair(() ->
+                        addMissingFileResult(file1, null, sessionPath, false, ignoreConfig, s1IncludesHeaderInOutput, options), progress),
+                        false, true));
                 s1ProcessedPaths.add(file1); // Ensure it's marked processed
             }
         }
         for (Path file2 : s2WorkList) {
             if (!s2ProcessedPaths.contains(file2)) {
-                addMissingFileResult(null, file2, pairResults, metrics, sessionPath, true, ignoreConfig, s2IncludesHeaderInOutput);
+                pendingResults.add(new PendingPairResult(submitPair(() ->
+                        addMissingFileResult(null, file2, sessionPath, true, ignoreConfig, s2IncludesHeaderInOutput, options), progress),
+                        true, false));
                 s2ProcessedPaths.add(file2); // Ensure it's marked processed
             }
         }
 
+        progress.setPairsTotal(pendingResults.size());
+        collectPendingResults(pendingResults, pairResults, metrics);
+
         metrics.setPairsConsidered((int) pairResults.stream()
                 .filter(r -> r.getStatus() != FilePairResult.Status.MISSING_IN_SOURCE1 &&
                         r.getStatus() != FilePairResult.Status.MISSING_IN_SOURCE2 &&
@@ -124,6 +288,42 @@ public class CompareService {
         return new ComparisonResponse(metrics, pairResults, relativeSessionPath);
     }
 
+    private Future<FilePairResult> submitPair(Callable<FilePairResult> comparison, ComparisonProgress progress) {
+        Future<FilePairResult> future = pairExecutor.submit(() -> progress.pairCompleted(comparison.call()));
+        progress.track(future);
+        return future;
+    }
+
+    private void collectPendingResults(List<PendingPairResult> pendingResults, List<FilePairResult> pairResults, OverallMetrics metrics) {
+        for (int i = 0; i < pendingResults.size(); i++) {
+            PendingPairResult pending = pendingResults.get(i);
+            FilePairResult result;
+            try {
+                result = pending.future.get();
+            } catch (InterruptedException e) {
+                cancelRemaining(pendingResults, i);
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for file pair comparisons", e);
+            } catch (CancellationException e) {
+                cancelRemaining(pendingResults, i + 1);
+                throw e;
+            } catch (ExecutionException e) {
+                cancelRemaining(pendingResults, i + 1);
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                throw new IllegalStateException("File pair comparison failed: " + cause.getMessage(), cause);
+            }
+            pairResults.add(result);
+            updateMetricsFromPairResult(metrics, result, pending.onlyInS1, pending.onlyInS2);
+        }
+    }
+
+    private void cancelRemaining(List<PendingPairResult> pendingResults, int fromIndex) {
+        for (int i = fromIndex; i < pendingResults.size(); i++) {
+            pendingResults.get(i).future.cancel(true);
+        }
+    }
+
     private Path findPathByFilename(List<Path> paths, String filename) {
         if (filename == null || paths == null) return null;
         return paths.stream()
@@ -131,138 +331,534 @@ public class CompareService {
                 .findFirst().orElse(null);
     }
 
+    // Package-private so the benchmarks can measure a single pair
+    FilePairResult compareSinglePairAndSaveReport(Path file1Path, Path file2Path, Path sessionPath,
+                                                  ColumnIgnoreConfig ignoreConfig, boolean s1IncludesHeaderInOutput, boolean s2IncludesHeaderInOutput,
+                                                  ComparisonOptions options) {
+        return compareSinglePairAndSaveReport(file1Path, file2Path, sessionPath, ignoreConfig, s1IncludesHeaderInOutput, s2IncludesHeaderInOutput,
+                options, new ComparisonProgress());
+    }
+
     private FilePairResult compareSinglePairAndSaveReport(Path file1Path, Path file2Path, Path sessionPath,
-                                                          ColumnIgnoreConfig ignoreConfig, boolean s1IncludesHeaderInOutput, boolean s2IncludesHeaderInOutput) {
+                                                          ColumnIgnoreConfig ignoreConfig, boolean s1IncludesHeaderInOutput, boolean s2IncludesHeaderInOutput,
+                                                          ComparisonOptions options, ComparisonProgress progress) {
         FilePairResult result = new FilePairResult();
         result.setSource1FileName(file1Path.getFileName().toString());
         result.setSource2FileName(file2Path.getFileName().toString());
         result.setSource1FilePath(file1Path);
         result.setSource2FilePath(file2Path);
 
-        FileParserService.ParsedFileResult parsedS1, parsedS2;
-        List<String[]> originalRowsS1, originalRowsS2;
-        String[] headerS1, headerS2;
-        Set<Integer> ignoreIndicesS1 = new HashSet<>();
-        Set<Integer> ignoreIndicesS2 = new HashSet<>();
+        boolean streaming = isStreamingComparison(options, file1Path, file2Path);
+        Set<String> s1IgnoresFromConfig = (ignoreConfig != null && ignoreConfig.getSource1Ignore() != null) ? ignoreConfig.getSource1Ignore() : Collections.emptySet();
+        Set<String> s2IgnoresFromConfig = (ignoreConfig != null && ignoreConfig.getSource2Ignore() != null) ? ignoreConfig.getSource2Ignore() : Collections.emptySet();
+        KeyColumnConfig keyConfig = options != null ? options.getKeyColumns() : null;
+        List<String> s1KeyColumns = (keyConfig != null && keyConfig.getSource1Keys() != null && !keyConfig.getSource1Keys().isEmpty()) ? keyConfig.getSource1Keys() : null;
+        List<String> s2KeyColumns = (keyConfig != null && keyConfig.getSource2Keys() != null && !keyConfig.getSource2Keys().isEmpty()) ? keyConfig.getSource2Keys() : s1KeyColumns;
+        String s1Sheet = options != null ? options.getSource1Sheet() : null;
+        String s2Sheet = options != null ? options.getSource2Sheet() : null;
+        ComparisonSide side1 = null;
+        ComparisonSide side2 = null;
+
+        // Streamed pairs are not listed in full, so one asking for the listing goes through the regular comparison
+        boolean fullListing = options != null && options.isFullReportForIdenticalFiles();
+        if (digestFastPathEnabled && s1IgnoresFromConfig.isEmpty() && s2IgnoresFromConfig.isEmpty() && s1KeyColumns == null
+                && s1IncludesHeaderInOutput == s2IncludesHeaderInOutput && Objects.equals(s1Sheet, s2Sheet)
+                && FileTypeUtil.getFileType(file1Path.getFileName().toString()) == FileTypeUtil.getFileType(file2Path.getFileName().toString())
+                && !(fullListing && streaming)
+                && matchIdenticalFiles(file1Path, file2Path, s1Sheet, s1IncludesHeaderInOutput, options, result)) {
+            logger.info("Comparison for {} vs {}: byte-identical, Matches={} (parsing skipped)",
+                    result.getSource1FileName(), result.getSource2FileName(), result.getMatchCount());
+            saveReportForPair(result, sessionPath);
+            return result;
+        }
 
-        // --- Parsing and Ignore Index Calculation ---
+        DifferenceCollector differences = new DifferenceCollector(sessionPath, maxDifferencesInMemory, differenceSampleSize);
+        differences.trackWith(memoryBudgetService, "differences of " + file1Path.getFileName() + " vs " + file2Path.getFileName());
         try {
-            parsedS1 = fileParserService.parseFileIntoRowsAndHeader(file1Path);
-            originalRowsS1 = new ArrayList<>(parsedS1.getRows());
-            headerS1 = parsedS1.getHeader();
-            Set<String> s1IgnoresFromConfig = (ignoreConfig != null && ignoreConfig.getSource1Ignore() != null) ? ignoreConfig.getSource1Ignore() : Collections.emptySet();
-            if (headerS1 != null) {
-                for (int i = 0; i < headerS1.length; i++) {
-                    if (s1IgnoresFromConfig.contains(headerS1[i]) || s1IgnoresFromConfig.contains(String.valueOf(i))) {
-                        ignoreIndicesS1.add(i);
-                    }
+            // --- Parsing and Ignore Index Calculation ---
+            try {
+                side1 = openComparisonSide(file1Path, s1Sheet, s1IgnoresFromConfig, s1KeyColumns, s1IncludesHeaderInOutput, streaming, true, sessionPath, progress);
+                result.setSource1Content(side1.content);
+            } catch (IOException e) {
+                logger.error("Error parsing Source 1 file {}: {}", file1Path.getFileName(), e.getMessage());
+                result.setStatus(FilePairResult.Status.PARSE_ERROR_S1);
+                result.setErrorMessage("Error parsing " + file1Path.getFileName() + ": " + e.getMessage());
+                saveReportForPair(result, differences, sessionPath); return result;
+            }
+
+            try {
+                side2 = openComparisonSide(file2Path, s2Sheet, s2IgnoresFromConfig, s2KeyColumns, s2IncludesHeaderInOutput, streaming, false, sessionPath, progress);
+                result.setSource2Content(side2.content);
+            } catch (IOException e) {
+                logger.error("Error parsing Source 2 file {}: {}", file2Path.getFileName(), e.getMessage());
+                result.setStatus(FilePairResult.Status.PARSE_ERROR_S2);
+                result.setErrorMessage("Error parsing " + file2Path.getFileName() + ": " + e.getMessage());
+                saveReportForPair(result, differences, sessionPath); return result;
+            }
+
+            logger.debug("File1: {}, S1 Ignore Indices: {}, streaming: {}", file1Path.getFileName(), side1.ignoreIndices, streaming);
+            logger.debug("File2: {}, S2 Ignore Indices: {}, streaming: {}", file2Path.getFileName(), side2.ignoreIndices, streaming);
+
+            CellComparator[] comparators = compileColumnRules(options, side1);
+            SequenceDiffStrategy diffStrategy = selectSequenceDiffStrategy(file1Path, file2Path, options);
+            String rowLoopMode = side1.keyIndices != null && side2.keyIndices != null ? ComparisonMetrics.MODE_KEYED
+                    : diffStrategy != null ? ComparisonMetrics.MODE_LINE_DIFF
+                    : isChunkedComparison(file1Path, file2Path, streaming) ? ComparisonMetrics.MODE_CHUNKED
+                    : ComparisonMetrics.MODE_POSITIONAL;
+            long rowLoopStart = comparisonMetrics.start();
+            String rowLoopOutcome = ComparisonMetrics.ERROR;
+            try {
+                switch (rowLoopMode) {
+                    case ComparisonMetrics.MODE_KEYED:
+                        compareRowsByKey(side1, side2, comparators, sessionPath, differences, result);
+                        break;
+                    case ComparisonMetrics.MODE_LINE_DIFF:
+                        compareLinesWithDiff(side1, side2, diffStrategy, differences, result);
+                        break;
+                    case ComparisonMetrics.MODE_CHUNKED:
+                        compareRowsPositionallyInChunks(file1Path, file2Path, side1, side2, comparators, sessionPath, differences, result, progress);
+                        break;
+                    default:
+                        if (streaming && isCsvPair(file1Path, file2Path)) {
+                            compareCsvRowsPositionally(file1Path, file2Path, side1, side2, comparators, differences, result, progress);
+                        } else {
+                            compareRowsPositionally(side1, side2, comparators, differences, result);
+                        }
                 }
-            } else {
-                for(String idxStr : s1IgnoresFromConfig) { try { ignoreIndicesS1.add(Integer.parseInt(idxStr)); } catch (NumberFormatException ignored) {}}
+                rowLoopOutcome = ComparisonMetrics.SUCCESS;
+            } finally {
+                comparisonMetrics.recordRowLoop(file1Path, rowLoopMode, rowLoopOutcome, rowLoopStart, (long) result.getMatchCount() + result.getMismatchCount()
+                        + result.getMissingInSource1Count() + result.getMissingInSource2Count());
+            }
+            if (result.getMismatchCount() > 0) {
+                result.setColumnMismatches(toColumnMismatches(differences.getColumnMismatches(), side1));
             }
-            result.setSource1Content(fileParserService.getProcessedLines(parsedS1, s1IgnoresFromConfig, s1IncludesHeaderInOutput));
-        } catch (IOException | CsvException e) {
-            logger.error("Error parsing Source 1 file {}: {}", file1Path.getFileName(), e.getMessage());
+
+            logger.info("Comparison for {} vs {}: Status={}, Matches={}, ContentMismatches={}, LinesOnlyInS1={}, LinesOnlyInS2={}",
+                    result.getSource1FileName(), result.getSource2FileName(), result.getStatus(),
+                    result.getMatchCount(), result.getMismatchCount(), result.getMissingInSource1Count(), result.getMissingInSource2Count());
+            saveReportForPair(result, differences, sessionPath);
+        } catch (RowReadException e) {
+            Path failedPath = e.isSource1() ? file1Path : file2Path;
+            logger.error("Error reading Source {} file {} during comparison: {}", e.isSource1() ? 1 : 2, failedPath.getFileName(), e.getMessage());
+            result.setStatus(e.isSource1() ? FilePairResult.Status.PARSE_ERROR_S1 : FilePairResult.Status.PARSE_ERROR_S2);
+            result.setErrorMessage("Error parsing " + failedPath.getFileName() + ": " + e.getMessage());
+            saveReportForPair(result, differences, sessionPath);
+        } catch (IOException e) {
+            // Spill files of key-based comparisons and of differences beyond the in-memory cap
+            logger.error("Error during comparison of {} vs {}: {}", file1Path.getFileName(), file2Path.getFileName(), e.getMessage());
             result.setStatus(FilePairResult.Status.PARSE_ERROR_S1);
-            result.setErrorMessage("Error parsing " + file1Path.getFileName() + ": " + e.getMessage());
-            saveReportForPair(result, sessionPath); return result;
+            result.setErrorMessage("Error during comparison: " + e.getMessage());
+            saveReportForPair(result, differences, sessionPath);
+        } finally {
+            closeQuietly(side1);
+            closeQuietly(side2);
+            closeQuietly(differences); // Its overflow file has been taken over by the result store, or is no longer needed
         }
+        return result;
+    }
 
+    // Marks the pair MATCHED when both files, of the same type, have the same digest; false if they differ (or cannot be fingerprinted)
+    private boolean matchIdenticalFiles(Path file1Path, Path file2Path, String sheet, boolean includesHeaderInOutput, ComparisonOptions options, FilePairResult result) {
+        FileFingerprint fingerprint1;
+        FileFingerprint fingerprint2;
         try {
-            parsedS2 = fileParserService.parseFileIntoRowsAndHeader(file2Path);
-            originalRowsS2 = new ArrayList<>(parsedS2.getRows());
-            headerS2 = parsedS2.getHeader();
-            Set<String> s2IgnoresFromConfig = (ignoreConfig != null && ignoreConfig.getSource2Ignore() != null) ? ignoreConfig.getSource2Ignore() : Collections.emptySet();
-            if (headerS2 != null) {
-                for (int i = 0; i < headerS2.length; i++) {
-                    if (s2IgnoresFromConfig.contains(headerS2[i]) || s2IgnoresFromConfig.contains(String.valueOf(i))) {
-                        ignoreIndicesS2.add(i);
-                    }
+            // Files of different sizes cannot match; checked first so files compared in place are not read just to hash them
+            if (Files.size(file1Path) != Files.size(file2Path)) return false;
+            fingerprint1 = storageService.getFingerprint(file1Path);
+            fingerprint2 = storageService.getFingerprint(file2Path);
+        } catch (IOException e) {
+            logger.debug("Could not fingerprint {} / {}: {}", file1Path.getFileName(), file2Path.getFileName(), e.getMessage());
+            return false;
+        }
+        if (!fingerprint1.sameContentAs(fingerprint2)) return false;
+
+        try {
+            long recordCount = fingerprint1.getRecordCount();
+            if (options != null && options.isFullReportForIdenticalFiles()) {
+                // Both sides are the same bytes, so one parse serves for both listings
+                FileParserService.ParsedFileResult parsed = parseCacheService.parseFileIntoRowsAndHeader(file1Path, sheet);
+                List<String> content = fileParserService.getProcessedLines(parsed, Collections.emptySet(), includesHeaderInOutput);
+                result.setSource1Content(content);
+                result.setSource2Content(content);
+                recordCount = parsed.getRows().size();
+            } else if (recordCount == FileFingerprint.UNKNOWN_RECORD_COUNT) {
+                // Excel and JSON rows cannot be counted from raw bytes; counting one side is still half the reading and no comparison
+                recordCount = 0;
+                try (FileParserService.ParsedFileStream rows = fileParserService.openRowStream(file1Path, sheet)) {
+                    while (rows.next() != null) recordCount++;
                 }
-            } else {
-                for(String idxStr : s2IgnoresFromConfig) { try { ignoreIndicesS2.add(Integer.parseInt(idxStr)); } catch (NumberFormatException ignored) {}}
             }
-            result.setSource2Content(fileParserService.getProcessedLines(parsedS2, s2IgnoresFromConfig, s2IncludesHeaderInOutput));
-        } catch (IOException | CsvException e) {
-            logger.error("Error parsing Source 2 file {}: {}", file2Path.getFileName(), e.getMessage());
-            result.setStatus(FilePairResult.Status.PARSE_ERROR_S2);
-            result.setErrorMessage("Error parsing " + file2Path.getFileName() + ": " + e.getMessage());
-            saveReportForPair(result, sessionPath); return result;
+            long dataRows = (recordCount > 0 && !includesHeaderInOutput) ? recordCount - 1 : recordCount;
+            result.setMatchCount(Math.toIntExact(dataRows)); // Past int range, the regular comparison takes over
+        } catch (IOException | RuntimeException e) {
+            // Leave it to the regular comparison, which reports parse errors per side
+            logger.debug("Could not count rows of identical file {}: {}", file1Path.getFileName(), e.getMessage());
+            result.setSource1Content(null);
+            result.setSource2Content(null);
+            return false;
         }
+        result.setByteIdentical(true);
+        result.setStatus(FilePairResult.Status.MATCHED);
+        return true;
+    }
 
-        logger.debug("File1: {}, S1 Ignore Indices: {}", file1Path.getFileName(), ignoreIndicesS1);
-        logger.debug("File2: {}, S2 Ignore Indices: {}", file2Path.getFileName(), ignoreIndicesS2);
+    private boolean isStreamingComparison(ComparisonOptions options, Path... filePaths) {
+        if (options != null && options.getStreaming() != null) {
+            return options.getStreaming();
+        }
+        for (Path filePath : filePaths) {
+            try {
+                if (filePath != null && Files.size(filePath) > streamingThresholdBytes) return true;
+            } catch (IOException e) {
+                logger.debug("Could not read size of {}: {}", filePath, e.getMessage());
+            }
+        }
+        return false;
+    }
 
-        int comparisonStartRowIndexS1 = 0;
-        if (headerS1 != null && parsedS1.isFirstRowHeaderForDetection() && !s1IncludesHeaderInOutput && !originalRowsS1.isEmpty()) {
-            comparisonStartRowIndexS1 = 1;
+    private ComparisonSide openComparisonSide(Path filePath, String sheet, Set<String> ignoresFromConfig, List<String> keyColumns, boolean includesHeaderInOutput,
+                                              boolean streaming, boolean source1, Path sessionPath, ComparisonProgress progress) throws IOException {
+        RowStreamSource source;
+        List<String> content = null;
+        MemoryBudgetService.Registration rowsTracking = null;
+        if (streaming) {
+            source = () -> fileParserService.openRowStream(filePath, sheet);
+        } else {
+            FileParserService.ParsedFileResult parsed = parseCacheService.parseFileIntoRowsAndHeader(filePath, sheet);
+            rowsTracking = trackRows(parsed, filePath, sessionPath);
+            content = fileParserService.getProcessedLines(parsed, ignoresFromConfig, includesHeaderInOutput);
+            source = () -> FileParserService.ParsedFileStream.of(parsed);
         }
-        int comparisonStartRowIndexS2 = 0;
-        if (headerS2 != null && parsedS2.isFirstRowHeaderForDetection() && !s2IncludesHeaderInOutput && !originalRowsS2.isEmpty()) {
-            comparisonStartRowIndexS2 = 1;
+        FileParserService.ParsedFileStream rows = source.open();
+        Set<Integer> ignoreIndices = fileParserService.resolveIgnoreIndices(rows.getHeader(), ignoresFromConfig);
+        int[] keyIndices = null;
+        if (keyColumns != null) {
+            keyIndices = new int[keyColumns.size()];
+            for (int k = 0; k < keyIndices.length; k++) {
+                keyIndices[k] = fileParserService.resolveColumnIndex(rows.getHeader(), keyColumns.get(k));
+                if (keyIndices[k] < 0) {
+                    rows.close();
+                    closeQuietly(rowsTracking);
+                    throw new IOException("Key column '" + keyColumns.get(k) + "' not found");
+                }
+            }
         }
+        boolean skipHeaderRow = rows.getHeader() != null && rows.isFirstRowHeaderForDetection() && !includesHeaderInOutput;
+        return new ComparisonSide(source, rows, ignoreIndices, keyIndices, content, rowsTracking, skipHeaderRow, source1, progress);
+    }
 
-        int effectiveLenS1 = originalRowsS1.size() - comparisonStartRowIndexS1;
-        int effectiveLenS2 = originalRowsS2.size() - comparisonStartRowIndexS2;
-        int maxEffectiveLen = Math.max(effectiveLenS1, effectiveLenS2);
+    // Counts parsed rows (and the content lines read from them) against the heap budget; may move them to a mapped file
+    private MemoryBudgetService.Registration trackRows(FileParserService.ParsedFileResult parsed, Path filePath, Path sessionPath) throws IOException {
+        return memoryBudgetService.register("rows of " + filePath.getFileName(), parsed.getRows().spillable(PairResultStore.workDirectory(sessionPath)));
+    }
 
-        boolean isOverallContentMismatch = false; // Tracks if any content mismatch occurs after ignoring columns
-        int finalLineMatchCount = 0;
-        int finalLineContentMismatchCount = 0;
-        int finalLinesMissingInS1Data = 0;
-        int finalLinesMissingInS2Data = 0;
+    /**
+     * The request's column rules as comparators by kept-column position of S1 (rules name S1 columns), or null when
+     * there are none. Compiled once per pair, so the row loop never looks at a rule.
+     */
+    private CellComparator[] compileColumnRules(ComparisonOptions options, ComparisonSide side1) throws IOException {
+        if (options == null || options.getColumnRules() == null || options.getColumnRules().isEmpty()) return null;
+        CellComparator[] comparators = new CellComparator[0];
+        for (ColumnRule rule : options.getColumnRules()) {
+            int column = fileParserService.resolveColumnIndex(side1.rows.getHeader(), rule.getColumn());
+            if (column < 0) {
+                throw new IOException("Column '" + rule.getColumn() + "' of comparison rule not found");
+            }
+            int keptPosition = side1.keptColumns.keptPosition(column);
+            if (keptPosition < 0) {
+                logger.debug("Comparison rule for ignored column '{}' has no effect.", rule.getColumn());
+                continue;
+            }
+            if (keptPosition >= comparators.length) comparators = Arrays.copyOf(comparators, keptPosition + 1);
+            try {
+                comparators[keptPosition] = CellComparators.compile(rule);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage(), e); // Rules from the controller were checked already
+            }
+        }
+        return comparators;
+    }
 
-        for (int i = 0; i < maxEffectiveLen; i++) {
-            String[] originalRow1DataArray = (i < effectiveLenS1) ? originalRowsS1.get(comparisonStartRowIndexS1 + i) : null;
-            String[] originalRow2DataArray = (i < effectiveLenS2) ? originalRowsS2.get(comparisonStartRowIndexS2 + i) : null;
+    // Compares row i of S1 with row i of S2, reading both sides one row at a time
+    private void compareRowsPositionally(ComparisonSide side1, ComparisonSide side2, CellComparator[] comparators,
+                                         DifferenceCollector differences, FilePairResult result) throws IOException {
+        PositionalTally tally = new PositionalTally(differences);
+        compareRowRanges(side1::nextDataRow, side1, side2::nextDataRow, side2, comparators, 0, tally);
+        tally.applyTo(result);
+    }
 
-            String reportLineS1 = getReportableLine(result.getSource1Content(), i, s1IncludesHeaderInOutput, headerS1 != null && parsedS1.isFirstRowHeaderForDetection());
-            String reportLineS2 = getReportableLine(result.getSource2Content(), i, s2IncludesHeaderInOutput, headerS2 != null && parsedS2.isFirstRowHeaderForDetection());
+    // Row i of rows1 against row i of rows2, numbered from firstLineNumber + 1; a side that runs out first leaves missing lines
+    private void compareRowRanges(RowSource rows1, ComparisonSide side1, RowSource rows2, ComparisonSide side2, CellComparator[] comparators,
+                                  int firstLineNumber, PositionalTally tally) throws IOException {
+        int currentDataLineNumber = firstLineNumber;
 
-            int currentDataLineNumber = i + 1;
+        while (true) {
+            String[] originalRow1DataArray = rows1.next();
+            String[] originalRow2DataArray = rows2.next();
+            if (originalRow1DataArray == null && originalRow2DataArray == null) break;
+            currentDataLineNumber++;
 
             if (originalRow1DataArray != null && originalRow2DataArray != null) {
-                boolean currentRowColumnsMatch = true;
-
-                List<String> r1KeptValues = new ArrayList<>();
-                for (int c = 0; c < originalRow1DataArray.length; c++) {
-                    if (!ignoreIndicesS1.contains(c)) r1KeptValues.add(originalRow1DataArray[c] == null ? "" : originalRow1DataArray[c].trim());
-                }
-                List<String> r2KeptValues = new ArrayList<>();
-                for (int c = 0; c < originalRow2DataArray.length; c++) {
-                    if (!ignoreIndicesS2.contains(c)) r2KeptValues.add(originalRow2DataArray[c] == null ? "" : originalRow2DataArray[c].trim());
+                if (!keptColumnsMatch(originalRow1DataArray, side1, originalRow2DataArray, side2, comparators, currentDataLineNumber)) {
+                    addMismatch(currentDataLineNumber, originalRow1DataArray, side1, originalRow2DataArray, side2, comparators, tally);
+                } else {
+                    tally.matchCount++;
+                    // This line matches after ignoring columns. CsvReportGenerator will reflect this.
                 }
+            } else {
+                addMissingLine(currentDataLineNumber, originalRow1DataArray, side1, originalRow2DataArray, side2, tally);
+            }
+        }
+    }
+
+    /*
+     * Same as compareRowRanges for two CSV ranges read straight from the mapped files: kept cells are compared as
+     * byte ranges, and a row is only decoded into Strings when it ends up in a difference.
+     */
+    private void compareCsvRowRanges(CsvRows rows1, ComparisonSide side1, CsvRows rows2, ComparisonSide side2, CellComparator[] comparators,
+                                     int firstLineNumber, PositionalTally tally) throws IOException {
+        int currentDataLineNumber = firstLineNumber;
 
-                if (r1KeptValues.size() != r2KeptValues.size()) {
-                    currentRowColumnsMatch = false;
-                    logger.trace("L{}: Kept column count differs. S1_kept: {} ({}), S2_kept: {} ({})", currentDataLineNumber, r1KeptValues.size(), r1KeptValues, r2KeptValues.size(), r2KeptValues);
+        while (true) {
+            MappedCsvReader record1 = rows1.nextRecord();
+            MappedCsvReader record2 = rows2.nextRecord();
+            if (record1 == null && record2 == null) break;
+            currentDataLineNumber++;
+
+            if (record1 != null && record2 != null) {
+                if (!KeptColumnMap.keptColumnsEqual(record1, side1.keptColumns, record2, side2.keptColumns, comparators)) {
+                    addMismatch(currentDataLineNumber, record1.row(), side1, record2.row(), side2, comparators, tally);
                 } else {
-                    for (int k = 0; k < r1KeptValues.size(); k++) {
-                        // Objects.equals already handles nulls correctly. Trimming is done above.
-                        if (!r1KeptValues.get(k).equals(r2KeptValues.get(k))) {
-                            currentRowColumnsMatch = false;
-                            logger.trace("L{}: Kept column content differs at effective index {}: S1='{}', S2='{}'", currentDataLineNumber, k, r1KeptValues.get(k), r2KeptValues.get(k));
-                            break;
+                    tally.matchCount++;
+                }
+            } else {
+                addMissingLine(currentDataLineNumber, record1 != null ? record1.row() : null, side1, record2 != null ? record2.row() : null, side2, tally);
+            }
+        }
+    }
+
+    private void addMismatch(int lineNumber, String[] row1, ComparisonSide side1, String[] row2, ComparisonSide side2,
+                             CellComparator[] comparators, PositionalTally tally) throws IOException {
+        tally.differences.recordColumnMismatches(row1, side1.keptColumns, row2, side2.keptColumns, comparators);
+        tally.differences.add(new LineDifference(lineNumber,
+                fileParserService.toProcessedLine(row1, side1.ignoreIndices),
+                fileParserService.toProcessedLine(row2, side2.ignoreIndices),
+                LineDifference.DiffType.MISMATCH));
+        tally.mismatchCount++;
+    }
+
+    // A line only one side has: row1 when S2 ran out, row2 when S1 did
+    private void addMissingLine(int lineNumber, String[] row1, ComparisonSide side1, String[] row2, ComparisonSide side2,
+                                PositionalTally tally) throws IOException {
+        if (row1 != null) { // row2 is null -> missing in S2 data
+            tally.differences.add(new LineDifference(lineNumber,
+                    fileParserService.toProcessedLine(row1, side1.ignoreIndices), null, LineDifference.DiffType.MISSING_IN_SOURCE2));
+            tally.missingInSource2Count++;
+        } else { // row1 is null -> missing in S1 data
+            tally.differences.add(new LineDifference(lineNumber,
+                    null, fileParserService.toProcessedLine(row2, side2.ignoreIndices), LineDifference.DiffType.MISSING_IN_SOURCE1));
+            tally.missingInSource1Count++;
+        }
+    }
+
+    // A streamed CSV pair compared positionally in one range, so cells are compared on the mapped bytes as in the chunked mode
+    private void compareCsvRowsPositionally(Path file1Path, Path file2Path, ComparisonSide side1, ComparisonSide side2, CellComparator[] comparators,
+                                            DifferenceCollector differences, FilePairResult result, ComparisonProgress progress) throws IOException {
+        PositionalTally tally = new PositionalTally(differences);
+        try (CsvRows rows1 = new CsvRows(file1Path, 0, Long.MAX_VALUE, side1.headerPending, true, progress);
+             CsvRows rows2 = new CsvRows(file2Path, 0, Long.MAX_VALUE, side2.headerPending, false, progress)) {
+            compareCsvRowRanges(rows1, side1, rows2, side2, comparators, 0, tally);
+        }
+        tally.applyTo(result);
+    }
+
+    private static boolean isCsvPair(Path file1Path, Path file2Path) {
+        return FileTypeUtil.getFileType(file1Path.getFileName().toString()) == FileTypeUtil.FileType.CSV
+                && FileTypeUtil.getFileType(file2Path.getFileName().toString()) == FileTypeUtil.FileType.CSV;
+    }
+
+    // Large CSV pairs compared positionally from disk are split into row chunks that are compared in parallel
+    private boolean isChunkedComparison(Path file1Path, Path file2Path, boolean streaming) {
+        if (!streaming || intraPairMinBytes <= 0 || !isCsvPair(file1Path, file2Path)) return false;
+        try {
+            return Math.max(Files.size(file1Path), Files.size(file2Path)) >= intraPairMinBytes;
+        } catch (IOException e) {
+            logger.debug("Could not read size of {} / {}: {}", file1Path, file2Path, e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Same result as compareRowsPositionally for two CSV files, computed in chunks of CHUNK_ROWS rows. Both files
+     * are first scanned for the byte offset of every CHUNK_ROWS-th record (no field is decoded); chunk k of both
+     * files is then compared on the fork/join pool, and the chunks' counts and differences are merged in line order.
+     * Only as many chunks as the pool has threads run ahead of the merge, so the differences held in memory stay
+     * bounded however many chunks there are.
+     */
+    private void compareRowsPositionallyInChunks(Path file1Path, Path file2Path, ComparisonSide side1, ComparisonSide side2,
+                                                 CellComparator[] comparators, Path sessionPath,
+                                                 DifferenceCollector differences, FilePairResult result, ComparisonProgress progress) throws IOException {
+        ForkJoinTask<long[]> scan1 = chunkPool.submit(() -> scanChunkOffsets(file1Path, side1.headerPending, true, progress));
+        ForkJoinTask<long[]> scan2 = chunkPool.submit(() -> scanChunkOffsets(file2Path, side2.headerPending, false, progress));
+        long[] offsets1;
+        long[] offsets2;
+        try {
+            offsets1 = joinChunkTask(scan1);
+            offsets2 = joinChunkTask(scan2);
+        } finally {
+            scan1.cancel(true);
+            scan2.cancel(true);
+        }
+        int chunkCount = Math.max(offsets1.length, offsets2.length) - 1;
+        logger.info("Comparing {} vs {} positionally in {} chunks of {} rows.", result.getSource1FileName(), result.getSource2FileName(), chunkCount, CHUNK_ROWS);
+
+        // One chunk per pool thread ahead of the merge, each retaining its share of the pair's in-memory differences
+        int chunksInFlight = chunkPool.getParallelism();
+        int chunkMaxInMemory = maxDifferencesInMemory / chunksInFlight;
+        List<ForkJoinTask<PositionalTally>> chunks = new ArrayList<>(chunkCount);
+        try {
+            PositionalTally total = new PositionalTally(differences);
+            for (int chunk = 0; chunk < chunkCount; chunk++) {
+                while (chunks.size() < chunkCount && chunks.size() < chunk + chunksInFlight) {
+                    int chunkIndex = chunks.size();
+                    chunks.add(chunkPool.submit(() -> {
+                        // Sampled once merged, by the pair's own collector
+                        DifferenceCollector chunkDifferences = new DifferenceCollector(sessionPath, chunkMaxInMemory, 0);
+                        chunkDifferences.trackWith(memoryBudgetService, "differences of " + result.getSource1FileName() + " vs "
+                                + result.getSource2FileName() + ", chunk " + chunkIndex);
+                        PositionalTally tally = new PositionalTally(chunkDifferences);
+                        try (CsvRows rows1 = CsvRows.chunk(file1Path, offsets1, chunkIndex, true, progress);
+                             CsvRows rows2 = CsvRows.chunk(file2Path, offsets2, chunkIndex, false, progress)) {
+                            compareCsvRowRanges(rows1, side1, rows2, side2, comparators, chunkIndex * CHUNK_ROWS, tally);
+                        } catch (IOException | RuntimeException e) {
+                            closeQuietly(chunkDifferences);
+                            throw e;
                         }
+                        return tally;
+                    }));
+                }
+                total.add(joinChunkTask(chunks.get(chunk)));
+            }
+            total.applyTo(result);
+        } finally {
+            for (ForkJoinTask<PositionalTally> chunk : chunks) {
+                chunk.cancel(true);
+                // Chunks not merged yet; one still running when this fails leaves its overflow file to the session cleanup
+                if (chunk.isDone() && !chunk.isCompletedAbnormally()) closeQuietly(chunk.join().differences);
+            }
+        }
+    }
+
+    // Byte offsets of data rows 0, CHUNK_ROWS, 2 * CHUNK_ROWS, ... followed by the offset just past the last row
+    private long[] scanChunkOffsets(Path filePath, boolean skipHeaderRow, boolean source1, ComparisonProgress progress) throws RowReadException {
+        try (MappedCsvReader reader = new MappedCsvReader(filePath)) {
+            if (skipHeaderRow) reader.nextRecord();
+            long[] offsets = new long[16];
+            int count = 0;
+            offsets[count++] = reader.position();
+            int rowsInChunk = 0;
+            while (reader.nextRecord()) {
+                if (++rowsInChunk == CHUNK_ROWS) {
+                    if (count == offsets.length) offsets = Arrays.copyOf(offsets, count * 2);
+                    offsets[count++] = reader.position();
+                    rowsInChunk = 0;
+                    progress.throwIfCancelled();
+                }
+            }
+            if (rowsInChunk > 0) {
+                if (count == offsets.length) offsets = Arrays.copyOf(offsets, count + 1);
+                offsets[count++] = reader.position();
+            }
+            return Arrays.copyOf(offsets, count);
+        } catch (IOException e) {
+            throw new RowReadException(source1, e);
+        }
+    }
+
+    private static <T> T joinChunkTask(ForkJoinTask<T> task) throws IOException {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException("Interrupted while comparing chunks");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause; // Including the RowReadException of a chunk
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IllegalStateException("Chunk comparison failed: " + cause.getMessage(), cause);
+        }
+    }
+
+    // TEXT and JSON pairs are aligned with a sequence diff unless the configured strategy is "positional"
+    private SequenceDiffStrategy selectSequenceDiffStrategy(Path file1Path, Path file2Path, ComparisonOptions options) {
+        if (!isLineOrientedFile(file1Path) || !isLineOrientedFile(file2Path)) return null;
+        String strategyName = (options != null && options.getTextDiffStrategy() != null) ? options.getTextDiffStrategy() : textDiffStrategy;
+        SequenceDiffStrategy strategy = sequenceDiffStrategies.get(strategyName);
+        if (strategy == null && !POSITIONAL_STRATEGY.equals(strategyName)) {
+            logger.warn("Unknown text diff strategy '{}'; falling back to positional comparison. Available: {}", strategyName, sequenceDiffStrategies.keySet());
+        }
+        return strategy;
+    }
+
+    private boolean isLineOrientedFile(Path filePath) {
+        FileTypeUtil.FileType type = FileTypeUtil.getFileType(filePath.getFileName().toString());
+        return type == FileTypeUtil.FileType.TEXT || type == FileTypeUtil.FileType.JSON;
+    }
+
+    /*
+     * Aligns both sides with a sequence diff, so one inserted line no longer turns every following line into a
+     * mismatch. Only an id per line is held while diffing; a second pass over both sides in alignment order confirms
+     * each matched pair against the lines themselves (ids come from hashes) and reads the text of the differences.
+     */
+    private void compareLinesWithDiff(ComparisonSide side1, ComparisonSide side2, SequenceDiffStrategy strategy,
+                                      DifferenceCollector differences, FilePairResult result) throws IOException {
+        result.setComparisonMode(FilePairResult.ComparisonMode.SEQUENCE_DIFF);
+        LineIdTable lineIds = new LineIdTable();
+        int[] ids1 = readLineIds(side1, lineIds);
+        int[] ids2 = readLineIds(side2, lineIds);
+        List<SequenceDiffStrategy.DiffHunk> hunks = strategy.diff(ids1, ids2);
+
+        int finalLineMatchCount = 0;
+        int finalLineContentMismatchCount = 0;
+        int finalLinesMissingInS1Data = 0;
+        int finalLinesMissingInS2Data = 0;
+        try (ComparisonSide reread1 = side1.reread(); ComparisonSide reread2 = side2.reread()) {
+            int i = 0;
+            int j = 0;
+            for (int h = 0; h <= hunks.size(); h++) {
+                SequenceDiffStrategy.DiffHunk hunk = h < hunks.size() ? hunks.get(h) : null;
+                // Matched lines up to the hunk; a pair whose ids collided is reported as changed
+                for (int matchedEnd = hunk != null ? hunk.getSource1Start() : ids1.length; i < matchedEnd; i++, j++) {
+                    String[] row1 = reread1.nextDataRow();
+                    String[] row2 = reread2.nextDataRow();
+                    if (sameLine(row1, side1.keptColumns, row2, side2.keptColumns)) {
+                        finalLineMatchCount++;
+                    } else {
+                        addChangedLine(i, row1, side1, row2, side2, differences);
+                        finalLineContentMismatchCount++;
                     }
                 }
+                if (hunk == null) break;
 
-                if (!currentRowColumnsMatch) {
-                    result.getDifferences().add(new LineDifference(currentDataLineNumber, reportLineS1, reportLineS2, LineDifference.DiffType.MISMATCH));
+                int deletedCount = hunk.getSource1End() - hunk.getSource1Start();
+                int insertedCount = hunk.getSource2End() - hunk.getSource2Start();
+                int changedCount = Math.min(deletedCount, insertedCount);
+                // Lines replaced one for one are reported as changed, the rest as deleted or inserted
+                for (int k = 0; k < changedCount; k++, i++, j++) {
+                    addChangedLine(i, reread1.nextDataRow(), side1, reread2.nextDataRow(), side2, differences);
                     finalLineContentMismatchCount++;
-                    isOverallContentMismatch = true;
-                } else {
-                    finalLineMatchCount++;
-                    // This line matches after ignoring columns. CsvReportGenerator will reflect this.
                 }
-            } else if (originalRow1DataArray != null) { // originalRow2Data is null -> missing in S2 data
-                result.getDifferences().add(new LineDifference(currentDataLineNumber, reportLineS1, null, LineDifference.DiffType.MISSING_IN_SOURCE2));
-                finalLinesMissingInS2Data++;
-                isOverallContentMismatch = true;
-            } else if (originalRow2DataArray != null) { // originalRow1Data is null -> missing in S1 data
-                result.getDifferences().add(new LineDifference(currentDataLineNumber, null, reportLineS2, LineDifference.DiffType.MISSING_IN_SOURCE1));
-                finalLinesMissingInS1Data++;
-                isOverallContentMismatch = true;
+                for (int k = changedCount; k < deletedCount; k++, i++) {
+                    differences.add(new LineDifference(i + 1,
+                            fileParserService.toProcessedLine(reread1.nextDataRow(), side1.ignoreIndices), null, LineDifference.DiffType.MISSING_IN_SOURCE2));
+                    finalLinesMissingInS2Data++;
+                }
+                for (int k = changedCount; k < insertedCount; k++, j++) {
+                    differences.add(new LineDifference(j + 1,
+                            null, fileParserService.toProcessedLine(reread2.nextDataRow(), side2.ignoreIndices), LineDifference.DiffType.MISSING_IN_SOURCE1));
+                    finalLinesMissingInS1Data++;
+                }
             }
         }
 
@@ -270,63 +866,191 @@ public class CompareService {
         result.setMismatchCount(finalLineContentMismatchCount);
         result.setMissingInSource1Count(finalLinesMissingInS1Data);
         result.setMissingInSource2Count(finalLinesMissingInS2Data);
+        boolean isOverallContentMismatch = finalLineContentMismatchCount > 0 || finalLinesMissingInS1Data > 0 || finalLinesMissingInS2Data > 0;
+        result.setStatus(isOverallContentMismatch ? FilePairResult.Status.MISMATCHED : FilePairResult.Status.MATCHED);
+    }
+
+    private void addChangedLine(int lineIndex, String[] row1, ComparisonSide side1, String[] row2, ComparisonSide side2,
+                                DifferenceCollector differences) throws IOException {
+        differences.recordColumnMismatches(row1, side1.keptColumns, row2, side2.keptColumns, null);
+        differences.add(new LineDifference(lineIndex + 1,
+                fileParserService.toProcessedLine(row1, side1.ignoreIndices),
+                fileParserService.toProcessedLine(row2, side2.ignoreIndices),
+                LineDifference.DiffType.MISMATCH));
+    }
 
-        // Final status determination
-        if (effectiveLenS1 != effectiveLenS2) {
-            isOverallContentMismatch = true; // Different number of data rows is a mismatch
+    // Id of each remaining row of the side, equal ids meaning the rows (most likely) compare equal
+    private int[] readLineIds(ComparisonSide side, LineIdTable lineIds) throws RowReadException {
+        int[] ids = new int[1024];
+        int count = 0;
+        String[] row;
+        while ((row = side.nextDataRow()) != null) {
+            if (count == ids.length) ids = Arrays.copyOf(ids, count * 2);
+            ids[count++] = lineIds.idOf(LineIdTable.hashKeptCells(row, side.keptColumns, KEY_SEPARATOR));
         }
+        return Arrays.copyOf(ids, count);
+    }
 
-        if (isOverallContentMismatch) {
-            result.setStatus(FilePairResult.Status.MISMATCHED);
-        } else {
-            result.setStatus(FilePairResult.Status.MATCHED); // Only if no content diffs AND no length diffs AND no missing lines
+    // The line diff's notion of equal rows: the same kept cells, each trimmed
+    private static boolean sameLine(String[] row1, KeptColumnMap keptColumns1, String[] row2, KeptColumnMap keptColumns2) {
+        int keptCount = keptColumns1.keptCount(row1.length);
+        if (keptCount != keptColumns2.keptCount(row2.length)) return false;
+        for (int k = 0; k < keptCount; k++) {
+            String cell1 = row1[keptColumns1.columnAt(k)];
+            String cell2 = row2[keptColumns2.columnAt(k)];
+            if (!(cell1 == null ? "" : cell1.trim()).equals(cell2 == null ? "" : cell2.trim())) return false;
         }
+        return true;
+    }
 
-        // Sanity check for MATCHED status
-        if (result.getStatus() == FilePairResult.Status.MATCHED &&
-                (result.getMismatchCount() > 0 || result.getMissingInSource1Count() > 0 || result.getMissingInSource2Count() > 0 || effectiveLenS1 != effectiveLenS2)) {
-            logger.warn("Correcting status: Marked MATCHED but had diffs/length issues. File1: {}, File2: {}", result.getSource1FileName(), result.getSource2FileName());
-            result.setStatus(FilePairResult.Status.MISMATCHED);
+    // Matches rows by key: a hash index of S2 when it fits the memory budget, otherwise a sort-merge join over spilled runs
+    private void compareRowsByKey(ComparisonSide side1, ComparisonSide side2, CellComparator[] comparators, Path sessionPath,
+                                  DifferenceCollector differences, FilePairResult result) throws IOException {
+        result.setComparisonMode(FilePairResult.ComparisonMode.KEYED);
+
+        try (KeyedRowSorter s2Rows = new KeyedRowSorter(sessionPath, keyedMemoryBudgetBytes);
+             KeyedRowSorter s1Rows = new KeyedRowSorter(sessionPath, keyedMemoryBudgetBytes)) {
+            s2Rows.trackWith(memoryBudgetService, "keyed rows of " + result.getSource2FileName());
+            s1Rows.trackWith(memoryBudgetService, "keyed rows of " + result.getSource1FileName());
+            String[] row;
+            while ((row = side2.nextDataRow()) != null) {
+                s2Rows.add(buildRowKey(row, side2.keyIndices), side2.dataRowsRead, row);
+            }
+
+            if (!s2Rows.hasSpilled()) {
+                Map<String, ArrayDeque<KeyedRowSorter.KeyedRow>> s2Index = s2Rows.toIndex();
+                while ((row = side1.nextDataRow()) != null) {
+                    KeyedRowSorter.KeyedRow row1 = new KeyedRowSorter.KeyedRow(buildRowKey(row, side1.keyIndices), side1.dataRowsRead, row);
+                    ArrayDeque<KeyedRowSorter.KeyedRow> candidates = s2Index.get(row1.getKey());
+                    KeyedRowSorter.KeyedRow row2 = candidates != null ? candidates.pollFirst() : null;
+                    if (row2 != null) {
+                        recordKeyedPair(row1, row2, side1, side2, comparators, differences, result);
+                    } else {
+                        recordUnmatchedKeyedRow(row1, side1, differences, result);
+                    }
+                }
+                // Whatever is left in the index has no counterpart in S1; report it in S2 order
+                List<KeyedRowSorter.KeyedRow> added = new ArrayList<>();
+                s2Index.values().forEach(added::addAll);
+                added.sort(Comparator.comparingInt(KeyedRowSorter.KeyedRow::getLineNumber));
+                for (KeyedRowSorter.KeyedRow row2 : added) {
+                    recordUnmatchedKeyedRow(row2, side2, differences, result);
+                }
+            } else {
+                logger.info("Key index for {} exceeded {} bytes; switching to sort-merge join over spilled runs.",
+                        result.getSource2FileName(), keyedMemoryBudgetBytes);
+                s2Rows.finish();
+                while ((row = side1.nextDataRow()) != null) {
+                    s1Rows.add(buildRowKey(row, side1.keyIndices), side1.dataRowsRead, row);
+                }
+                KeyedRowSorter.SortedRows left = s1Rows.sortedRows();
+                KeyedRowSorter.SortedRows right = s2Rows.sortedRows();
+                while (left.peek() != null || right.peek() != null) {
+                    KeyedRowSorter.KeyedRow row1 = left.peek();
+                    KeyedRowSorter.KeyedRow row2 = right.peek();
+                    int order = row1 == null ? 1 : row2 == null ? -1 : row1.getKey().compareTo(row2.getKey());
+                    if (order == 0) {
+                        recordKeyedPair(left.next(), right.next(), side1, side2, comparators, differences, result);
+                    } else if (order < 0) {
+                        recordUnmatchedKeyedRow(left.next(), side1, differences, result);
+                    } else {
+                        recordUnmatchedKeyedRow(right.next(), side2, differences, result);
+                    }
+                }
+            }
         }
 
-        logger.info("Comparison for {} vs {}: Status={}, Matches={}, ContentMismatches={}, LinesOnlyInS1={}, LinesOnlyInS2={}",
-                result.getSource1FileName(), result.getSource2FileName(), result.getStatus(),
-                result.getMatchCount(), result.getMismatchCount(), result.getMissingInSource1Count(), result.getMissingInSource2Count());
+        boolean isOverallContentMismatch = result.getMismatchCount() > 0 || result.getMissingInSource1Count() > 0 || result.getMissingInSource2Count() > 0;
+        result.setStatus(isOverallContentMismatch ? FilePairResult.Status.MISMATCHED : FilePairResult.Status.MATCHED);
+    }
 
-        saveReportForPair(result, sessionPath);
-        return result;
+    private void recordKeyedPair(KeyedRowSorter.KeyedRow row1, KeyedRowSorter.KeyedRow row2,
+                                 ComparisonSide side1, ComparisonSide side2, CellComparator[] comparators,
+                                 DifferenceCollector differences, FilePairResult result) throws IOException {
+        if (keptColumnsMatch(row1.getRow(), side1, row2.getRow(), side2, comparators, row1.getLineNumber())) {
+            result.setMatchCount(result.getMatchCount() + 1);
+        } else {
+            differences.recordColumnMismatches(row1.getRow(), side1.keptColumns, row2.getRow(), side2.keptColumns, comparators);
+            differences.add(new LineDifference(row1.getLineNumber(),
+                    fileParserService.toProcessedLine(row1.getRow(), side1.ignoreIndices),
+                    fileParserService.toProcessedLine(row2.getRow(), side2.ignoreIndices),
+                    LineDifference.DiffType.MISMATCH, displayKey(row1.getKey())));
+            result.setMismatchCount(result.getMismatchCount() + 1);
+        }
     }
 
-    private String getReportableLine(List<String> processedContent, int dataRowIndex, boolean includesHeaderInOutput, boolean wasHeaderDetected) {
-        if (processedContent == null) return null;
+    // A row whose key has no counterpart: removed if it only exists in S1, added if it only exists in S2
+    private void recordUnmatchedKeyedRow(KeyedRowSorter.KeyedRow keyedRow, ComparisonSide side, DifferenceCollector differences,
+                                         FilePairResult result) throws IOException {
+        String line = fileParserService.toProcessedLine(keyedRow.getRow(), side.ignoreIndices);
+        if (side.source1) {
+            differences.add(new LineDifference(keyedRow.getLineNumber(), line, null,
+                    LineDifference.DiffType.MISSING_IN_SOURCE2, displayKey(keyedRow.getKey())));
+            result.setMissingInSource2Count(result.getMissingInSource2Count() + 1);
+        } else {
+            differences.add(new LineDifference(keyedRow.getLineNumber(), null, line,
+                    LineDifference.DiffType.MISSING_IN_SOURCE1, displayKey(keyedRow.getKey())));
+            result.setMissingInSource1Count(result.getMissingInSource1Count() + 1);
+        }
+    }
 
-        int reportIndex = dataRowIndex; // Default: 0th data row is 0th in processedContent
+    // Mismatch counts by kept column, named after the side's header (by file position where it has none)
+    private List<ColumnMismatchCount> toColumnMismatches(int[] counts, ComparisonSide side) {
+        String[] header = side.rows.getHeader();
+        int width = Math.max(counts.length, header != null ? side.keptColumns.keptCount(header.length) : 0);
+        List<ColumnMismatchCount> columns = new ArrayList<>(width);
+        for (int k = 0; k < width; k++) {
+            int column = side.keptColumns.columnAt(k);
+            String name = (header != null && column < header.length && header[column] != null && !header[column].isBlank())
+                    ? header[column].trim() : "Column " + (column + 1);
+            columns.add(new ColumnMismatchCount(name, k < counts.length ? counts[k] : 0));
+        }
+        return columns;
+    }
 
-        if (includesHeaderInOutput && wasHeaderDetected) {
-            // If header is the 0th element of processedContent, then 0th data row is at index 1
-            reportIndex = dataRowIndex + 1;
+    private String buildRowKey(String[] row, int[] keyIndices) {
+        if (keyIndices.length == 1) {
+            return keyCell(row, keyIndices[0]);
+        }
+        StringBuilder key = new StringBuilder();
+        for (int k = 0; k < keyIndices.length; k++) {
+            if (k > 0) key.append(KEY_SEPARATOR);
+            key.append(keyCell(row, keyIndices[k]));
         }
-        // If header is NOT in processedContent (includesHeaderInOutput=false, but wasHeaderDetected=true),
-        // then 0th data row is at index 0 of processedContent. So, `reportIndex = dataRowIndex` is correct.
+        return key.toString();
+    }
+
+    private String keyCell(String[] row, int index) {
+        return (index < row.length && row[index] != null) ? row[index].trim() : "";
+    }
+
+    private String displayKey(String key) {
+        return key.replace(String.valueOf(KEY_SEPARATOR), " | ");
+    }
 
-        // If no header was detected at all, `includesHeaderInOutput` doesn't change indexing from dataRowIndex.
-        // This means if `wasHeaderDetected` is false, `includesHeaderInOutput` effectively has no bearing on this specific index calculation.
+    // Hot loop: compares through the precomputed kept-column maps and comparators, so nothing is allocated per row pair
+    private boolean keptColumnsMatch(String[] originalRow1DataArray, ComparisonSide side1,
+                                     String[] originalRow2DataArray, ComparisonSide side2, CellComparator[] comparators, int currentDataLineNumber) {
+        boolean match = KeptColumnMap.keptColumnsEqual(originalRow1DataArray, side1.keptColumns, originalRow2DataArray, side2.keptColumns, comparators);
+        if (!match && logger.isTraceEnabled()) {
+            logger.trace("L{}: Kept columns differ. S1: '{}', S2: '{}'", currentDataLineNumber,
+                    fileParserService.toProcessedLine(originalRow1DataArray, side1.ignoreIndices),
+                    fileParserService.toProcessedLine(originalRow2DataArray, side2.ignoreIndices));
+        }
+        return match;
+    }
 
-        if (reportIndex < processedContent.size()) {
-            return processedContent.get(reportIndex);
+    private void closeQuietly(Closeable closeable) {
+        if (closeable == null) return;
+        try {
+            closeable.close();
+        } catch (IOException e) {
+            logger.warn("Could not close comparison input: {}", e.getMessage());
         }
-        // This case implies that originalRows had more data lines than processedContent,
-        // which could happen if parsing or getProcessedLines had an issue.
-        // Or, if the logic for header skipping vs. `includesHeaderInOutput` is misaligned.
-        // For safety, return null if index is out of bounds.
-        logger.warn("getReportableLine: reportIndex {} out of bounds for processedContent size {}. dataRowIndex: {}, includesHeader: {}, wasHeader: {}",
-                reportIndex, processedContent.size(), dataRowIndex, includesHeaderInOutput, wasHeaderDetected);
-        return null;
     }
 
-    private void addMissingFileResult(Path file1Path, Path file2Path, List<FilePairResult> pairResults,
-                                      OverallMetrics metrics, Path sessionPath, boolean isMissingInS1,
-                                      ColumnIgnoreConfig ignoreConfig, boolean fileIncludesHeaderInOutput) {
+    private FilePairResult addMissingFileResult(Path file1Path, Path file2Path, Path sessionPath, boolean isMissingInS1,
+                                                ColumnIgnoreConfig ignoreConfig, boolean fileIncludesHeaderInOutput, ComparisonOptions options) {
         FilePairResult missingResult = new FilePairResult();
         Path presentFilePath = isMissingInS1 ? file2Path : file1Path;
         Set<String> ignores = Collections.emptySet();
@@ -343,8 +1067,18 @@ public class CompareService {
             if (ignoreConfig != null && ignoreConfig.getSource1Ignore() != null) ignores = ignoreConfig.getSource1Ignore();
         }
 
+        if (isStreamingComparison(options, presentFilePath)) {
+            // Content of a file too large to hold in memory is not loaded; the report only records that it is unpaired
+            logger.info("Skipping content load for unpaired file {} (streaming mode).", presentFilePath.getFileName());
+            saveReportForPair(missingResult, sessionPath);
+            return missingResult;
+        }
+
+        MemoryBudgetService.Registration rowsTracking = null;
         try {
-            FileParserService.ParsedFileResult parsedFile = fileParserService.parseFileIntoRowsAndHeader(presentFilePath);
+            String sheet = options == null ? null : isMissingInS1 ? options.getSource2Sheet() : options.getSource1Sheet();
+            FileParserService.ParsedFileResult parsedFile = parseCacheService.parseFileIntoRowsAndHeader(presentFilePath, sheet);
+            rowsTracking = trackRows(parsedFile, presentFilePath, sessionPath);
             List<String> content = fileParserService.getProcessedLines(parsedFile, ignores, fileIncludesHeaderInOutput);
             if (isMissingInS1) missingResult.setSource2Content(content);
             else missingResult.setSource1Content(content);
@@ -353,13 +1087,26 @@ public class CompareService {
             missingResult.setErrorMessage("Error parsing file " + presentFilePath.getFileName() + ": " + e.getMessage());
         }
 
-        saveReportForPair(missingResult, sessionPath);
-        pairResults.add(missingResult);
-        updateMetricsFromPairResult(metrics, missingResult, isMissingInS1, !isMissingInS1);
+        try {
+            saveReportForPair(missingResult, sessionPath);
+        } finally {
+            closeQuietly(rowsTracking);
+        }
+        return missingResult;
+    }
+
+    // Hands the collected differences (and any overflow file) to the result, then saves it
+    private void saveReportForPair(FilePairResult result, DifferenceCollector differences, Path sessionPath) {
+        try {
+            differences.applyTo(result);
+        } catch (IOException e) {
+            logger.error("Could not finish differences for pair {} vs {}: {}", result.getSource1FileName(), result.getSource2FileName(), e.getMessage());
+            result.setErrorMessage((result.getErrorMessage() == null ? "" : result.getErrorMessage()) + " | Could not write line details.");
+        }
+        saveReportForPair(result, sessionPath);
     }
 
     private void saveReportForPair(FilePairResult result, Path sessionPath) {
-        String csvContent = CsvReportGenerator.generateCsvContent(result);
         String s1NamePart = result.getSource1FileName() != null ? result.getSource1FileName().replaceAll("[^a-zA-Z0-9.\\-_]", "_") : "s1_unknown";
         String s2NamePart = result.getSource2FileName() != null ? result.getSource2FileName().replaceAll("[^a-zA-Z0-9.\\-_]", "_") : "s2_unknown";
 
@@ -369,13 +1116,26 @@ public class CompareService {
 
         String reportFileName = "report_" + s1NamePart + "_vs_" + s2NamePart + ".csv";
 
+        String pairFileName = result.getSource1FileName() != null ? result.getSource1FileName() : result.getSource2FileName();
+        if (result.getStatus() != null) comparisonMetrics.countPair(pairFileName, result.getStatus().name());
+        long reportStart = comparisonMetrics.start();
         try {
-            Path reportPath = storageService.storeReport(csvContent, reportFileName, sessionPath);
+            Path reportPath = storageService.storeReport(reportFileName, sessionPath, writer -> CsvReportGenerator.writeReport(result, writer));
             result.setIndividualReportPath(storageService.getRelativePathForClient(reportPath, sessionPath));
+            comparisonMetrics.recordReport(pairFileName, ComparisonMetrics.SUCCESS, reportStart);
         } catch (IOException e) {
+            comparisonMetrics.recordReport(pairFileName, ComparisonMetrics.ERROR, reportStart);
             logger.error("Could not save individual report for pair {} vs {}: {}", result.getSource1FileName(), result.getSource2FileName(), e.getMessage());
             result.setErrorMessage((result.getErrorMessage() == null ? "" : result.getErrorMessage()) + " | Could not save report file.");
         }
+
+        // The response only carries the pair's summary; content and differences are paged from the result store
+        try {
+            pairResultStore.storeAndRelease(result, sessionPath);
+        } catch (IOException e) {
+            logger.error("Could not store results for pair {} vs {}: {}", result.getSource1FileName(), result.getSource2FileName(), e.getMessage());
+            result.setErrorMessage((result.getErrorMessage() == null ? "" : result.getErrorMessage()) + " | Could not store line details.");
+        }
     }
 
     private void updateMetricsFromPairResult(OverallMetrics metrics, FilePairResult result, boolean onlyInS1, boolean onlyInS2) {
@@ -391,5 +1151,203 @@ public class CompareService {
         metrics.setTotalLineMismatches(metrics.getTotalLineMismatches() + result.getMismatchCount());
         metrics.setTotalLinesMissingInS1(metrics.getTotalLinesMissingInS1() + result.getMissingInSource1Count());
         metrics.setTotalLinesMissingInS2(metrics.getTotalLinesMissingInS2() + result.getMissingInSource2Count());
+        for (ColumnMismatchCount column : result.getColumnMismatches()) {
+            metrics.getColumnMismatchCounts().merge(column.getColumn(), column.getMismatchCount(), Integer::sum);
+        }
+    }
+
+    // A submitted pair comparison plus the flags its metrics are merged with
+    private static class PendingPairResult {
+        private final Future<FilePairResult> future;
+        private final boolean onlyInS1;
+        private final boolean onlyInS2;
+
+        PendingPairResult(Future<FilePairResult> future, boolean onlyInS1, boolean onlyInS2) {
+            this.future = future;
+            this.onlyInS1 = onlyInS1;
+            this.onlyInS2 = onlyInS2;
+        }
+    }
+
+    // Next data row of one side of a positional comparison, null once it is exhausted
+    @FunctionalInterface
+    private interface RowSource {
+        String[] next() throws RowReadException;
+    }
+
+    // Counts and differences of a positional comparison, or of one chunk of it
+    private static class PositionalTally {
+        private final DifferenceCollector differences;
+        private int matchCount;
+        private int mismatchCount;
+        private int missingInSource1Count;
+        private int missingInSource2Count;
+
+        PositionalTally(DifferenceCollector differences) {
+            this.differences = differences;
+        }
+
+        // Appends a following chunk
+        void add(PositionalTally chunk) throws IOException {
+            differences.addAll(chunk.differences);
+            matchCount += chunk.matchCount;
+            mismatchCount += chunk.mismatchCount;
+            missingInSource1Count += chunk.missingInSource1Count;
+            missingInSource2Count += chunk.missingInSource2Count;
+        }
+
+        void applyTo(FilePairResult result) {
+            result.setMatchCount(matchCount);
+            result.setMismatchCount(mismatchCount);
+            result.setMissingInSource1Count(missingInSource1Count);
+            result.setMissingInSource2Count(missingInSource2Count);
+            // Only MATCHED if no content diffs AND no missing lines (a different number of data rows shows up as missing lines)
+            boolean isOverallContentMismatch = mismatchCount > 0 || missingInSource1Count > 0 || missingInSource2Count > 0;
+            result.setStatus(isOverallContentMismatch ? FilePairResult.Status.MISMATCHED : FilePairResult.Status.MATCHED);
+        }
+    }
+
+    // The records of a byte range of a CSV file, reported to the progress as they are read
+    private static class CsvRows implements Closeable {
+        private final MappedCsvReader reader; // null for an empty range
+        private final boolean source1;
+        private final ComparisonProgress progress;
+        private int rowsRead;
+        private int rowsReported;
+
+        CsvRows(Path filePath, long startOffset, long endOffset, boolean skipHeaderRow, boolean source1, ComparisonProgress progress) throws RowReadException {
+            this.source1 = source1;
+            this.progress = progress;
+            try {
+                this.reader = startOffset < endOffset ? new MappedCsvReader(filePath, startOffset, endOffset) : null;
+                if (reader != null && skipHeaderRow) reader.nextRecord();
+            } catch (IOException e) {
+                throw new RowReadException(source1, e);
+            }
+        }
+
+        // One chunk of a file scanned by scanChunkOffsets; none if the file has fewer chunks
+        static CsvRows chunk(Path filePath, long[] chunkOffsets, int chunk, boolean source1, ComparisonProgress progress) throws RowReadException {
+            return chunk + 1 < chunkOffsets.length
+                    ? new CsvRows(filePath, chunkOffsets[chunk], chunkOffsets[chunk + 1], false, source1, progress)
+                    : new CsvRows(filePath, 0, 0, false, source1, progress);
+        }
+
+        // The reader on the next record, whose fields stay valid until the following call; null once the range is exhausted
+        MappedCsvReader nextRecord() throws RowReadException {
+            try {
+                boolean found = reader != null && reader.nextRecord();
+                if (!found || (++rowsRead & PROGRESS_INTERVAL_MASK) == 0) {
+                    progress.addRowsRead(rowsRead - rowsReported);
+                    rowsReported = rowsRead;
+                    progress.throwIfCancelled();
+                }
+                return found ? reader : null;
+            } catch (IOException e) {
+                throw new RowReadException(source1, e);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (reader != null) reader.close();
+        }
+    }
+
+    // Opens a side's rows from the start, again as often as needed
+    @FunctionalInterface
+    private interface RowStreamSource {
+        FileParserService.ParsedFileStream open() throws IOException;
+    }
+
+    // One side of a pair comparison: its rows, the resolved ignore indices and (in memory mode) the processed content
+    private static class ComparisonSide implements Closeable {
+        private final RowStreamSource source;
+        private final FileParserService.ParsedFileStream rows;
+        private final Set<Integer> ignoreIndices;
+        private final KeptColumnMap keptColumns;
+        private final int[] keyIndices; // null unless rows are matched by key
+        private final List<String> content; // null when streaming
+        private final MemoryBudgetService.Registration rowsTracking; // null when streaming
+        private final boolean source1;
+        private final ComparisonProgress progress;
+        private final boolean skipHeaderRow;
+        private boolean countsRows = true; // False for a second pass, whose rows were counted the first time
+        private boolean headerPending;
+        private boolean exhausted;
+        private int dataRowsRead;
+        private int rowsReported;
+
+        ComparisonSide(RowStreamSource source, FileParserService.ParsedFileStream rows, Set<Integer> ignoreIndices, int[] keyIndices, List<String> content,
+                       MemoryBudgetService.Registration rowsTracking, boolean skipHeaderRow, boolean source1, ComparisonProgress progress) {
+            this.source = source;
+            this.rows = rows;
+            this.ignoreIndices = ignoreIndices;
+            this.keptColumns = new KeptColumnMap(ignoreIndices, rows.getHeader() != null ? rows.getHeader().length : 0);
+            this.keyIndices = keyIndices;
+            this.content = content;
+            this.rowsTracking = rowsTracking;
+            this.skipHeaderRow = skipHeaderRow;
+            this.headerPending = skipHeaderRow;
+            this.source1 = source1;
+            this.progress = progress;
+        }
+
+        // The same data rows from the start, on their own stream; this side keeps its position
+        ComparisonSide reread() throws IOException {
+            ComparisonSide reread = new ComparisonSide(source, source.open(), ignoreIndices, keyIndices, null, null, skipHeaderRow, source1, progress);
+            reread.countsRows = false;
+            return reread;
+        }
+
+        String[] nextDataRow() throws RowReadException {
+            if (exhausted) return null;
+            try {
+                String[] row = rows.next();
+                if (headerPending && row != null) {
+                    headerPending = false;
+                    row = rows.next();
+                }
+                if (row == null) {
+                    exhausted = true;
+                    reportProgress();
+                } else if ((++dataRowsRead & PROGRESS_INTERVAL_MASK) == 0) {
+                    reportProgress(); // Also where a cancelled comparison stops
+                }
+                return row;
+            } catch (IOException e) {
+                throw new RowReadException(source1, e);
+            }
+        }
+
+        private void reportProgress() {
+            if (countsRows) progress.addRowsRead(dataRowsRead - rowsReported);
+            rowsReported = dataRowsRead;
+            progress.throwIfCancelled();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                rows.close();
+            } finally {
+                if (rowsTracking != null) rowsTracking.close();
+            }
+        }
+    }
+
+    // Failure while reading rows mid-comparison, tagged with the side it came from
+    private static class RowReadException extends IOException {
+        private static final long serialVersionUID = 1L;
+        private final boolean source1;
+
+        RowReadException(boolean source1, IOException cause) {
+            super(cause.getMessage(), cause);
+            this.source1 = source1;
+        }
+
+        boolean isSource1() {
+            return source1;
+        }
     }
-}
\ No newline at end of file
+}
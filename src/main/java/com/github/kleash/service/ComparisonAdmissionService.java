@@ -0,0 +1,296 @@
+package com.github.kleash.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.io.Closeable;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Decides when comparisons start. Each one is admitted against a limit on comparisons running at once and on their
+ * estimated heap use together; the rest wait in a queue per client (HTTP session), and clients take turns, so one
+ * client submitting many comparisons does not hold up everyone else. A client whose next comparison does not fit
+ * yet is passed over for one that does, but only a few times before the limits are kept free for it; a comparison
+ * larger than the whole heap budget runs alone. When the queue is full, new comparisons are turned away with a hint
+ * of when to retry. A place in the queue is reserved before the comparison's files are uploaded, so the limits hold
+ * however many uploads run at once.
+ */
+@Service
+public class ComparisonAdmissionService {
+    private static final Logger logger = LoggerFactory.getLogger(ComparisonAdmissionService.class);
+    private static final long DEFAULT_RETRY_AFTER_SECONDS = 5; // Until a comparison has finished to estimate from
+    private static final long MAX_RETRY_AFTER_SECONDS = 600;
+
+    @Autowired
+    private MemoryBudgetService memoryBudgetService;
+
+    // Defaults to the former limit on concurrent jobs, which now applies to all comparisons
+    @Value("${file.comparison.admission.max-running:${file.comparison.jobs.max-concurrent:2}}")
+    private int configuredMaxRunning;
+
+    @Value("${file.comparison.admission.memory-bytes:0}")
+    private long configuredMemoryBytes;
+
+    @Value("${file.comparison.admission.max-queued:50}")
+    private int maxQueued;
+
+    @Value("${file.comparison.admission.max-queued-per-client:10}")
+    private int maxQueuedPerClient;
+
+    // How often a waiting comparison may be passed over by smaller ones before nothing else is admitted ahead of it
+    @Value("${file.comparison.admission.max-bypasses:5}")
+    private int maxBypasses;
+
+    // How long a synchronous /compare request waits to be admitted before it is turned away
+    @Value("${file.comparison.admission.max-wait-seconds:300}")
+    private long maxWaitSeconds;
+
+    private int maxRunning;
+    private long memoryBytes;
+
+    // Waiting tickets per client, clients in turn order (the next to be served first); all guarded by this
+    private final LinkedHashMap<String, ArrayDeque<Ticket>> queues = new LinkedHashMap<>();
+    private final Map<String, Integer> reservedByClient = new HashMap<>(); // Reserved tickets not submitted yet
+    private int reserved;
+    private int queued;
+    private int running;
+    private long runningMemoryBytes;
+    private long admitted;
+    private long rejected;
+    private long timedOut;
+    private long totalWaitMs;
+    private long maxWaitMs;
+    private double averageRunMs; // Moving average over finished comparisons; 0 until the first
+
+    @PostConstruct
+    public void init() {
+        maxRunning = Math.max(1, configuredMaxRunning);
+        memoryBytes = configuredMemoryBytes > 0 ? configuredMemoryBytes : memoryBudgetService.getBudgetBytes();
+        logger.info("Admitting up to {} comparisons at a time within {} bytes of estimated heap.", maxRunning, memoryBytes);
+    }
+
+    public int getMaxRunning() {
+        return maxRunning;
+    }
+
+    /**
+     * Reserves a place in the queue for a comparison of the client, or returns null if the queue is full (see
+     * {@link #getRetryAfterSeconds()}). Taken before anything is uploaded, so a rejected request costs next to
+     * nothing and an accepted one keeps its place however long the upload takes. The ticket joins the queue once
+     * {@link Ticket#submit submitted}; closing it before that gives the place back.
+     */
+    public synchronized Ticket reserve(String clientId) {
+        ArrayDeque<Ticket> clientQueue = queues.get(clientId);
+        int clientWaiting = (clientQueue != null ? clientQueue.size() : 0) + reservedByClient.getOrDefault(clientId, 0);
+        if (queued + reserved >= maxQueued || clientWaiting >= maxQueuedPerClient) {
+            rejected++;
+            return null;
+        }
+        reserved++;
+        reservedByClient.merge(clientId, 1, Integer::sum);
+        return new Ticket(clientId);
+    }
+
+    // When a comparison queued now would likely start: the queue ahead of it, at the recent run time per comparison
+    public synchronized long getRetryAfterSeconds() {
+        long seconds = averageRunMs > 0
+                ? (long) Math.ceil(averageRunMs * (queued / (double) maxRunning + 1) / 1000)
+                : DEFAULT_RETRY_AFTER_SECONDS;
+        return Math.max(1, Math.min(MAX_RETRY_AFTER_SECONDS, seconds));
+    }
+
+    // Moves a reserved ticket into its client's queue with the comparison's estimated heap use
+    private void submit(Ticket ticket, long estimatedBytes) {
+        List<Ticket> nowAdmitted;
+        synchronized (this) {
+            if (ticket.closed || ticket.submitted) return;
+            releaseReservation(ticket);
+            ticket.submitted = true;
+            ticket.estimatedBytes = Math.max(0, estimatedBytes);
+            ticket.enqueuedAt = System.currentTimeMillis();
+            queues.computeIfAbsent(ticket.clientId, id -> new ArrayDeque<>()).add(ticket);
+            queued++;
+            nowAdmitted = dispatch();
+        }
+        complete(nowAdmitted);
+    }
+
+    private void releaseReservation(Ticket ticket) {
+        reserved--;
+        reservedByClient.computeIfPresent(ticket.clientId, (id, count) -> count > 1 ? count - 1 : null);
+    }
+
+    public synchronized Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("maxRunning", maxRunning);
+        statistics.put("memoryBytes", memoryBytes);
+        statistics.put("running", running);
+        statistics.put("runningEstimatedBytes", runningMemoryBytes);
+        statistics.put("reserved", reserved);
+        statistics.put("queued", queued);
+        statistics.put("queuedClients", queues.size());
+        statistics.put("admitted", admitted);
+        statistics.put("rejected", rejected);
+        statistics.put("timedOut", timedOut);
+        statistics.put("averageWaitMs", admitted > 0 ? totalWaitMs / admitted : 0);
+        statistics.put("maxWaitMs", maxWaitMs);
+        statistics.put("averageRunMs", Math.round(averageRunMs));
+        return statistics;
+    }
+
+    /*
+     * Serves clients in turn: the first one whose oldest ticket fits, while one does. Clients whose ticket does not fit
+     * keep their place in the turn order, and their ticket counts the times it was passed over; once one has been
+     * passed over max-bypasses times, the oldest such ticket is the only one admitted until it fits, so large
+     * comparisons are not starved by smaller ones. Caller holds the lock; the returned tickets are completed after it
+     * is released, since that may run the comparison's continuation.
+     */
+    private List<Ticket> dispatch() {
+        List<Ticket> nowAdmitted = new ArrayList<>();
+        while (running < maxRunning && !queues.isEmpty()) {
+            Ticket starved = null;
+            for (ArrayDeque<Ticket> clientQueue : queues.values()) {
+                Ticket head = clientQueue.peek();
+                if (head.bypasses >= maxBypasses && (starved == null || head.enqueuedAt < starved.enqueuedAt)) starved = head;
+            }
+            if (starved != null) {
+                if (!fits(starved)) break; // Keep the limits free for it
+                admit(starved, nowAdmitted);
+                continue;
+            }
+
+            Ticket next = null;
+            for (ArrayDeque<Ticket> clientQueue : queues.values()) {
+                if (fits(clientQueue.peek())) {
+                    next = clientQueue.peek();
+                    break;
+                }
+            }
+            if (next == null) break;
+            for (ArrayDeque<Ticket> clientQueue : queues.values()) {
+                Ticket head = clientQueue.peek();
+                if (head == next) break;
+                head.bypasses++;
+            }
+            admit(next, nowAdmitted);
+        }
+        return nowAdmitted;
+    }
+
+    private boolean fits(Ticket ticket) {
+        return running == 0 || runningMemoryBytes + ticket.estimatedBytes <= memoryBytes;
+    }
+
+    // Takes the ticket, the head of its client's queue, out of the queue and moves the client to the back of the turn order
+    private void admit(Ticket ticket, List<Ticket> nowAdmitted) {
+        ArrayDeque<Ticket> clientQueue = queues.remove(ticket.clientId);
+        clientQueue.poll();
+        if (!clientQueue.isEmpty()) queues.put(ticket.clientId, clientQueue);
+        queued--;
+        running++;
+        runningMemoryBytes += ticket.estimatedBytes;
+        ticket.admittedAt = System.currentTimeMillis();
+        long waitMs = ticket.admittedAt - ticket.enqueuedAt;
+        admitted++;
+        totalWaitMs += waitMs;
+        maxWaitMs = Math.max(maxWaitMs, waitMs);
+        nowAdmitted.add(ticket);
+    }
+
+    private void complete(List<Ticket> nowAdmitted) {
+        for (Ticket ticket : nowAdmitted) {
+            logger.debug("Admitted comparison of client {} ({} estimated bytes) after {} ms.",
+                    ticket.clientId, ticket.estimatedBytes, ticket.admittedAt - ticket.enqueuedAt);
+            ticket.admission.complete(null);
+        }
+    }
+
+    private void close(Ticket ticket) {
+        List<Ticket> nowAdmitted;
+        synchronized (this) {
+            if (ticket.closed) return;
+            ticket.closed = true;
+            if (!ticket.submitted) {
+                releaseReservation(ticket);
+                return;
+            }
+            if (ticket.admittedAt > 0) {
+                running--;
+                runningMemoryBytes -= ticket.estimatedBytes;
+                long runMs = System.currentTimeMillis() - ticket.admittedAt;
+                averageRunMs = averageRunMs > 0 ? averageRunMs * 0.8 + runMs * 0.2 : runMs;
+            } else {
+                ArrayDeque<Ticket> clientQueue = queues.get(ticket.clientId);
+                if (clientQueue != null && clientQueue.remove(ticket)) {
+                    queued--;
+                    if (clientQueue.isEmpty()) queues.remove(ticket.clientId);
+                }
+            }
+            nowAdmitted = dispatch();
+        }
+        complete(nowAdmitted);
+    }
+
+    /**
+     * A comparison's place in the queue, and once admitted its share of the limits. Must be closed when the
+     * comparison ends or is abandoned, including when it is never submitted.
+     */
+    public final class Ticket implements Closeable {
+        private final String clientId;
+        private final CompletableFuture<Void> admission = new CompletableFuture<>();
+        // Guarded by the service
+        private boolean submitted;
+        private long estimatedBytes;
+        private long enqueuedAt;
+        private long admittedAt;
+        private int bypasses; // Times a later client's ticket was admitted ahead of this one
+        private boolean closed;
+
+        private Ticket(String clientId) {
+            this.clientId = clientId;
+        }
+
+        // Queues the comparison, whose files are now in place, with its estimated heap use
+        public void submit(long estimatedBytes) {
+            ComparisonAdmissionService.this.submit(this, estimatedBytes);
+        }
+
+        // Blocks until admitted; false if that did not happen within file.comparison.admission.max-wait-seconds
+        public boolean awaitAdmission() throws InterruptedException {
+            try {
+                admission.get(maxWaitSeconds, TimeUnit.SECONDS);
+                return true;
+            } catch (TimeoutException e) {
+                synchronized (ComparisonAdmissionService.this) {
+                    timedOut++;
+                }
+                return false;
+            } catch (ExecutionException e) {
+                throw new IllegalStateException(e.getCause()); // Never completed exceptionally
+            }
+        }
+
+        // Runs the action once admitted: on the admitting thread, or right here if that has already happened
+        public void whenAdmitted(Runnable action) {
+            admission.thenRun(action);
+        }
+
+        @Override
+        public void close() {
+            ComparisonAdmissionService.this.close(this);
+        }
+    }
+}
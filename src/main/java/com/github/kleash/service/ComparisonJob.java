@@ -0,0 +1,103 @@
+package com.github.kleash.service;
+
+import com.github.kleash.dto.ComparisonJobStatus;
+import com.github.kleash.dto.ComparisonResponse;
+
+import java.nio.file.Path;
+import java.util.Collections;
+
+/**
+ * One asynchronous compareFiles run. State changes are synchronized so that a cancel racing with the start or the
+ * end of the run leaves exactly one final state.
+ */
+public class ComparisonJob {
+
+    private final String id;
+    private final Path sessionPath;
+    private final ComparisonProgress progress = new ComparisonProgress();
+    private final long submittedAt = System.currentTimeMillis();
+    private ComparisonJobStatus.State state = ComparisonJobStatus.State.QUEUED;
+    private Long startedAt;
+    private Long finishedAt;
+    private ComparisonResponse response;
+    private String errorMessage;
+    private ComparisonAdmissionService.Ticket ticket; // Closed by a cancel that finds the job still queued
+
+    ComparisonJob(String id, Path sessionPath) {
+        this.id = id;
+        this.sessionPath = sessionPath;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public Path getSessionPath() {
+        return sessionPath;
+    }
+
+    public ComparisonProgress getProgress() {
+        return progress;
+    }
+
+    synchronized void setTicket(ComparisonAdmissionService.Ticket ticket) {
+        this.ticket = ticket;
+    }
+
+    public synchronized ComparisonJobStatus.State getState() {
+        return state;
+    }
+
+    synchronized Long getFinishedAt() {
+        return finishedAt;
+    }
+
+    // QUEUED -> RUNNING; false if the job was cancelled before it got a thread
+    synchronized boolean start() {
+        if (state != ComparisonJobStatus.State.QUEUED) return false;
+        state = ComparisonJobStatus.State.RUNNING;
+        startedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    // Moves to a final state unless the job already has one
+    synchronized boolean finish(ComparisonJobStatus.State finalState, ComparisonResponse response, String errorMessage) {
+        if (isFinished()) return false;
+        this.state = finalState;
+        this.response = response;
+        this.errorMessage = errorMessage;
+        this.finishedAt = System.currentTimeMillis();
+        return true;
+    }
+
+    synchronized boolean isFinished() {
+        return finishedAt != null;
+    }
+
+    // Stops the run; true if the job was still queued, in which case it is finished right here
+    synchronized boolean cancel() {
+        progress.cancel();
+        if (state != ComparisonJobStatus.State.QUEUED) return false;
+        finish(ComparisonJobStatus.State.CANCELLED, null, "Cancelled before it started");
+        if (ticket != null) ticket.close(); // Leaves the queue, or hands back an admission not yet started on
+        return true;
+    }
+
+    public synchronized ComparisonJobStatus toStatus(int completedPairsOffset) {
+        ComparisonJobStatus status = new ComparisonJobStatus();
+        status.setJobId(id);
+        status.setState(state);
+        status.setPairsTotal(progress.getPairsTotal());
+        status.setPairsDone(progress.getPairsDone());
+        status.setRowsProcessed(progress.getRowsRead());
+        status.setSubmittedAt(submittedAt);
+        status.setStartedAt(startedAt);
+        status.setFinishedAt(finishedAt);
+        status.setErrorMessage(errorMessage);
+        status.setCompletedPairsOffset(completedPairsOffset);
+        // Once the full result is there it carries every pair, in report order
+        status.setCompletedPairResults(response != null ? Collections.emptyList() : progress.getCompletedPairs(completedPairsOffset));
+        status.setResult(response);
+        return status;
+    }
+}
@@ -0,0 +1,156 @@
+package com.github.kleash.service;
+
+import com.github.kleash.dto.ComparisonJobStatus;
+import com.github.kleash.dto.ComparisonResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs comparisons as background jobs so the submitting request returns at once. A job stays QUEUED until
+ * {@link ComparisonAdmissionService} admits it. Finished jobs are kept for file.comparison.jobs.retention-minutes so
+ * a client can reconnect and fetch the result.
+ */
+@Service
+public class ComparisonJobService {
+    private static final Logger logger = LoggerFactory.getLogger(ComparisonJobService.class);
+
+    @Autowired
+    private StorageService storageService;
+
+    @Autowired
+    private ComparisonAdmissionService admissionService;
+
+    @Value("${file.comparison.jobs.retention-minutes:30}")
+    private long retentionMinutes;
+
+    private final Map<String, ComparisonJob> jobs = new ConcurrentHashMap<>();
+    private ExecutorService jobExecutor;
+
+    // The comparison a job runs, reporting into the job's progress
+    @FunctionalInterface
+    public interface JobWork {
+        ComparisonResponse run(ComparisonProgress progress) throws Exception;
+    }
+
+    @PostConstruct
+    public void init() {
+        int poolSize = admissionService.getMaxRunning(); // Never more jobs admitted at once
+        AtomicInteger threadCounter = new AtomicInteger();
+        jobExecutor = Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "compare-job-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Comparison job executor initialised with {} threads.", poolSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        jobs.values().forEach(ComparisonJob::cancel);
+        jobExecutor.shutdownNow();
+    }
+
+    // Queues the job on its reserved ticket, with the comparison's estimated heap use; it runs once admitted
+    public ComparisonJob submit(Path sessionPath, ComparisonAdmissionService.Ticket ticket, long estimatedBytes, JobWork work) {
+        purgeExpiredJobs();
+        ComparisonJob job = new ComparisonJob(UUID.randomUUID().toString(), sessionPath);
+        jobs.put(job.getId(), job);
+        job.setTicket(ticket);
+        ticket.whenAdmitted(() -> jobExecutor.execute(() -> run(job, work, ticket)));
+        ticket.submit(estimatedBytes);
+        logger.info("Submitted comparison job {} for session {}", job.getId(), sessionPath.getFileName());
+        return job;
+    }
+
+    public ComparisonJob getJob(String jobId) {
+        purgeExpiredJobs();
+        return jobs.get(jobId);
+    }
+
+    // Returns the job, or null if it is unknown or has expired
+    public ComparisonJob cancel(String jobId) {
+        ComparisonJob job = getJob(jobId);
+        if (job == null) return null;
+        logger.info("Cancelling comparison job {}", jobId);
+        if (job.cancel()) {
+            storageService.deleteSessionDirectory(job.getSessionPath());
+        }
+        return job;
+    }
+
+    /**
+     * Cancels every unfinished job of a session. True if one of them is already running and has yet to stop; until
+     * it has, its session directory is still in use.
+     */
+    public boolean cancelSessionJobs(Path sessionPath) {
+        boolean stillRunning = false;
+        for (ComparisonJob job : jobs.values()) {
+            if (job.isFinished() || !job.getSessionPath().equals(sessionPath)) continue;
+            logger.info("Cancelling comparison job {} of session {}", job.getId(), sessionPath.getFileName());
+            if (!job.cancel() && !job.isFinished()) stillRunning = true;
+        }
+        return stillRunning;
+    }
+
+    private void run(ComparisonJob job, JobWork work, ComparisonAdmissionService.Ticket ticket) {
+        try {
+            runAdmitted(job, work);
+        } finally {
+            ticket.close();
+        }
+    }
+
+    private void runAdmitted(ComparisonJob job, JobWork work) {
+        if (!job.start()) return; // Cancelled while queued
+        ComparisonJobStatus.State finalState;
+        ComparisonResponse response = null;
+        String errorMessage = null;
+        try {
+            response = work.run(job.getProgress());
+            finalState = job.getProgress().isCancelled() ? ComparisonJobStatus.State.CANCELLED : ComparisonJobStatus.State.COMPLETED;
+        } catch (CancellationException e) {
+            finalState = ComparisonJobStatus.State.CANCELLED;
+        } catch (Exception e) {
+            if (job.getProgress().isCancelled()) {
+                finalState = ComparisonJobStatus.State.CANCELLED; // Interrupted pair tasks surface as all sorts of errors
+            } else {
+                logger.error("Comparison job {} failed: {}", job.getId(), e.getMessage(), e);
+                finalState = ComparisonJobStatus.State.FAILED;
+                errorMessage = e.getMessage();
+            }
+        }
+        if (finalState == ComparisonJobStatus.State.CANCELLED) {
+            response = null;
+            errorMessage = "Cancelled";
+        }
+        job.finish(finalState, response, errorMessage);
+        logger.info("Comparison job {} finished: {}", job.getId(), finalState);
+        if (finalState != ComparisonJobStatus.State.COMPLETED) {
+            // Reports of a failed or cancelled run are incomplete; do not leave them to be downloaded
+            storageService.deleteSessionDirectory(job.getSessionPath());
+        }
+    }
+
+    private void purgeExpiredJobs() {
+        long cutoff = System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(retentionMinutes);
+        jobs.values().removeIf(job -> {
+            Long finishedAt = job.getFinishedAt();
+            return finishedAt != null && finishedAt < cutoff;
+        });
+    }
+}
@@ -19,6 +19,9 @@ public class ComparisonLoggingService {
     @Autowired
     private ComparisonLogRepository comparisonLogRepository;
 
+    @Autowired
+    private ComparisonMetrics comparisonMetrics;
+
     public void logComparison(
             ComparisonResponse response,
             String sessionId,
@@ -27,6 +30,20 @@ public class ComparisonLoggingService {
             HttpServletRequest request,
             List<Path> s1FilePaths, // Add original file paths
             List<Path> s2FilePaths  // Add original file paths
+    ) {
+        logComparison(response, sessionId, executionTimeMs, reportsZipPath, request != null ? request.getHeader("User-Agent") : null,
+                s1FilePaths, s2FilePaths);
+    }
+
+    // For comparisons that finish after their HTTP request is gone, e.g. background jobs
+    public void logComparison(
+            ComparisonResponse response,
+            String sessionId,
+            long executionTimeMs,
+            String reportsZipPath,
+            String userAgent,
+            List<Path> s1FilePaths,
+            List<Path> s2FilePaths
     ) {
         if (response == null || response.getMetrics() == null) {
             return;
@@ -44,9 +61,7 @@ public class ComparisonLoggingService {
         log.setTotalExecutionTimeMs(executionTimeMs);
         log.setReportsZipPath(reportsZipPath);
 
-        if (request != null) {
-            log.setUserAgent(request.getHeader("User-Agent"));
-        }
+        log.setUserAgent(userAgent);
 
         // Set concatenated file names
         if (s1FilePaths != null) {
@@ -56,6 +71,13 @@ public class ComparisonLoggingService {
             log.setSource2FileNamesList(s2FilePaths.stream().map(p -> p.getFileName().toString()).collect(Collectors.toList()));
         }
 
-        comparisonLogRepository.save(log);
+        long start = comparisonMetrics.start();
+        String outcome = ComparisonMetrics.ERROR;
+        try {
+            comparisonLogRepository.save(log);
+            outcome = ComparisonMetrics.SUCCESS;
+        } finally {
+            comparisonMetrics.recordLogWrite(outcome, start);
+        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,142 @@
+package com.github.kleash.service;
+
+import com.github.kleash.util.FileTypeUtil;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings and sizes of each stage of a comparison, recorded in Micrometer and exported through Actuator (e.g.
+ * /actuator/prometheus). Timers are tagged with the file type and the outcome, so latency can be broken down by
+ * stage, format and failures; they publish histograms, so percentiles can be computed across instances.
+ */
+@Service
+public class ComparisonMetrics {
+    public static final String SUCCESS = "success";
+    public static final String ERROR = "error";
+
+    // Modes of the row loop, for the "mode" tag
+    public static final String MODE_POSITIONAL = "positional";
+    public static final String MODE_CHUNKED = "chunked";
+    public static final String MODE_KEYED = "keyed";
+    public static final String MODE_LINE_DIFF = "line-diff";
+
+    private static final String TAG_FILE_TYPE = "file.type";
+    private static final String TAG_OUTCOME = "outcome";
+
+    @Autowired
+    private MeterRegistry registry;
+
+    // A stage's start; pass it to the matching record method
+    public long start() {
+        return System.nanoTime();
+    }
+
+    // Storing one upload in the session directory
+    public void recordUpload(String fileName, String outcome, long start, long bytes) {
+        String fileType = fileType(fileName);
+        timer("file.comparison.upload", "Storing an uploaded file", fileType, outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (SUCCESS.equals(outcome)) {
+            summary("file.comparison.upload.size", "Size of stored uploads", "bytes", fileType).record(bytes);
+        }
+    }
+
+    // Parsing one file completely into a row store (streamed files are read during the row loop instead)
+    public void recordParse(Path filePath, String outcome, long start, int rows) {
+        String fileType = fileType(filePath);
+        timer("file.comparison.parse", "Parsing a file into rows", fileType, outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (SUCCESS.equals(outcome)) {
+            summary("file.comparison.parse.rows", "Rows of parsed files", "rows", fileType).record(rows);
+        }
+    }
+
+    // Comparing the rows of one pair, including the reading of streamed files
+    public void recordRowLoop(Path file1Path, String mode, String outcome, long start, long rows) {
+        String fileType = fileType(file1Path);
+        Timer.builder("file.comparison.rows")
+                .description("Comparing the rows of a file pair")
+                .tags(TAG_FILE_TYPE, fileType, "mode", mode, TAG_OUTCOME, outcome)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        Counter.builder("file.comparison.rows.compared")
+                .description("Row pairs compared, plus rows found in only one source")
+                .baseUnit("rows")
+                .tags(TAG_FILE_TYPE, fileType, "mode", mode)
+                .register(registry)
+                .increment(rows);
+    }
+
+    // Writing the CSV report of one pair
+    public void recordReport(String fileName, String outcome, long start) {
+        timer("file.comparison.report", "Writing the report of a file pair", fileType(fileName), outcome).record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    // Every finished pair, by its status (MATCHED, MISMATCHED, parse errors, ...)
+    public void countPair(String fileName, String status) {
+        Counter.builder("file.comparison.pairs")
+                .description("File pairs compared")
+                .tags(TAG_FILE_TYPE, fileType(fileName), "status", status)
+                .register(registry)
+                .increment();
+    }
+
+    // Building a session's report ZIP
+    public void recordArchive(String outcome, long start, int entries) {
+        Timer.builder("file.comparison.archive")
+                .description("Building the report ZIP of a session")
+                .tags(TAG_OUTCOME, outcome)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+        if (SUCCESS.equals(outcome)) {
+            DistributionSummary.builder("file.comparison.archive.entries")
+                    .description("Reports per ZIP")
+                    .baseUnit("entries")
+                    .register(registry)
+                    .record(entries);
+        }
+    }
+
+    // Saving a ComparisonLog row
+    public void recordLogWrite(String outcome, long start) {
+        Timer.builder("file.comparison.log.write")
+                .description("Saving a comparison log entry")
+                .tags(TAG_OUTCOME, outcome)
+                .publishPercentileHistogram()
+                .register(registry)
+                .record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+    }
+
+    private Timer timer(String name, String description, String fileType, String outcome) {
+        return Timer.builder(name)
+                .description(description)
+                .tags(TAG_FILE_TYPE, fileType, TAG_OUTCOME, outcome)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private DistributionSummary summary(String name, String description, String baseUnit, String fileType) {
+        return DistributionSummary.builder(name)
+                .description(description)
+                .baseUnit(baseUnit)
+                .tags(TAG_FILE_TYPE, fileType)
+                .publishPercentileHistogram()
+                .register(registry);
+    }
+
+    private static String fileType(Path filePath) {
+        return fileType(filePath != null && filePath.getFileName() != null ? filePath.getFileName().toString() : null);
+    }
+
+    private static String fileType(String fileName) {
+        return FileTypeUtil.getFileType(fileName).name().toLowerCase(Locale.ROOT);
+    }
+}
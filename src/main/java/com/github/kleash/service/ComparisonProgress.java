@@ -0,0 +1,80 @@
+package com.github.kleash.service;
+
+import com.github.kleash.dto.FilePairResult;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Live progress of one compareFiles run, shared by the pair workers and whoever polls it, and the handle to cancel
+ * the run. Cancelling interrupts the pair tasks and makes the row loops stop at their next progress update.
+ */
+public class ComparisonProgress {
+
+    private final AtomicInteger pairsTotal = new AtomicInteger();
+    private final AtomicInteger pairsDone = new AtomicInteger();
+    private final AtomicLong rowsRead = new AtomicLong();
+    private final List<FilePairResult> completedPairs = Collections.synchronizedList(new ArrayList<>()); // In completion order
+    private final List<Future<?>> tasks = new CopyOnWriteArrayList<>();
+    private volatile boolean cancelled;
+
+    public int getPairsTotal() {
+        return pairsTotal.get();
+    }
+
+    public int getPairsDone() {
+        return pairsDone.get();
+    }
+
+    public long getRowsRead() {
+        return rowsRead.get();
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void cancel() {
+        cancelled = true;
+        for (Future<?> task : tasks) {
+            task.cancel(true);
+        }
+    }
+
+    // Results of the pairs finished so far, from fromIndex on, so pollers can fetch only what is new
+    public List<FilePairResult> getCompletedPairs(int fromIndex) {
+        synchronized (completedPairs) {
+            int from = Math.max(0, Math.min(fromIndex, completedPairs.size()));
+            return new ArrayList<>(completedPairs.subList(from, completedPairs.size()));
+        }
+    }
+
+    void setPairsTotal(int total) {
+        pairsTotal.set(total);
+    }
+
+    FilePairResult pairCompleted(FilePairResult result) {
+        completedPairs.add(result);
+        pairsDone.incrementAndGet();
+        return result;
+    }
+
+    void addRowsRead(long rows) {
+        rowsRead.addAndGet(rows);
+    }
+
+    void track(Future<?> task) {
+        tasks.add(task);
+        if (cancelled) task.cancel(true); // Cancelled while the task was being submitted
+    }
+
+    void throwIfCancelled() {
+        if (cancelled) throw new CancellationException("Comparison cancelled");
+    }
+}
@@ -1,16 +1,36 @@
 package com.github.kleash.service;
 
+import com.github.kleash.dto.ColumnMismatchCount;
 import com.github.kleash.dto.FilePairResult;
 import com.github.kleash.dto.LineDifference;
 import com.opencsv.CSVWriter; // Ensure this is imported
+import java.io.IOException;
 import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.BitSet;
+import java.util.Collections;
 import java.util.List;
 
 public class CsvReportGenerator {
 
     public static String generateCsvContent(FilePairResult pairResult) {
         StringWriter stringWriter = new StringWriter();
-        try (CSVWriter writer = new CSVWriter(stringWriter)) {
+        try {
+            writeReport(pairResult, stringWriter);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // A StringWriter does not throw
+        }
+        return stringWriter.toString();
+    }
+
+    /**
+     * Streams the report of one pair to {@code out} row by row, so no copy of the report is held in memory.
+     * {@code out} is flushed but left open.
+     */
+    public static void writeReport(FilePairResult pairResult, Writer out) throws IOException {
+        CSVWriter writer = new CSVWriter(out);
+        try {
             writer.writeNext(new String[]{
                     "Source 1 File", "Source 2 File", "Line Comparison Status", // Changed column header
                     "Data Source Context", "Data Content"
@@ -33,6 +53,10 @@ public class CsvReportGenerator {
                 s2NameToWrite = "";
 
                 List<String> content = pairResult.getSource1Content();
+                if (content == null && pairResult.isByteIdentical()) {
+                    writer.writeNext(new String[]{s1NameToWrite, s2NameToWrite, lineStatusToWrite, "Content",
+                            "Byte-identical files, " + pairResult.getMatchCount() + " data lines. Line listing omitted."});
+                }
                 if (content != null && !content.isEmpty()) {
                     for (int i = 0; i < content.size(); i++) {
                         writer.writeNext(new String[]{
@@ -72,46 +96,119 @@ public class CsvReportGenerator {
                 writer.writeNext(new String[]{s1NameToWrite, s2NameToWrite, overallFileStatus, "Summary", "File comparison shows differences."});
                 s1NameToWrite = "";
                 s2NameToWrite = "";
+                // Which columns the mismatched rows differ in, ahead of the line listing
+                if (pairResult.getColumnMismatches() != null) {
+                    for (ColumnMismatchCount column : pairResult.getColumnMismatches()) {
+                        writer.writeNext(new String[]{"", "", "COLUMN_MISMATCHES", column.getColumn(), String.valueOf(column.getMismatchCount())});
+                    }
+                }
 
-                int maxLen = Math.max(
-                        (pairResult.getSource1Content() != null ? pairResult.getSource1Content().size() : 0),
-                        (pairResult.getSource2Content() != null ? pairResult.getSource2Content().size() : 0)
-                );
+                if (pairResult.getComparisonMode() != FilePairResult.ComparisonMode.POSITIONAL) {
+                    // Rows were matched by key or aligned by a line diff, so a positional listing of the contents would be misleading
+                    writeDifferences(writer, pairResult, pairResult.getComparisonMode() == FilePairResult.ComparisonMode.KEYED);
+                } else {
+                    List<String> content1 = pairResult.getSource1Content() != null ? pairResult.getSource1Content() : Collections.emptyList();
+                    List<String> content2 = pairResult.getSource2Content() != null ? pairResult.getSource2Content() : Collections.emptyList();
+                    int maxLen = Math.max(content1.size(), content2.size());
+                    // Whether a line matched is the comparison's verdict (trimmed cells, column rules), not the joined text's
+                    BitSet mismatchedLines = maxLen > 0 ? mismatchedLines(pairResult) : null;
 
-                for (int i = 0; i < maxLen; i++) {
-                    String lineS1 = (pairResult.getSource1Content() != null && i < pairResult.getSource1Content().size()) ? pairResult.getSource1Content().get(i) : null;
-                    String lineS2 = (pairResult.getSource2Content() != null && i < pairResult.getSource2Content().size()) ? pairResult.getSource2Content().get(i) : null;
-                    String lineContext = "Line " + (i + 1);
+                    // Lines are paired by the line number the comparison gave them: a row left out of a side's content
+                    // (all its kept columns ignored) moves the rest of that side away from their index
+                    int index1 = 0;
+                    int index2 = 0;
+                    while (index1 < content1.size() || index2 < content2.size()) {
+                        int lineNumber1 = index1 < content1.size() ? FileParserService.lineNumberOf(content1, index1) : Integer.MAX_VALUE;
+                        int lineNumber2 = index2 < content2.size() ? FileParserService.lineNumberOf(content2, index2) : Integer.MAX_VALUE;
+                        int lineNumber = Math.min(lineNumber1, lineNumber2);
+                        String lineS1 = lineNumber1 == lineNumber ? content1.get(index1++) : null;
+                        String lineS2 = lineNumber2 == lineNumber ? content2.get(index2++) : null;
+                        String lineContext = "Line " + lineNumber;
+                        boolean mismatched = mismatchedLines.get(lineNumber);
 
-                    if (lineS1 != null && lineS2 != null) {
-                        if (lineS1.equals(lineS2)) {
-                            lineStatusToWrite = "MATCHED_LINE";
-                            writer.writeNext(new String[]{s1NameToWrite, s2NameToWrite, lineStatusToWrite, lineContext + " - Content", lineS1});
-                        } else {
-                            lineStatusToWrite = "MISMATCHED_LINE";
+                        if (lineS1 != null && lineS2 != null) {
+                            if (!mismatched) {
+                                lineStatusToWrite = "MATCHED_LINE";
+                                writer.writeNext(new String[]{s1NameToWrite, s2NameToWrite, lineStatusToWrite, lineContext + " - Content", lineS1});
+                            } else {
+                                lineStatusToWrite = "MISMATCHED_LINE";
+                                writer.writeNext(new String[]{s1NameToWrite, s2NameToWrite, lineStatusToWrite, lineContext + " - Source 1", lineS1});
+                                // For the S2 part of the mismatch, we can keep the lineStatusToWrite or make it more specific
+                                writer.writeNext(new String[]{s1NameToWrite, s2NameToWrite, lineStatusToWrite, lineContext + " - Source 2", lineS2});
+                            }
+                        } else if (lineS1 != null) { // Missing in S2, or compared with an S2 row left out of its content
+                            lineStatusToWrite = mismatched ? "MISMATCHED_LINE" : "MISSING_IN_S2_AT_LINE";
                             writer.writeNext(new String[]{s1NameToWrite, s2NameToWrite, lineStatusToWrite, lineContext + " - Source 1", lineS1});
-                            // For the S2 part of the mismatch, we can keep the lineStatusToWrite or make it more specific
+                        } else { // Missing in S1, or compared with an S1 row left out of its content
+                            lineStatusToWrite = mismatched ? "MISMATCHED_LINE" : "MISSING_IN_S1_AT_LINE";
                             writer.writeNext(new String[]{s1NameToWrite, s2NameToWrite, lineStatusToWrite, lineContext + " - Source 2", lineS2});
                         }
-                    } else if (lineS1 != null) { // Missing in S2
-                        lineStatusToWrite = "MISSING_IN_S2_AT_LINE";
-                        writer.writeNext(new String[]{s1NameToWrite, s2NameToWrite, lineStatusToWrite, lineContext + " - Source 1", lineS1});
-                    } else if (lineS2 != null) { // Missing in S1
-                        lineStatusToWrite = "MISSING_IN_S1_AT_LINE";
-                        writer.writeNext(new String[]{s1NameToWrite, s2NameToWrite, lineStatusToWrite, lineContext + " - Source 2", lineS2});
                     }
-                }
-                if(maxLen == 0 && (pairResult.getStatus() == FilePairResult.Status.DIFFERENT_ROW_COUNT || pairResult.getStatus() == FilePairResult.Status.MISMATCHED)){
-                    writer.writeNext(new String[]{s1NameToWrite, s2NameToWrite, overallFileStatus, "Content Info", "Files are different but no lines to display (e.g. one or both empty, or parse issue before content processing)."});
+                    boolean hasDifferences = (pairResult.getDifferences() != null && !pairResult.getDifferences().isEmpty()) || pairResult.getDifferenceOverflowPath() != null;
+                    if (maxLen == 0 && hasDifferences) {
+                        // Streaming comparisons keep no file content, so only the differing lines can be listed
+                        writeDifferences(writer, pairResult, false);
+                    } else if(maxLen == 0 && (pairResult.getStatus() == FilePairResult.Status.DIFFERENT_ROW_COUNT || pairResult.getStatus() == FilePairResult.Status.MISMATCHED)){
+                        writer.writeNext(new String[]{s1NameToWrite, s2NameToWrite, overallFileStatus, "Content Info", "Files are different but no lines to display (e.g. one or both empty, or parse issue before content processing)."});
+                    }
                 }
             }
-        } catch (Exception e) {
+        } catch (RuntimeException e) {
             System.err.println("Error generating CSV content for pair " +
                     (pairResult.getSource1FileName() != null ? pairResult.getSource1FileName() : "N/A") + "/" +
                     (pairResult.getSource2FileName() != null ? pairResult.getSource2FileName() : "N/A") + ": " + e.getMessage());
-            // Append a clear error message to the string writer if something goes wrong
-            stringWriter.append("Error generating CSV content for this file pair: ").append(e.getMessage());
+            // Append a clear error message to the report if something goes wrong
+            writer.flush();
+            out.append("Error generating CSV content for this file pair: ").append(e.getMessage());
+        }
+        // CSVWriter keeps write failures to itself; surface them so a truncated report is not taken as complete
+        if (writer.checkError()) {
+            throw writer.getException() != null ? writer.getException() : new IOException("Could not write report");
+        }
+        out.flush();
+    }
+
+    // Line numbers of the rows a positional comparison recorded as mismatched
+    private static BitSet mismatchedLines(FilePairResult pairResult) throws IOException {
+        BitSet lines = new BitSet();
+        PairResultStore.DifferenceConsumer mark = diff -> {
+            if (diff.getType() == LineDifference.DiffType.MISMATCH) lines.set(diff.getLineNumber());
+        };
+        if (pairResult.getDifferences() != null) {
+            for (LineDifference diff : pairResult.getDifferences()) {
+                mark.accept(diff);
+            }
+        }
+        if (pairResult.getDifferenceOverflowPath() != null) {
+            PairResultStore.readDifferences(pairResult.getDifferenceOverflowPath(), mark);
+        }
+        return lines;
+    }
+
+    // The differences held in memory, then those that overflowed to disk
+    private static void writeDifferences(CSVWriter writer, FilePairResult pairResult, boolean keyed) throws IOException {
+        if (pairResult.getDifferences() != null) {
+            for (LineDifference diff : pairResult.getDifferences()) {
+                writeDifference(writer, diff, keyed);
+            }
+        }
+        if (pairResult.getDifferenceOverflowPath() != null) {
+            PairResultStore.readDifferences(pairResult.getDifferenceOverflowPath(), diff -> writeDifference(writer, diff, keyed));
+        }
+    }
+
+    private static void writeDifference(CSVWriter writer, LineDifference diff, boolean keyed) {
+        String lineContext = keyed ? "Key " + diff.getKey() : "Line " + diff.getLineNumber();
+        if (diff.getType() == LineDifference.DiffType.MISMATCH) {
+            String lineStatus = keyed ? "CHANGED_ROW" : "MISMATCHED_LINE";
+            writer.writeNext(new String[]{"", "", lineStatus, lineContext + " - Source 1", diff.getSource1Line()});
+            writer.writeNext(new String[]{"", "", lineStatus, lineContext + " - Source 2", diff.getSource2Line()});
+        } else if (diff.getType() == LineDifference.DiffType.MISSING_IN_SOURCE2) {
+            String lineStatus = keyed ? "REMOVED_ROW" : "MISSING_IN_S2_AT_LINE";
+            writer.writeNext(new String[]{"", "", lineStatus, lineContext + " - Source 1", diff.getSource1Line()});
+        } else if (diff.getType() == LineDifference.DiffType.MISSING_IN_SOURCE1) {
+            String lineStatus = keyed ? "ADDED_ROW" : "MISSING_IN_S1_AT_LINE";
+            writer.writeNext(new String[]{"", "", lineStatus, lineContext + " - Source 2", diff.getSource2Line()});
         }
-        return stringWriter.toString();
     }
 }
\ No newline at end of file
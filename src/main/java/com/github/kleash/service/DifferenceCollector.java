@@ -0,0 +1,186 @@
+package com.github.kleash.service;
+
+import com.github.kleash.dto.FilePairResult;
+import com.github.kleash.dto.LineDifference;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.UUID;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * The differences of one pair, with bounded memory however different the files are: the first {@code maxInMemory}
+ * are kept in a list, later ones are streamed to an overflow record file in the session directory (for the report
+ * and the result store), and a reservoir sample of {@code sampleSize} is drawn over all of them for the response.
+ * Mismatched rows are also counted per kept column. When the heap budget asks for room ({@link #trackWith}), the
+ * retained differences move to the overflow file as well, at the next difference added.
+ * <p>
+ * Not thread-safe; each pair (or chunk of a pair) has its own.
+ */
+class DifferenceCollector implements Closeable {
+    private static final long SAMPLE_SEED = 0x5DEECE66DL; // Fixed, so comparing the same files twice gives the same sample
+
+    private final Path sessionPath;
+    private final int maxInMemory;
+    private final int sampleSize;
+    private final ArrayList<LineDifference> retained = new ArrayList<>();
+    private final LineDifference[] sample;
+    private final long[] sampleSequence; // Position of each sampled difference, to put the sample back in line order
+    private final SplittableRandom random = new SplittableRandom(SAMPLE_SEED);
+    private int[] columnMismatches = new int[0]; // By kept-column position
+    private Path overflowPath;
+    private PairResultStore.DifferenceWriter overflow;
+    private long count;
+    private volatile long retainedBytes; // Estimated, for the heap budget
+    private volatile boolean spillRequested;
+    private boolean spilled; // Everything goes to the overflow file from then on
+    private MemoryBudgetService.Registration registration;
+
+    DifferenceCollector(Path sessionPath, int maxInMemory, int sampleSize) {
+        this.sessionPath = sessionPath;
+        this.maxInMemory = Math.max(0, maxInMemory);
+        this.sampleSize = Math.max(0, sampleSize);
+        this.sample = new LineDifference[this.sampleSize];
+        this.sampleSequence = new long[this.sampleSize];
+    }
+
+    // Counts the retained differences against the heap budget until closed
+    void trackWith(MemoryBudgetService memoryBudget, String description) {
+        registration = memoryBudget.register(description, new MemoryBudgetService.Spillable() {
+            @Override
+            public long estimatedBytes() {
+                return retainedBytes;
+            }
+
+            @Override
+            public long spill() {
+                if (!spilled) spillRequested = true; // Acted on, and reported, by the owner's thread in add
+                return 0;
+            }
+        });
+    }
+
+    void add(LineDifference difference) throws IOException {
+        if (spillRequested) spillRetained();
+        if (count < sampleSize) {
+            sample[(int) count] = difference;
+            sampleSequence[(int) count] = count;
+        } else if (sampleSize > 0) {
+            long slot = random.nextLong(count + 1);
+            if (slot < sampleSize) {
+                sample[(int) slot] = difference;
+                sampleSequence[(int) slot] = count;
+            }
+        }
+        count++;
+
+        if (!spilled && retained.size() < maxInMemory) {
+            retained.add(difference);
+            retainedBytes += estimateBytes(difference);
+            return;
+        }
+        if (overflow == null) {
+            overflowPath = PairResultStore.workDirectory(sessionPath).resolve(".differences-" + UUID.randomUUID());
+            overflow = PairResultStore.openDifferenceWriter(overflowPath);
+        }
+        overflow.write(difference);
+    }
+
+    // Writes the retained differences, followed by any already in the overflow file, to a new overflow file
+    private void spillRetained() throws IOException {
+        spillRequested = false;
+        if (spilled) return;
+        Path previousPath = overflowPath;
+        PairResultStore.DifferenceWriter previous = overflow;
+        overflowPath = PairResultStore.workDirectory(sessionPath).resolve(".differences-" + UUID.randomUUID());
+        overflow = PairResultStore.openDifferenceWriter(overflowPath);
+        for (LineDifference difference : retained) {
+            overflow.write(difference);
+        }
+        if (previous != null) {
+            previous.close();
+            PairResultStore.readDifferences(previousPath, overflow::write);
+            PairResultStore.deleteRecordFiles(previousPath);
+        }
+        long freed = retainedBytes;
+        retained.clear();
+        retained.trimToSize();
+        retainedBytes = 0;
+        spilled = true;
+        if (registration != null) registration.reportSpilled(freed);
+    }
+
+    private static long estimateBytes(LineDifference difference) {
+        return 64 + 2L * (length(difference.getSource1Line()) + length(difference.getSource2Line()) + length(difference.getKey()));
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    // Counts the kept columns in which a mismatched row pair differs
+    void recordColumnMismatches(String[] row1, KeptColumnMap columns1, String[] row2, KeptColumnMap columns2, CellComparator[] comparators) {
+        int width = Math.max(columns1.keptCount(row1.length), columns2.keptCount(row2.length));
+        if (width > columnMismatches.length) {
+            columnMismatches = Arrays.copyOf(columnMismatches, width); // Ragged rows only; normally sized by the first mismatch
+        }
+        KeptColumnMap.countMismatchedColumns(row1, columns1, row2, columns2, comparators, columnMismatches);
+    }
+
+    // Appends the differences of a following chunk, in order; the chunk's overflow file is deleted
+    void addAll(DifferenceCollector chunk) throws IOException {
+        if (chunk.columnMismatches.length > columnMismatches.length) {
+            columnMismatches = Arrays.copyOf(columnMismatches, chunk.columnMismatches.length);
+        }
+        for (int k = 0; k < chunk.columnMismatches.length; k++) {
+            columnMismatches[k] += chunk.columnMismatches[k];
+        }
+        for (LineDifference difference : chunk.retained) {
+            add(difference);
+        }
+        if (chunk.overflow != null) {
+            chunk.overflow.close();
+            PairResultStore.readDifferences(chunk.overflowPath, this::add);
+        }
+        chunk.close();
+    }
+
+    long getCount() {
+        return count;
+    }
+
+    // Mismatched rows per kept column; as long as the widest mismatched row
+    int[] getColumnMismatches() {
+        return columnMismatches.clone();
+    }
+
+    /**
+     * Hands the differences to the result: the retained ones as its list, the overflow file (which the result store
+     * takes over) and the sample in line order.
+     */
+    void applyTo(FilePairResult result) throws IOException {
+        if (overflow != null) overflow.close();
+        result.setDifferences(retained);
+        result.setDifferenceOverflowPath(overflow != null ? overflowPath : null);
+        int sampled = (int) Math.min(count, sampleSize);
+        result.setDifferenceSample(IntStream.range(0, sampled).boxed()
+                .sorted(Comparator.comparingLong(i -> sampleSequence[i]))
+                .map(i -> sample[i])
+                .collect(Collectors.toList()));
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (registration != null) registration.close();
+        if (overflow == null) return;
+        overflow.close();
+        PairResultStore.deleteRecordFiles(overflowPath);
+    }
+}
@@ -0,0 +1,157 @@
+package com.github.kleash.service;
+
+import com.github.kleash.util.FileTypeUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * SHA-256 digest, size and record count of a stored file, taken in the same pass that copies it to disk.
+ * Two files with equal fingerprints are byte-identical, so their comparison result is known without parsing.
+ */
+public class FileFingerprint {
+
+    public static final long UNKNOWN_RECORD_COUNT = -1;
+
+    private final String digest;
+    private final long size;
+    private final long recordCount;
+
+    public FileFingerprint(String digest, long size, long recordCount) {
+        this.digest = digest;
+        this.size = size;
+        this.recordCount = recordCount;
+    }
+
+    /**
+     * Reads {@code in} to the end, copying it to {@code out} when given.
+     */
+    public static FileFingerprint compute(InputStream in, OutputStream out, FileTypeUtil.FileType type) throws IOException {
+        MessageDigest messageDigest = newDigest();
+        RecordCounter counter = RecordCounter.forType(type);
+        byte[] buffer = new byte[1 << 16];
+        long size = 0;
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            messageDigest.update(buffer, 0, read);
+            if (counter != null) counter.update(buffer, read);
+            if (out != null) out.write(buffer, 0, read);
+            size += read;
+        }
+        return new FileFingerprint(HexFormat.of().formatHex(messageDigest.digest()), size,
+                counter != null ? counter.finish() : UNKNOWN_RECORD_COUNT);
+    }
+
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    public boolean sameContentAs(FileFingerprint other) {
+        return other != null && size == other.size && digest.equals(other.digest);
+    }
+
+    public String getDigest() {
+        return digest;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    /**
+     * @return the number of rows the parser yields for this file (header included), or {@link #UNKNOWN_RECORD_COUNT}
+     * for types whose rows cannot be counted from the raw bytes (Excel, JSON)
+     */
+    public long getRecordCount() {
+        return recordCount;
+    }
+
+    // Counts the rows the CSV or text parser would return, without decoding: line breaks, and for CSV only those outside quotes
+    private static class RecordCounter {
+        // CSV field states, following MappedCsvReader: a quote opens a quoted field only at the start of a field
+        private static final int FIELD_START = 0;
+        private static final int UNQUOTED = 1;
+        private static final int QUOTED = 2;
+        private static final int QUOTE_IN_QUOTED = 3; // Either the closing quote or the first half of ""
+        private static final byte[] BYTE_ORDER_MARK = {(byte) 0xEF, (byte) 0xBB, (byte) 0xBF};
+
+        private final boolean quoteAware;
+        private long records;
+        private int state = FIELD_START;
+        private int byteOrderMarkBytes; // Leading bytes matched against the UTF-8 BOM, which the CSV reader skips; -1 once past
+        private boolean pendingRecord;
+        private boolean afterCarriageReturn;
+
+        private RecordCounter(boolean quoteAware) {
+            this.quoteAware = quoteAware;
+            this.byteOrderMarkBytes = quoteAware ? 0 : -1;
+        }
+
+        static RecordCounter forType(FileTypeUtil.FileType type) {
+            if (type == FileTypeUtil.FileType.CSV) return new RecordCounter(true);
+            if (type == FileTypeUtil.FileType.TEXT) return new RecordCounter(false);
+            return null;
+        }
+
+        void update(byte[] buffer, int length) {
+            for (int i = 0; i < length; i++) {
+                byte b = buffer[i];
+                if (afterCarriageReturn) {
+                    afterCarriageReturn = false;
+                    if (b == '\n') continue; // Second half of a \r\n break
+                }
+                if (byteOrderMarkBytes >= 0) {
+                    if (byteOrderMarkBytes < BYTE_ORDER_MARK.length && b == BYTE_ORDER_MARK[byteOrderMarkBytes]) {
+                        byteOrderMarkBytes++;
+                        continue;
+                    }
+                    if (byteOrderMarkBytes > 0 && byteOrderMarkBytes < BYTE_ORDER_MARK.length) {
+                        // Only part of a BOM: those bytes were data
+                        state = UNQUOTED;
+                        pendingRecord = true;
+                    }
+                    byteOrderMarkBytes = -1;
+                }
+                if (quoteAware) {
+                    if (state == QUOTED) {
+                        if (b == '"') state = QUOTE_IN_QUOTED;
+                        pendingRecord = true;
+                        continue;
+                    }
+                    if (state == QUOTE_IN_QUOTED && b == '"') {
+                        state = QUOTED;
+                        continue;
+                    }
+                    if (b == ',') {
+                        state = FIELD_START;
+                    } else if (b == '"' && state == FIELD_START) {
+                        state = QUOTED;
+                    } else if (b != '\n' && b != '\r') {
+                        state = UNQUOTED;
+                    }
+                }
+                if (b == '\n' || b == '\r') {
+                    records++;
+                    pendingRecord = false;
+                    afterCarriageReturn = b == '\r';
+                    state = FIELD_START;
+                } else {
+                    pendingRecord = true;
+                }
+            }
+        }
+
+        long finish() {
+            if (byteOrderMarkBytes > 0 && byteOrderMarkBytes < BYTE_ORDER_MARK.length) pendingRecord = true;
+            return pendingRecord ? records + 1 : records;
+        }
+    }
+}
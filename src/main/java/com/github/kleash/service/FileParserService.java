@@ -5,26 +5,29 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
-import com.opencsv.CSVReader;
-import com.opencsv.exceptions.CsvException;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files; // Added
 import java.nio.file.Path;   // Added
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import com.opencsv.CSVReaderBuilder;
+import java.util.RandomAccess;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -33,103 +36,191 @@ public class FileParserService {
     private static final Logger logger = LoggerFactory.getLogger(FileParserService.class);
     private final ObjectMapper objectMapper = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
 
+    @Autowired
+    private ComparisonMetrics comparisonMetrics;
+
     // New method signature for core parsing
-    public ParsedFileResult parseFileIntoRowsAndHeader(Path filePath) throws IOException, CsvException {
+    public ParsedFileResult parseFileIntoRowsAndHeader(Path filePath) throws IOException {
+        return parseFileIntoRowsAndHeader(filePath, null);
+    }
+
+    // sheet: Excel sheet name or 0-based index, null for the first sheet; ignored for other file types
+    public ParsedFileResult parseFileIntoRowsAndHeader(Path filePath, String sheet) throws IOException {
+        long start = comparisonMetrics.start();
+        try (ParsedFileStream stream = openRowStream(filePath, sheet)) {
+            RowStore.Builder rows = new RowStore.Builder();
+            String[] row;
+            while ((row = stream.next()) != null) {
+                rows.add(row); // Packed into the store's column arenas; the parsed String[] is garbage right away
+                if ((rows.size() & 4095) == 0 && Thread.currentThread().isInterrupted()) {
+                    throw new InterruptedIOException("Parsing of " + filePath.getFileName() + " interrupted"); // e.g. a cancelled comparison job
+                }
+            }
+            ParsedFileResult parsed = new ParsedFileResult(rows.build(), stream.getHeader());
+            comparisonMetrics.recordParse(filePath, ComparisonMetrics.SUCCESS, start, parsed.getRows().size());
+            return parsed;
+        } catch (IOException | RuntimeException e) {
+            comparisonMetrics.recordParse(filePath, ComparisonMetrics.ERROR, start, 0);
+            throw e;
+        }
+    }
+
+    // Streaming counterpart of parseFileIntoRowsAndHeader: rows are read on demand, only the first one is read up front
+    public ParsedFileStream openRowStream(Path filePath) throws IOException {
+        return openRowStream(filePath, null);
+    }
+
+    public ParsedFileStream openRowStream(Path filePath, String sheet) throws IOException {
         if (filePath == null || !Files.exists(filePath) || Files.isDirectory(filePath)) {
             logger.warn("Attempted to parse null, non-existent, or directory path: {}", filePath);
-            return new ParsedFileResult(new ArrayList<>(), null);
+            return new ParsedFileStream(null, RowCursor.of(Collections.emptyList()));
         }
 
         FileTypeUtil.FileType type = FileTypeUtil.getFileType(filePath.getFileName().toString());
-        List<String[]> rows = new ArrayList<>();
-        String[] header = null;
-
-        try (InputStream inputStream = Files.newInputStream(filePath)) {
-            switch (type) {
-                case CSV:
-                    try (CSVReader reader = new CSVReaderBuilder(new InputStreamReader(inputStream, StandardCharsets.UTF_8)).build()) {
-                        List<String[]> allRows = reader.readAll();
-                        if (allRows != null && !allRows.isEmpty()) {
-                            header = allRows.get(0); // Assume first line is header for CSV
-                            rows.addAll(allRows); // Include header in rows for now, filtering will handle it
-                        }
-                    }
-                    break;
-                case EXCEL_XLS:
-                case EXCEL_XLSX:
-                    Workbook workbook;
-                    if (type == FileTypeUtil.FileType.EXCEL_XLSX) workbook = new XSSFWorkbook(inputStream);
-                    else workbook = new HSSFWorkbook(inputStream);
-
-                    DataFormatter dataFormatter = new DataFormatter();
-                    Sheet sheet = workbook.getSheetAt(0); // Assuming first sheet
-                    boolean firstRow = true;
-                    for (Row row : sheet) {
+        RowCursor cursor = openRowCursor(filePath, type, sheet);
+        try {
+            String[] firstRow = cursor.next();
+            if (firstRow == null) {
+                return new ParsedFileStream(null, cursor);
+            }
+            String[] header;
+            if (type == FileTypeUtil.FileType.JSON || type == FileTypeUtil.FileType.TEXT) {
+                // Try to parse the first line as a simple delimited string for header (heuristic)
+                header = firstRow[0].split("[,;:\\t]"); // Common delimiters
+            } else {
+                header = firstRow; // Assume first line is header for CSV and Excel
+            }
+            return new ParsedFileStream(header, prepend(firstRow, cursor));
+        } catch (IOException | RuntimeException e) {
+            cursor.close();
+            throw e;
+        }
+    }
+
+    private RowCursor openRowCursor(Path filePath, FileTypeUtil.FileType type, String sheet) throws IOException {
+        switch (type) {
+            case CSV:
+                // RFC 4180 tokenizer over the memory-mapped bytes; no Reader or per-line Strings in between
+                return new MappedCsvReader(filePath);
+            case EXCEL_XLSX:
+                // Streamed through the SAX event model; building an XSSFWorkbook costs many times the file size in heap
+                return new XlsxRowCursor(filePath, sheet);
+            case EXCEL_XLS: {
+                Workbook workbook;
+                try (InputStream inputStream = Files.newInputStream(filePath)) {
+                    workbook = new HSSFWorkbook(inputStream);
+                }
+                DataFormatter dataFormatter = new DataFormatter();
+                Sheet selectedSheet = findSheet(workbook, sheet);
+                if (selectedSheet == null) {
+                    workbook.close();
+                    throw new IOException("Sheet '" + sheet + "' not found");
+                }
+                Iterator<Row> rowIterator = selectedSheet.iterator();
+                return new RowCursor() {
+                    @Override
+                    public String[] next() {
+                        if (!rowIterator.hasNext()) return null;
+                        Row row = rowIterator.next();
                         List<String> cellValues = new ArrayList<>();
                         for (int cn = 0; cn < row.getLastCellNum(); cn++) { // Iterate up to last cell number
                             Cell cell = row.getCell(cn, Row.MissingCellPolicy.RETURN_BLANK_AS_NULL);
                             cellValues.add(cell != null ? dataFormatter.formatCellValue(cell) : "");
                         }
-                        if (firstRow) {
-                            header = cellValues.toArray(new String[0]);
-                            firstRow = false;
-                        }
-                        rows.add(cellValues.toArray(new String[0]));
+                        return cellValues.toArray(new String[0]);
                     }
-                    workbook.close();
-                    break;
-                case JSON:
-                    // For JSON, we'll still treat each "line" after pretty printing as a row.
-                    // Columnar ignore for complex JSON is very hard. For this implementation,
-                    // we assume if JSON is used with column ignore, it's structured line-oriented JSON.
-                    // Or, the feature is implicitly less effective for generic JSON.
-                    List<String> jsonLines = parseJsonToList(inputStream, filePath);
-                    if (!jsonLines.isEmpty()) {
-                        // Try to parse the first line as a simple delimited string for header (heuristic)
-                        header = jsonLines.get(0).split("[,;:\\t]"); // Common delimiters
-                        for (String line : jsonLines) {
-                            rows.add(new String[]{line}); // Each JSON line becomes a single-column row for now
-                        }
+
+                    @Override
+                    public void close() throws IOException {
+                        workbook.close();
                     }
-                    break;
-                case TEXT:
-                    List<String> textLines = parseTextToList(inputStream);
-                    if (!textLines.isEmpty()) {
-                        // Try to parse the first line as a simple delimited string for header (heuristic)
-                        header = textLines.get(0).split("[,;:\\t]"); // Common delimiters
-                        for (String line : textLines) {
-                            // Attempt to split text lines if a consistent delimiter is used,
-                            // otherwise treat as single column. For simplicity, single column:
-                            rows.add(new String[]{line});
-                        }
+                };
+            }
+            case JSON: {
+                // For JSON, we'll still treat each "line" after pretty printing as a row.
+                // Columnar ignore for complex JSON is very hard. For this implementation,
+                // we assume if JSON is used with column ignore, it's structured line-oriented JSON.
+                // Or, the feature is implicitly less effective for generic JSON.
+                // Pretty printing needs the whole tree, so JSON is read up front even when streaming.
+                List<String> jsonLines;
+                try (InputStream inputStream = Files.newInputStream(filePath)) {
+                    jsonLines = parseJsonToList(inputStream, filePath);
+                }
+                List<String[]> rows = new ArrayList<>(jsonLines.size());
+                for (String line : jsonLines) {
+                    rows.add(new String[]{line}); // Each JSON line becomes a single-column row for now
+                }
+                return RowCursor.of(rows);
+            }
+            case TEXT: {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(filePath), StandardCharsets.UTF_8));
+                return new RowCursor() {
+                    @Override
+                    public String[] next() throws IOException {
+                        // Attempt to split text lines if a consistent delimiter is used,
+                        // otherwise treat as single column. For simplicity, single column:
+                        String line = reader.readLine();
+                        return line != null ? new String[]{line} : null;
                     }
-                    break;
-                default:
-                    throw new IllegalArgumentException("Unsupported file type for row parsing: " + filePath.getFileName().toString());
+
+                    @Override
+                    public void close() throws IOException {
+                        reader.close();
+                    }
+                };
             }
+            default:
+                throw new IllegalArgumentException("Unsupported file type for row parsing: " + filePath.getFileName().toString());
         }
-        return new ParsedFileResult(rows, header);
     }
 
-
-    // New method to process rows and apply column ignoring
-    public List<String> getProcessedLines(ParsedFileResult parsedFile, Set<String> columnsToIgnoreNamesOrIndices, boolean treatFirstRowAsHeaderInOutput) {
-        List<String> processedLines = new ArrayList<>();
-        if (parsedFile == null || parsedFile.getRows().isEmpty()) {
-            return processedLines;
+    // By name first, then by 0-based index; null selects the first sheet
+    private static Sheet findSheet(Workbook workbook, String sheet) {
+        if (sheet == null) return workbook.getNumberOfSheets() > 0 ? workbook.getSheetAt(0) : null;
+        Sheet byName = workbook.getSheet(sheet);
+        if (byName != null) return byName;
+        try {
+            int index = Integer.parseInt(sheet.trim());
+            return index >= 0 && index < workbook.getNumberOfSheets() ? workbook.getSheetAt(index) : null;
+        } catch (NumberFormatException e) {
+            return null;
         }
+    }
 
-        String[] header = parsedFile.getHeader();
-        List<String[]> originalRows = parsedFile.getRows();
-        Set<Integer> ignoreIndices = new HashSet<>();
+    private static RowCursor prepend(String[] firstRow, RowCursor rest) {
+        return new RowCursor() {
+            private String[] pending = firstRow;
+
+            @Override
+            public String[] next() throws IOException {
+                if (pending != null) {
+                    String[] row = pending;
+                    pending = null;
+                    return row;
+                }
+                return rest.next();
+            }
+
+            @Override
+            public void close() throws IOException {
+                rest.close();
+            }
+        };
+    }
 
-        if (header != null && columnsToIgnoreNamesOrIndices != null && !columnsToIgnoreNamesOrIndices.isEmpty()) {
+    // Resolves the configured ignore entries (header names or 0-based indices) to column indices
+    public Set<Integer> resolveIgnoreIndices(String[] header, Set<String> columnsToIgnoreNamesOrIndices) {
+        Set<Integer> ignoreIndices = new HashSet<>();
+        if (columnsToIgnoreNamesOrIndices == null || columnsToIgnoreNamesOrIndices.isEmpty()) {
+            return ignoreIndices;
+        }
+        if (header != null) {
             for (int i = 0; i < header.length; i++) {
                 if (columnsToIgnoreNamesOrIndices.contains(header[i]) || columnsToIgnoreNamesOrIndices.contains(String.valueOf(i))) {
                     ignoreIndices.add(i);
                 }
             }
-        } else if (columnsToIgnoreNamesOrIndices != null && !columnsToIgnoreNamesOrIndices.isEmpty()) {
+        } else {
             // No header, but ignore indices were provided
             for (String indexStr : columnsToIgnoreNamesOrIndices) {
                 try {
@@ -139,72 +230,170 @@ public class FileParserService {
                 }
             }
         }
+        return ignoreIndices;
+    }
+
+    // Resolves a single column reference (header name or 0-based index) to its index, or -1 if it matches nothing
+    public int resolveColumnIndex(String[] header, String nameOrIndex) {
+        if (nameOrIndex == null) return -1;
+        if (header != null) {
+            for (int i = 0; i < header.length; i++) {
+                if (nameOrIndex.equals(header[i])) return i;
+            }
+        }
+        try {
+            int index = Integer.parseInt(nameOrIndex.trim());
+            return index >= 0 ? index : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    // Joins the non-ignored columns of a row into the line shown in the UI and reports
+    public String toProcessedLine(String[] row, Set<Integer> ignoreIndices) {
+        List<String> keptColumns = new ArrayList<>();
+        for (int i = 0; i < row.length; i++) {
+            if (!ignoreIndices.contains(i)) {
+                keptColumns.add(row[i]);
+            }
+        }
+        return String.join(",", keptColumns);
+    }
+
+    /**
+     * The rows as comma-joined lines without the ignored columns. The lines are a read-only view over the parsed rows,
+     * joined when read, so they take no memory beyond the row store besides an index of the rows they show.
+     */
+    public List<String> getProcessedLines(ParsedFileResult parsedFile, Set<String> columnsToIgnoreNamesOrIndices, boolean treatFirstRowAsHeaderInOutput) {
+        if (parsedFile == null || parsedFile.getRows().isEmpty()) {
+            return new ArrayList<>();
+        }
+
+        String[] header = parsedFile.getHeader();
+        RowStore originalRows = parsedFile.getRows();
+        Set<Integer> ignoreIndices = resolveIgnoreIndices(header, columnsToIgnoreNamesOrIndices);
 
         logger.debug("Ignoring column indices: {}", ignoreIndices);
 
-        int startRow = (treatFirstRowAsHeaderInOutput && header != null) ? 0 : 0;
-        // If we used first row as header for index detection, and it should be INCLUDED in output rows, start from 0.
-        // If it should be EXCLUDED (typical CSV scenario), start from 1.
-        // Let's assume `treatFirstRowAsHeaderInOutput` means the first row of `originalRows` IS the header
-        // and should be processed (and potentially included if not entirely ignored).
-        // The client side will tell us this based on user choice.
+        boolean[] skippedColumns = new boolean[originalRows.columnCount()];
+        for (int index : ignoreIndices) {
+            if (index >= 0 && index < skippedColumns.length) skippedColumns[index] = true;
+        }
+        // keptBelow[w]: columns a row of width w keeps
+        int[] keptBelow = new int[skippedColumns.length + 1];
+        for (int i = 0; i < skippedColumns.length; i++) {
+            keptBelow[i + 1] = keptBelow[i] + (skippedColumns[i] ? 0 : 1);
+        }
 
+        // If `treatFirstRowAsHeaderInOutput`, the first row of `originalRows` IS the header and is processed like the
+        // data rows (and included unless all its columns are ignored). Otherwise a first row that was a header for
+        // detection is not part of the data lines.
+        int[] lineRows = new int[originalRows.size()];
+        int lineCount = 0;
+        int firstDataRow = 0;
         for (int rowIndex = 0; rowIndex < originalRows.size(); rowIndex++) {
-            String[] originalRow = originalRows.get(rowIndex);
+            int width = originalRows.width(rowIndex);
             if (treatFirstRowAsHeaderInOutput && rowIndex == 0 && header != null) {
-                // Process the header row itself
-                List<String> keptHeaderColumns = new ArrayList<>();
-                for (int i = 0; i < originalRow.length; i++) {
-                    if (!ignoreIndices.contains(i)) {
-                        keptHeaderColumns.add(originalRow[i]);
-                    }
-                }
-                if (!keptHeaderColumns.isEmpty()) { // Only add header if it has content after filtering
-                    processedLines.add(String.join(",", keptHeaderColumns.toArray(new String[0])));
-                }
+                if (keptBelow[width] > 0) lineRows[lineCount++] = rowIndex; // Only add header if it has content after filtering
                 continue; // Move to next row (data rows)
-            } else if (!treatFirstRowAsHeaderInOutput && rowIndex == 0 && header != null && originalRows.size() > 1) {
-                // If the first row was a header for detection but should NOT be in the output data lines, skip it.
-                // This logic becomes tricky. For now, let's simplify: if treatFirstRowAsHeaderInOutput is false,
-                // it means the file has no header line to be outputted.
-                // This needs careful consideration based on UI choice.
-                // Current simple approach: if it's a header used for detection, and we are NOT outputting headers, then skip row 0
-                if (header != null && !treatFirstRowAsHeaderInOutput && parsedFile.isFirstRowHeaderForDetection()) {
-                    // This implies the UI determined the first row IS a header and should NOT be part of data
-                    if (rowIndex == 0) continue;
-                }
+            } else if (!treatFirstRowAsHeaderInOutput && rowIndex == 0 && header != null && originalRows.size() > 1
+                    && parsedFile.isFirstRowHeaderForDetection()) {
+                firstDataRow = 1;
+                continue;
             }
+            // Only add line if it's not empty after filtering; add empty lines if they were originally empty
+            if (keptBelow[width] > 0 || width == 0) lineRows[lineCount++] = rowIndex;
+        }
+        return new ProcessedLines(originalRows, Arrays.copyOf(lineRows, lineCount), firstDataRow, skippedColumns);
+    }
 
+    /**
+     * Line number, as the row comparison numbers data lines (from 1), of line {@code index} of
+     * {@link #getProcessedLines}. Rows whose kept columns are all ignored are not in those lines, so past one the
+     * index and the line number differ.
+     */
+    public static int lineNumberOf(List<String> processedLines, int index) {
+        return processedLines instanceof ProcessedLines lines ? lines.lineRows[index] - lines.firstDataRow + 1 : index + 1;
+    }
 
-            List<String> keptColumns = new ArrayList<>();
-            for (int i = 0; i < originalRow.length; i++) {
-                if (!ignoreIndices.contains(i)) {
-                    keptColumns.add(originalRow[i]);
-                }
-            }
-            // Only add line if it's not empty after filtering
-            if (!keptColumns.isEmpty() || originalRow.length == 0) { // Add empty lines if they were originally empty
-                processedLines.add(String.join(",", keptColumns.toArray(new String[0])));
-            }
+    // Lines of getProcessedLines, each joined from the row store when it is read
+    private static final class ProcessedLines extends AbstractList<String> implements RandomAccess {
+        private final RowStore rows;
+        private final int[] lineRows;
+        private final int firstDataRow; // Row of data line 1: 1 when a header row is left out, else 0
+        private final boolean[] skippedColumns;
+
+        ProcessedLines(RowStore rows, int[] lineRows, int firstDataRow, boolean[] skippedColumns) {
+            this.rows = rows;
+            this.lineRows = lineRows;
+            this.firstDataRow = firstDataRow;
+            this.skippedColumns = skippedColumns;
+        }
+
+        @Override
+        public String get(int index) {
+            return rows.joinCells(lineRows[index], skippedColumns);
+        }
+
+        @Override
+        public int size() {
+            return lineRows.length;
         }
-        return processedLines;
     }
 
     // Helper DTO for parseFileIntoRowsAndHeader
     @lombok.Data // from project Lombok
     @lombok.AllArgsConstructor
     public static class ParsedFileResult {
-        private List<String[]> rows;
+        private RowStore rows;
         private String[] header;
         private boolean firstRowHeaderForDetection = true; // Default true if header is found
 
-        public ParsedFileResult(List<String[]> rows, String[] header) {
+        public ParsedFileResult(RowStore rows, String[] header) {
             this.rows = rows;
             this.header = header;
             this.firstRowHeaderForDetection = (header != null);
         }
     }
 
+    // Helper for openRowStream: the detected header plus a cursor positioned at the first row
+    public static class ParsedFileStream implements Closeable {
+        private final String[] header;
+        private final boolean firstRowHeaderForDetection;
+        private final RowCursor cursor;
+
+        public ParsedFileStream(String[] header, RowCursor cursor) {
+            this(header, header != null, cursor);
+        }
+
+        public ParsedFileStream(String[] header, boolean firstRowHeaderForDetection, RowCursor cursor) {
+            this.header = header;
+            this.firstRowHeaderForDetection = firstRowHeaderForDetection;
+            this.cursor = cursor;
+        }
+
+        public static ParsedFileStream of(ParsedFileResult parsedFile) {
+            return new ParsedFileStream(parsedFile.getHeader(), parsedFile.isFirstRowHeaderForDetection(), parsedFile.getRows().cursor());
+        }
+
+        public String[] getHeader() {
+            return header;
+        }
+
+        public boolean isFirstRowHeaderForDetection() {
+            return firstRowHeaderForDetection;
+        }
+
+        public String[] next() throws IOException {
+            return cursor.next();
+        }
+
+        @Override
+        public void close() throws IOException {
+            cursor.close();
+        }
+    }
+
     // Existing parse methods modified to be private helpers returning List<String> for simple cases
     private List<String> parseTextToList(InputStream inputStream) throws IOException { /* ... as before, returns List<String> ... */
         List<String> lines = new ArrayList<>();
@@ -0,0 +1,133 @@
+package com.github.kleash.service;
+
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * The columns of one file that take part in the comparison, resolved once per file instead of once per cell.
+ * Rows may be ragged: for a row of any length, kept column k is {@link #columnAt(int)} and the row has
+ * {@link #keptCount(int)} kept columns.
+ */
+public class KeptColumnMap {
+
+    private final int[] ignored;      // Ignored columns, ascending
+    private final int[] keptIndices;  // Kept columns below the header width, ascending
+
+    public KeptColumnMap(Set<Integer> ignoreIndices, int headerWidth) {
+        this.ignored = ignoreIndices.stream().filter(index -> index != null && index >= 0).mapToInt(Integer::intValue).sorted().toArray();
+        int[] kept = new int[headerWidth];
+        int keptCount = 0;
+        for (int c = 0; c < headerWidth; c++) {
+            if (Arrays.binarySearch(ignored, c) < 0) kept[keptCount++] = c;
+        }
+        this.keptIndices = Arrays.copyOf(kept, keptCount);
+    }
+
+    public int keptCount(int rowLength) {
+        int position = Arrays.binarySearch(ignored, rowLength);
+        int ignoredBelow = position >= 0 ? position : -position - 1;
+        return rowLength - ignoredBelow;
+    }
+
+    // Row column of the k-th kept column
+    public int columnAt(int k) {
+        if (k < keptIndices.length) return keptIndices[k];
+        // Past the header: step over the ignored columns up to the target
+        int column = k;
+        for (int index : ignored) {
+            if (index <= column) column++;
+            else break;
+        }
+        return column;
+    }
+
+    // Kept position of a row column, -1 if the column is ignored
+    public int keptPosition(int column) {
+        int position = Arrays.binarySearch(ignored, column);
+        return position >= 0 ? -1 : column - (-position - 1);
+    }
+
+    /**
+     * Kept columns of both rows equal after trimming, compared in place without copying any cell.
+     */
+    public static boolean keptColumnsEqual(String[] row1, KeptColumnMap columns1, String[] row2, KeptColumnMap columns2) {
+        return keptColumnsEqual(row1, columns1, row2, columns2, null);
+    }
+
+    /**
+     * Same, with kept column k compared by {@code comparators[k]} where there is one (by trimmed text otherwise).
+     * {@code comparators} may be null or shorter than the rows.
+     */
+    public static boolean keptColumnsEqual(String[] row1, KeptColumnMap columns1, String[] row2, KeptColumnMap columns2, CellComparator[] comparators) {
+        int keptCount = columns1.keptCount(row1.length);
+        if (keptCount != columns2.keptCount(row2.length)) return false;
+        for (int k = 0; k < keptCount; k++) {
+            if (!cellsEqual(row1[columns1.columnAt(k)], row2[columns2.columnAt(k)], comparators, k)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Same for the current records of two CSV readers, comparing the fields as byte ranges of the files; only the
+     * fields of columns with a comparator are decoded.
+     */
+    public static boolean keptColumnsEqual(MappedCsvReader record1, KeptColumnMap columns1, MappedCsvReader record2, KeptColumnMap columns2, CellComparator[] comparators) {
+        int keptCount = columns1.keptCount(record1.fieldCount());
+        if (keptCount != columns2.keptCount(record2.fieldCount())) return false;
+        for (int k = 0; k < keptCount; k++) {
+            int column1 = columns1.columnAt(k);
+            int column2 = columns2.columnAt(k);
+            CellComparator comparator = (comparators != null && k < comparators.length) ? comparators[k] : null;
+            boolean equal = comparator == null
+                    ? record1.trimmedFieldEquals(column1, record2, column2)
+                    : comparator.equal(record1.field(column1), record2.field(column2));
+            if (!equal) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Adds one to {@code counts[k]} for every kept column k in which the rows differ, comparing all of them rather
+     * than stopping at the first; a column only the longer row has counts as differing. {@code counts} must cover
+     * the longer row's kept columns. Returns the number of differing columns.
+     */
+    public static int countMismatchedColumns(String[] row1, KeptColumnMap columns1, String[] row2, KeptColumnMap columns2,
+                                             CellComparator[] comparators, int[] counts) {
+        int keptCount1 = columns1.keptCount(row1.length);
+        int keptCount2 = columns2.keptCount(row2.length);
+        int common = Math.min(keptCount1, keptCount2);
+        int mismatched = 0;
+        for (int k = 0; k < common; k++) {
+            if (!cellsEqual(row1[columns1.columnAt(k)], row2[columns2.columnAt(k)], comparators, k)) {
+                counts[k]++;
+                mismatched++;
+            }
+        }
+        for (int k = common; k < Math.max(keptCount1, keptCount2); k++) {
+            counts[k]++;
+            mismatched++;
+        }
+        return mismatched;
+    }
+
+    private static boolean cellsEqual(String cell1, String cell2, CellComparator[] comparators, int k) {
+        CellComparator comparator = (comparators != null && k < comparators.length) ? comparators[k] : null;
+        return comparator == null ? trimmedEquals(cell1, cell2) : comparator.equal(cell1, cell2);
+    }
+
+    // Same result as a.trim().equals(b.trim()) with null treated as "", but without creating the trimmed strings
+    static boolean trimmedEquals(String a, String b) {
+        if (a == null) a = "";
+        if (b == null) b = "";
+        int start1 = 0;
+        int end1 = a.length();
+        while (start1 < end1 && a.charAt(start1) <= ' ') start1++;
+        while (end1 > start1 && a.charAt(end1 - 1) <= ' ') end1--;
+        int start2 = 0;
+        int end2 = b.length();
+        while (start2 < end2 && b.charAt(start2) <= ' ') start2++;
+        while (end2 > start2 && b.charAt(end2 - 1) <= ' ') end2--;
+        int length = end1 - start1;
+        return length == end2 - start2 && a.regionMatches(start1, b, start2, length);
+    }
+}
@@ -0,0 +1,299 @@
+package com.github.kleash.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Collects the rows of one side of a key-based comparison. Rows stay in memory while their estimated size
+ * is under the memory budget; past that, every full buffer is sorted by key and spilled to a run file in
+ * the spill directory, and the runs are merged back in key order when read. The heap budget can ask for an earlier
+ * spill ({@link #trackWith}), which happens at the next row added.
+ */
+public class KeyedRowSorter implements Closeable {
+
+    private static final Comparator<KeyedRow> KEY_ORDER =
+            Comparator.comparing((KeyedRow row) -> row.getKey()).thenComparingInt(KeyedRow::getLineNumber);
+    private static final long INDEX_ENTRY_BYTES = 128; // HashMap node and table slot, plus a small ArrayDeque per key
+
+    private final Path spillDirectory;
+    private final long memoryBudgetBytes;
+    private final List<KeyedRow> buffer = new ArrayList<>();
+    private final List<RunFile> runFiles = new ArrayList<>();
+    private final List<RunReader> openReaders = new ArrayList<>();
+    private volatile long bufferedBytes;
+    private volatile boolean spillRequested;
+    // Set once the in-memory rows are handed out (index or sorted list): still on the heap, but no longer spillable
+    private volatile boolean rowsHandedOut;
+    private MemoryBudgetService.Registration registration;
+
+    public KeyedRowSorter(Path spillDirectory, long memoryBudgetBytes) {
+        this.spillDirectory = spillDirectory;
+        this.memoryBudgetBytes = memoryBudgetBytes;
+    }
+
+    public void add(String key, int lineNumber, String[] row) throws IOException {
+        KeyedRow keyedRow = new KeyedRow(key, lineNumber, row);
+        buffer.add(keyedRow);
+        bufferedBytes += estimateBytes(keyedRow);
+        if (spillRequested) {
+            long freed = bufferedBytes;
+            spill();
+            if (registration != null) registration.reportSpilled(freed);
+        } else if (bufferedBytes > memoryBudgetBytes) {
+            spill();
+        }
+    }
+
+    // Counts the buffered rows against the heap budget until closed; spilling is requested there and done by the thread adding rows
+    public void trackWith(MemoryBudgetService memoryBudget, String description) {
+        registration = memoryBudget.register(description, new MemoryBudgetService.Spillable() {
+            @Override
+            public long estimatedBytes() {
+                return bufferedBytes;
+            }
+
+            @Override
+            public long spill() {
+                if (!rowsHandedOut) spillRequested = true; // Acted on, and reported, by the thread adding rows
+                return 0;
+            }
+        });
+    }
+
+    public boolean hasSpilled() {
+        return !runFiles.isEmpty();
+    }
+
+    /**
+     * Groups the buffered rows by key, keeping insertion order within a key. Only valid while nothing was spilled.
+     * The index still counts against the heap budget until the sorter is closed.
+     */
+    public Map<String, ArrayDeque<KeyedRow>> toIndex() {
+        if (hasSpilled()) {
+            throw new IllegalStateException("Rows were spilled to disk; use sortedRows() instead");
+        }
+        Map<String, ArrayDeque<KeyedRow>> index = new HashMap<>();
+        for (KeyedRow row : buffer) {
+            index.computeIfAbsent(row.getKey(), key -> new ArrayDeque<>()).add(row);
+        }
+        buffer.clear();
+        bufferedBytes += INDEX_ENTRY_BYTES * index.size();
+        rowsHandedOut = true;
+        return index;
+    }
+
+    /**
+     * Writes any rows still buffered to a final run so they no longer hold memory. No-op unless already spilling.
+     */
+    public void finish() throws IOException {
+        if (hasSpilled() && !buffer.isEmpty()) {
+            spill();
+        }
+    }
+
+    /**
+     * @return every added row ordered by key, then by line number
+     */
+    public SortedRows sortedRows() throws IOException {
+        finish();
+        if (!hasSpilled()) {
+            buffer.sort(KEY_ORDER);
+            List<KeyedRow> rows = new ArrayList<>(buffer);
+            buffer.clear();
+            rowsHandedOut = true;
+            return new SortedRows(rows);
+        }
+        PriorityQueue<RunReader> heads = new PriorityQueue<>(Comparator.comparing(RunReader::head, KEY_ORDER));
+        for (RunFile runFile : runFiles) {
+            RunReader reader = new RunReader(runFile);
+            openReaders.add(reader);
+            if (reader.head() != null) heads.add(reader);
+        }
+        return new SortedRows(heads);
+    }
+
+    private void spill() throws IOException {
+        spillRequested = false;
+        buffer.sort(KEY_ORDER);
+        Path runPath = Files.createTempFile(spillDirectory, "keyed-run-", ".bin");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(runPath), 1 << 16))) {
+            for (KeyedRow row : buffer) {
+                writeString(out, row.getKey());
+                out.writeInt(row.getLineNumber());
+                out.writeInt(row.getRow().length);
+                for (String cell : row.getRow()) {
+                    writeString(out, cell);
+                }
+            }
+        }
+        runFiles.add(new RunFile(runPath, buffer.size()));
+        buffer.clear();
+        bufferedBytes = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (registration != null) registration.close();
+        for (RunReader reader : openReaders) {
+            reader.close();
+        }
+        openReaders.clear();
+        for (RunFile runFile : runFiles) {
+            Files.deleteIfExists(runFile.path);
+        }
+        runFiles.clear();
+        buffer.clear();
+        bufferedBytes = 0;
+    }
+
+    // Rough heap footprint: object headers, array slots and UTF-16 payloads
+    private static long estimateBytes(KeyedRow row) {
+        long bytes = 64L + 40L + 2L * row.getKey().length() + 16L + 8L * row.getRow().length;
+        for (String cell : row.getRow()) {
+            if (cell != null) bytes += 40L + 2L * cell.length();
+        }
+        return bytes;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // A row together with its join key and 1-based data line number in its source file
+    public static class KeyedRow {
+        private final String key;
+        private final int lineNumber;
+        private final String[] row;
+
+        public KeyedRow(String key, int lineNumber, String[] row) {
+            this.key = key;
+            this.lineNumber = lineNumber;
+            this.row = row;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public int getLineNumber() {
+            return lineNumber;
+        }
+
+        public String[] getRow() {
+            return row;
+        }
+    }
+
+    // Key-ordered view over the rows, either straight from memory or merged from the spilled runs
+    public static class SortedRows {
+        private final List<KeyedRow> inMemoryRows;
+        private final PriorityQueue<RunReader> runHeads;
+        private int position;
+
+        private SortedRows(List<KeyedRow> inMemoryRows) {
+            this.inMemoryRows = inMemoryRows;
+            this.runHeads = null;
+        }
+
+        private SortedRows(PriorityQueue<RunReader> runHeads) {
+            this.inMemoryRows = null;
+            this.runHeads = runHeads;
+        }
+
+        public KeyedRow peek() {
+            if (inMemoryRows != null) {
+                return position < inMemoryRows.size() ? inMemoryRows.get(position) : null;
+            }
+            RunReader reader = runHeads.peek();
+            return reader != null ? reader.head() : null;
+        }
+
+        public KeyedRow next() throws IOException {
+            if (inMemoryRows != null) {
+                return position < inMemoryRows.size() ? inMemoryRows.get(position++) : null;
+            }
+            RunReader reader = runHeads.poll();
+            if (reader == null) return null;
+            KeyedRow row = reader.head();
+            if (reader.advance()) {
+                runHeads.add(reader);
+            }
+            return row;
+        }
+    }
+
+    private static class RunFile {
+        private final Path path;
+        private final int rowCount;
+
+        RunFile(Path path, int rowCount) {
+            this.path = path;
+            this.rowCount = rowCount;
+        }
+    }
+
+    private static class RunReader implements Closeable {
+        private final DataInputStream in;
+        private int remaining;
+        private KeyedRow head;
+
+        RunReader(RunFile runFile) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(runFile.path), 1 << 16));
+            this.remaining = runFile.rowCount;
+            advance();
+        }
+
+        KeyedRow head() {
+            return head;
+        }
+
+        boolean advance() throws IOException {
+            if (remaining == 0) {
+                head = null;
+                return false;
+            }
+            remaining--;
+            String key = readString(in);
+            int lineNumber = in.readInt();
+            String[] row = new String[in.readInt()];
+            for (int i = 0; i < row.length; i++) {
+                row[i] = readString(in);
+            }
+            head = new KeyedRow(key, lineNumber, row);
+            return true;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+}
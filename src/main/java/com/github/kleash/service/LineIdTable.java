@@ -0,0 +1,83 @@
+package com.github.kleash.service;
+
+import java.util.Arrays;
+
+/**
+ * Dense ids for lines, by a 64-bit hash of their content, so a line diff holds one int per line and one entry per
+ * distinct line rather than the lines themselves. Different lines whose hashes collide share an id; callers confirm
+ * the lines they pair up against the lines themselves.
+ */
+final class LineIdTable {
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private long[] hashes = new long[1024];
+    private int[] ids = new int[1024]; // -1 marks a free slot
+    private int size;
+
+    LineIdTable() {
+        Arrays.fill(ids, -1);
+    }
+
+    // Hash of the kept cells of a row, each trimmed, as the line diff compares them
+    static long hashKeptCells(String[] row, KeptColumnMap keptColumns, char separator) {
+        long hash = FNV_OFFSET;
+        int keptCount = keptColumns.keptCount(row.length);
+        for (int k = 0; k < keptCount; k++) {
+            String cell = row[keptColumns.columnAt(k)];
+            if (cell != null) {
+                int start = 0;
+                int end = cell.length();
+                while (start < end && cell.charAt(start) <= ' ') start++;
+                while (end > start && cell.charAt(end - 1) <= ' ') end--;
+                for (int i = start; i < end; i++) {
+                    hash = (hash ^ cell.charAt(i)) * FNV_PRIME;
+                }
+            }
+            hash = (hash ^ separator) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    // The id of the line with this hash, numbering new ones densely from 0
+    int idOf(long hash) {
+        int mask = ids.length - 1;
+        int slot = (int) mix(hash) & mask;
+        while (ids[slot] >= 0) {
+            if (hashes[slot] == hash) return ids[slot];
+            slot = (slot + 1) & mask;
+        }
+        hashes[slot] = hash;
+        ids[slot] = size;
+        if (++size * 2 > ids.length) grow();
+        return size - 1;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private void grow() {
+        long[] oldHashes = hashes;
+        int[] oldIds = ids;
+        hashes = new long[oldIds.length * 2];
+        ids = new int[oldIds.length * 2];
+        Arrays.fill(ids, -1);
+        int mask = ids.length - 1;
+        for (int i = 0; i < oldIds.length; i++) {
+            if (oldIds[i] < 0) continue;
+            int slot = (int) mix(oldHashes[i]) & mask;
+            while (ids[slot] >= 0) slot = (slot + 1) & mask;
+            hashes[slot] = oldHashes[i];
+            ids[slot] = oldIds[i];
+        }
+    }
+
+    // FNV's low bits are weak; spread the whole hash over them before masking
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,133 @@
+package com.github.kleash.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Finds files that already sit on the server's own disk (e.g. NFS mounts of batch output) so they can be compared
+ * in place, without being uploaded or copied. Only files under file.comparison.local-paths.allowed-roots are
+ * reachable; with no roots configured the feature is off.
+ */
+@Service
+public class LocalFileSourceService {
+    private static final Logger logger = LoggerFactory.getLogger(LocalFileSourceService.class);
+    private static final String GLOB_CHARACTERS = "*?[{";
+
+    // Comma-separated directories; symlinks are resolved before the check, so a link cannot lead out of a root
+    @Value("${file.comparison.local-paths.allowed-roots:}")
+    private List<String> allowedRootsConfig;
+
+    private final List<Path> allowedRoots = new ArrayList<>();
+
+    @PostConstruct
+    public void init() {
+        for (String root : allowedRootsConfig) {
+            if (root == null || root.isBlank()) continue;
+            Path rootPath = Path.of(root.trim()).toAbsolutePath().normalize();
+            try {
+                allowedRoots.add(rootPath.toRealPath());
+            } catch (IOException e) {
+                logger.warn("Ignoring local comparison root {}: {}", rootPath, e.getMessage());
+            }
+        }
+        if (!allowedRoots.isEmpty()) {
+            logger.info("Local path comparisons allowed under {}", allowedRoots);
+        }
+    }
+
+    public boolean isEnabled() {
+        return !allowedRoots.isEmpty();
+    }
+
+    /**
+     * Regular files named by {@code location}: a file, a directory (its files, not those of subdirectories) or a
+     * glob such as {@code /mnt/batch/out_*.csv} ({@code **} also matches across directories). Sorted by path.
+     * Throws AccessDeniedException for anything outside the allowed roots, IllegalArgumentException when nothing
+     * usable matches.
+     */
+    public List<Path> resolve(String location) throws IOException {
+        if (location == null || location.isBlank()) return Collections.emptyList();
+        if (!isEnabled()) {
+            throw new AccessDeniedException(location, null, "Local path comparisons are not enabled");
+        }
+
+        Path absolute = Path.of(location.trim()).toAbsolutePath().normalize();
+        int firstGlobSegment = firstGlobSegment(absolute);
+        List<Path> files;
+        if (firstGlobSegment < 0) {
+            Path target = checkAllowed(absolute);
+            if (Files.isRegularFile(target)) {
+                files = List.of(absolute);
+            } else if (Files.isDirectory(target)) {
+                try (Stream<Path> entries = Files.list(absolute)) {
+                    files = entries.filter(Files::isRegularFile).sorted().collect(Collectors.toList());
+                }
+            } else {
+                throw new IllegalArgumentException("No such file or directory: " + location);
+            }
+        } else {
+            Path base = firstGlobSegment == 0 ? absolute.getRoot() : absolute.getRoot().resolve(absolute.subpath(0, firstGlobSegment));
+            checkAllowed(base);
+            String pattern = absolute.toString();
+            int depth = pattern.contains("**") ? Integer.MAX_VALUE : absolute.getNameCount() - firstGlobSegment;
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+            try (Stream<Path> entries = Files.walk(base, depth)) {
+                files = entries.filter(path -> matcher.matches(path) && Files.isRegularFile(path)).sorted().collect(Collectors.toList());
+            }
+        }
+
+        Set<String> fileNames = new HashSet<>();
+        for (Path file : files) {
+            checkAllowed(file);
+            // Pairing and report names go by file name, so two files of one side must not share one
+            if (!fileNames.add(file.getFileName().toString())) {
+                throw new IllegalArgumentException(location + " matches more than one file named " + file.getFileName());
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("No files match " + location);
+        }
+        logger.info("Resolved {} to {} local files", location, files.size());
+        return files;
+    }
+
+    // Index of the first name element with glob characters, -1 if there is none
+    private static int firstGlobSegment(Path path) {
+        for (int i = 0; i < path.getNameCount(); i++) {
+            String name = path.getName(i).toString();
+            if (name.chars().anyMatch(c -> GLOB_CHARACTERS.indexOf(c) >= 0)) return i;
+        }
+        return -1;
+    }
+
+    private Path checkAllowed(Path path) throws IOException {
+        Path real;
+        try {
+            real = path.toRealPath();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("No such file or directory: " + path);
+        }
+        for (Path root : allowedRoots) {
+            if (real.startsWith(root)) return real;
+        }
+        logger.warn("Rejected local path outside the allowed roots: {}", path);
+        throw new AccessDeniedException(path.toString(), null, "Outside the allowed local comparison roots");
+    }
+}
@@ -0,0 +1,352 @@
+package com.github.kleash.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * RFC 4180 CSV reader that tokenizes the raw UTF-8 bytes of a memory-mapped file. Fields of the current record
+ * are kept as byte ranges of the mapping and only decoded into Strings when asked for, so scanning, counting or
+ * skipping records creates no Strings at all, and fields can be compared without decoding them.
+ * <p>
+ * Records end at CRLF, LF or a lone CR. Quoted fields may contain delimiters, line breaks and doubled quotes.
+ * Lenient where RFC 4180 is silent: a quote inside an unquoted field is literal, and text between a closing
+ * quote and the next delimiter is appended to the field. A leading UTF-8 byte order mark is skipped. An
+ * unterminated quoted field is an error.
+ * <p>
+ * The file is mapped in windows (64 MB by default); a record crossing the end of a window is re-read from a
+ * window starting at that record, so the file size is not limited by the 2 GB mapping limit. A window is dropped
+ * as soon as the next one replaces it or the reader is closed, and unmapped when the garbage collector reclaims it.
+ */
+public class MappedCsvReader implements RowCursor {
+
+    private static final int DEFAULT_WINDOW_BYTES = 64 << 20;
+    private static final int MAX_WINDOW_BYTES = Integer.MAX_VALUE - 8;
+    private static final long COMMAS = 0x2C2C2C2C2C2C2C2CL;
+    private static final long LINE_FEEDS = 0x0A0A0A0A0A0A0A0AL;
+    private static final long CARRIAGE_RETURNS = 0x0D0D0D0D0D0D0D0DL;
+    private static final long QUOTES = 0x2222222222222222L;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private final long endOffset;
+    private int windowBytes;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int windowLimit;
+    private long position;
+    private long recordStart;
+    private long recordNumber;
+
+    // Fields of the current record: byte range in the window, and whether the range still holds quotes to unescape
+    private int fieldCount;
+    private int[] fieldStarts = new int[32];
+    private int[] fieldEnds = new int[32];
+    private boolean[] fieldQuoted = new boolean[32];
+    private byte[] scratch = new byte[256];
+
+    public MappedCsvReader(Path filePath) throws IOException {
+        this(filePath, 0, Long.MAX_VALUE, DEFAULT_WINDOW_BYTES);
+    }
+
+    /**
+     * Reads only the records that start in [startOffset, endOffset). {@code startOffset} must be a record boundary,
+     * such as a value returned by {@link #recordStartOffset()} or {@link #position()}.
+     */
+    public MappedCsvReader(Path filePath, long startOffset, long endOffset) throws IOException {
+        this(filePath, startOffset, endOffset, DEFAULT_WINDOW_BYTES);
+    }
+
+    MappedCsvReader(Path filePath, long startOffset, long endOffset, int windowBytes) throws IOException {
+        this.channel = FileChannel.open(filePath, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        this.endOffset = Math.min(endOffset, fileSize);
+        this.windowBytes = windowBytes;
+        this.position = startOffset;
+        if (startOffset == 0 && fileSize >= 3) {
+            ByteBuffer head = ByteBuffer.allocate(3);
+            while (head.hasRemaining() && channel.read(head, head.position()) > 0) ;
+            if (head.get(0) == (byte) 0xEF && head.get(1) == (byte) 0xBB && head.get(2) == (byte) 0xBF) {
+                position = 3;
+            }
+        }
+    }
+
+    /**
+     * Advances to the next record. Its fields stay valid until the next call.
+     *
+     * @return false once every record in range has been read
+     */
+    public boolean nextRecord() throws IOException {
+        if (position >= endOffset) {
+            fieldCount = 0;
+            return false;
+        }
+        while (true) {
+            if (window == null || position < windowStart || position >= windowStart + windowLimit) {
+                map(position);
+            }
+            int end = parseRecord((int) (position - windowStart));
+            if (end >= 0) {
+                recordStart = position;
+                position = windowStart + end;
+                recordNumber++;
+                return true;
+            }
+            // The record runs past the end of the window: map again from its start, larger if it already started the window
+            if (position == windowStart) {
+                if (windowBytes == MAX_WINDOW_BYTES) {
+                    throw new IOException("CSV record at byte " + position + " is longer than " + MAX_WINDOW_BYTES + " bytes");
+                }
+                windowBytes = (int) Math.min(2L * windowBytes, MAX_WINDOW_BYTES);
+            }
+            map(position);
+        }
+    }
+
+    public int fieldCount() {
+        return fieldCount;
+    }
+
+    public String field(int index) {
+        int start = fieldStarts[index];
+        int end = fieldEnds[index];
+        if (!fieldQuoted[index]) {
+            return decode(start, end);
+        }
+        // Raw range from the opening quote: un-double quotes up to the closing one, then copy the rest literally
+        ensureScratch(end - start);
+        int length = 0;
+        int i = start + 1;
+        while (i < end) {
+            byte b = window.get(i);
+            if (b == '"') {
+                if (i + 1 < end && window.get(i + 1) == '"') {
+                    scratch[length++] = '"';
+                    i += 2;
+                    continue;
+                }
+                i++;
+                break;
+            }
+            scratch[length++] = b;
+            i++;
+        }
+        while (i < end) {
+            scratch[length++] = window.get(i++);
+        }
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Whether field {@code index} of this record equals field {@code otherIndex} of the other reader's record, each
+     * trimmed as by {@link String#trim()}. Compared on the raw bytes; only fields with escaped quotes, and different
+     * bytes that are not plain ASCII (malformed UTF-8 may still decode to the same text), are decoded.
+     */
+    public boolean trimmedFieldEquals(int index, MappedCsvReader other, int otherIndex) {
+        if (fieldQuoted[index] || other.fieldQuoted[otherIndex]) {
+            return KeptColumnMap.trimmedEquals(field(index), other.field(otherIndex));
+        }
+        MappedByteBuffer buffer1 = window;
+        MappedByteBuffer buffer2 = other.window;
+        int start1 = fieldStarts[index];
+        int end1 = fieldEnds[index];
+        while (start1 < end1 && isTrimmed(buffer1.get(start1))) start1++;
+        while (end1 > start1 && isTrimmed(buffer1.get(end1 - 1))) end1--;
+        int start2 = other.fieldStarts[otherIndex];
+        int end2 = other.fieldEnds[otherIndex];
+        while (start2 < end2 && isTrimmed(buffer2.get(start2))) start2++;
+        while (end2 > start2 && isTrimmed(buffer2.get(end2 - 1))) end2--;
+        int length = end1 - start1;
+        if (length == end2 - start2) {
+            int i = 0;
+            while (i < length && buffer1.get(start1 + i) == buffer2.get(start2 + i)) i++;
+            if (i == length) return true;
+        }
+        if (isAscii(buffer1, start1, end1) && isAscii(buffer2, start2, end2)) return false;
+        return KeptColumnMap.trimmedEquals(field(index), other.field(otherIndex));
+    }
+
+    // Every field of the current record, decoded
+    public String[] row() {
+        String[] row = new String[fieldCount];
+        for (int i = 0; i < fieldCount; i++) {
+            row[i] = field(i);
+        }
+        return row;
+    }
+
+    // Byte offset of the record last returned
+    public long recordStartOffset() {
+        return recordStart;
+    }
+
+    // Byte offset where the next record starts
+    public long position() {
+        return position;
+    }
+
+    public long recordNumber() {
+        return recordNumber;
+    }
+
+    @Override
+    public String[] next() throws IOException {
+        return nextRecord() ? row() : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null; // Unmapped once collected, like the row store's mapped spill
+        channel.close();
+    }
+
+    private void map(long start) throws IOException {
+        long size = Math.min(windowBytes, fileSize - start);
+        window = null; // The old window can be collected while the new one is mapped
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        window.order(ByteOrder.LITTLE_ENDIAN); // So the first byte of a word read with getLong is its lowest
+        windowStart = start;
+        windowLimit = (int) size;
+    }
+
+    /**
+     * Tokenizes the record starting at window offset {@code start}.
+     *
+     * @return the window offset just past the record's line break, or -1 if the window ends before the record does
+     */
+    private int parseRecord(int start) throws IOException {
+        MappedByteBuffer buffer = window;
+        int limit = windowLimit;
+        boolean atEndOfFile = windowStart + limit >= fileSize;
+        fieldCount = 0;
+        int i = start;
+        while (true) {
+            int fieldStart = i;
+            byte b = 0;
+            if (i < limit && buffer.get(i) == '"') {
+                boolean escapedQuotes = false;
+                i++;
+                while (true) {
+                    i = indexOfQuote(buffer, i, limit);
+                    if (i >= limit) {
+                        if (atEndOfFile) {
+                            throw new IOException("Unterminated quoted field in CSV record " + (recordNumber + 1) + " at byte " + (windowStart + fieldStart));
+                        }
+                        return -1;
+                    }
+                    if (i + 1 >= limit && !atEndOfFile) return -1; // Cannot tell "" from a closing quote yet
+                    if (i + 1 < limit && buffer.get(i + 1) == '"') {
+                        escapedQuotes = true;
+                        i += 2;
+                        continue;
+                    }
+                    i++;
+                    break;
+                }
+                if (i >= limit || isFieldEnd(b = buffer.get(i))) {
+                    // Common case: nothing between the closing quote and the delimiter
+                    if (escapedQuotes) addField(fieldStart, i, true);
+                    else addField(fieldStart + 1, i - 1, false);
+                } else {
+                    i = indexOfFieldEnd(buffer, i, limit);
+                    if (i < limit) b = buffer.get(i);
+                    addField(fieldStart, i, true);
+                }
+            } else {
+                i = indexOfFieldEnd(buffer, i, limit);
+                if (i < limit) b = buffer.get(i);
+                addField(fieldStart, i, false);
+            }
+
+            if (i >= limit) {
+                return atEndOfFile ? i : -1;
+            }
+            if (b == ',') {
+                i++;
+                continue;
+            }
+            if (b == '\r') {
+                if (i + 1 >= limit) return atEndOfFile ? i + 1 : -1;
+                return buffer.get(i + 1) == '\n' ? i + 2 : i + 1;
+            }
+            return i + 1; // '\n'
+        }
+    }
+
+    // What String.trim removes: every char up to the space, which in UTF-8 are exactly the bytes up to 0x20
+    private static boolean isTrimmed(byte b) {
+        return (b & 0xFF) <= ' ';
+    }
+
+    private static boolean isAscii(MappedByteBuffer buffer, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer.get(i) < 0) return false;
+        }
+        return true;
+    }
+
+    private static boolean isFieldEnd(byte b) {
+        return b == ',' || b == '\n' || b == '\r';
+    }
+
+    // Eight bytes at a time: the lowest byte equal to ',', '\n' or '\r' from i, or limit
+    private static int indexOfFieldEnd(MappedByteBuffer buffer, int i, int limit) {
+        while (i + Long.BYTES <= limit) {
+            long word = buffer.getLong(i);
+            long found = zeroBytes(word ^ COMMAS) | zeroBytes(word ^ LINE_FEEDS) | zeroBytes(word ^ CARRIAGE_RETURNS);
+            if (found != 0) return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            i += Long.BYTES;
+        }
+        while (i < limit && !isFieldEnd(buffer.get(i))) i++;
+        return i;
+    }
+
+    private static int indexOfQuote(MappedByteBuffer buffer, int i, int limit) {
+        while (i + Long.BYTES <= limit) {
+            long found = zeroBytes(buffer.getLong(i) ^ QUOTES);
+            if (found != 0) return i + (Long.numberOfTrailingZeros(found) >>> 3);
+            i += Long.BYTES;
+        }
+        while (i < limit && buffer.get(i) != '"') i++;
+        return i;
+    }
+
+    // High bit set in each zero byte of the word; bytes above the lowest zero byte may be false positives
+    private static long zeroBytes(long word) {
+        return (word - 0x0101010101010101L) & ~word & 0x8080808080808080L;
+    }
+
+    private void addField(int start, int end, boolean quoted) {
+        if (fieldCount == fieldStarts.length) {
+            int capacity = fieldCount * 2;
+            fieldStarts = Arrays.copyOf(fieldStarts, capacity);
+            fieldEnds = Arrays.copyOf(fieldEnds, capacity);
+            fieldQuoted = Arrays.copyOf(fieldQuoted, capacity);
+        }
+        fieldStarts[fieldCount] = start;
+        fieldEnds[fieldCount] = end;
+        fieldQuoted[fieldCount] = quoted;
+        fieldCount++;
+    }
+
+    private String decode(int start, int end) {
+        int length = end - start;
+        if (length == 0) return "";
+        ensureScratch(length);
+        window.get(start, scratch, 0, length);
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private void ensureScratch(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
+        }
+    }
+}
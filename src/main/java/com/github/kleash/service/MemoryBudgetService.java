@@ -0,0 +1,172 @@
+package com.github.kleash.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * One heap budget for the large structures of all running comparisons: parsed rows, retained differences, key
+ * indexes and the parse cache's memory tier register here with their estimated size. When together they exceed the
+ * budget, the largest are asked to move out of the heap (to memory-mapped files, or files they already know how to
+ * spill to) until the total is back under it, so a burst of large comparisons slows down instead of running the JVM
+ * out of memory.
+ * <p>
+ * Checked whenever something registers and periodically while comparisons run, since structures grow after they
+ * register.
+ */
+@Service
+public class MemoryBudgetService {
+    private static final Logger logger = LoggerFactory.getLogger(MemoryBudgetService.class);
+    private static final long MIN_SPILL_BYTES = 1 << 20; // Smaller structures are not worth a file
+
+    /**
+     * A structure whose heap use is tracked. {@link #spill} may be called from any thread; implementations that can
+     * only move their data on their owner's thread record the request, act on it there and then report the bytes
+     * they freed through {@link Registration#reportSpilled}.
+     */
+    public interface Spillable {
+        long estimatedBytes();
+
+        // Moves the data out of the heap and returns the bytes freed; 0 if it refuses, or only records the request
+        long spill() throws IOException;
+
+        // Called when the registration is closed, e.g. to delete a spill file
+        default void release() throws IOException {
+        }
+    }
+
+    @Value("${file.comparison.memory.budget-bytes:0}")
+    private long configuredBudgetBytes;
+
+    @Value("${file.comparison.memory.check-interval-ms:250}")
+    private long checkIntervalMs;
+
+    private long budgetBytes;
+    private final Set<Registration> registrations = ConcurrentHashMap.newKeySet();
+    private final ReentrantLock spillLock = new ReentrantLock();
+    private final AtomicLong spills = new AtomicLong();
+    private final AtomicLong spilledBytes = new AtomicLong();
+    private ScheduledExecutorService checker;
+
+    @PostConstruct
+    public void init() {
+        budgetBytes = configuredBudgetBytes > 0 ? configuredBudgetBytes : Runtime.getRuntime().maxMemory() / 2;
+        checker = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "memory-budget");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checker.scheduleWithFixedDelay(this::checkBudget, checkIntervalMs, checkIntervalMs, TimeUnit.MILLISECONDS);
+        logger.info("Heap budget for comparison data: {} bytes.", budgetBytes);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        checker.shutdownNow();
+    }
+
+    // Tracks the structure until the returned registration is closed
+    public Registration register(String description, Spillable spillable) {
+        Registration registration = new Registration(description, spillable);
+        registrations.add(registration);
+        checkBudget();
+        return registration;
+    }
+
+    /**
+     * Spills the largest registered structures while the total is over budget. Skipped when another thread is
+     * already doing so.
+     */
+    public void checkBudget() {
+        if (!spillLock.tryLock()) return;
+        try {
+            long tracked = 0;
+            List<Registration> candidates = new ArrayList<>(registrations);
+            Map<Registration, Long> sizes = new LinkedHashMap<>();
+            for (Registration registration : candidates) {
+                long size = registration.spillable.estimatedBytes();
+                sizes.put(registration, size);
+                tracked += size;
+            }
+            if (tracked <= budgetBytes) return;
+            candidates.sort(Comparator.comparingLong((Registration registration) -> sizes.get(registration)).reversed());
+            for (Registration registration : candidates) {
+                if (tracked <= budgetBytes || sizes.get(registration) < MIN_SPILL_BYTES) break;
+                // Its owner may have spilled it since it was measured, e.g. on an earlier request
+                if (registration.spillable.estimatedBytes() < MIN_SPILL_BYTES) continue;
+                try {
+                    long freed = registration.spillable.spill();
+                    if (freed <= 0) continue;
+                    tracked -= freed;
+                    registration.reportSpilled(freed);
+                } catch (IOException | RuntimeException e) {
+                    logger.warn("Could not spill {}: {}", registration.description, e.getMessage());
+                }
+            }
+        } finally {
+            spillLock.unlock();
+        }
+    }
+
+    public long getBudgetBytes() {
+        return budgetBytes;
+    }
+
+    public long getTrackedBytes() {
+        long tracked = 0;
+        for (Registration registration : registrations) {
+            tracked += registration.spillable.estimatedBytes();
+        }
+        return tracked;
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        statistics.put("budgetBytes", budgetBytes);
+        statistics.put("trackedBytes", getTrackedBytes());
+        statistics.put("trackedStructures", registrations.size());
+        statistics.put("spills", spills.get());
+        statistics.put("spilledBytes", spilledBytes.get());
+        return statistics;
+    }
+
+    public final class Registration implements Closeable {
+        private final String description;
+        private final Spillable spillable;
+
+        private Registration(String description, Spillable spillable) {
+            this.description = description;
+            this.spillable = spillable;
+        }
+
+        // Bytes the structure moved out of the heap, when it did so later than the spill call asking for it
+        public void reportSpilled(long bytes) {
+            spills.incrementAndGet();
+            spilledBytes.addAndGet(bytes);
+            logger.info("Heap budget of {} bytes exceeded; moved {} ({} bytes) out of the heap.", budgetBytes, description, bytes);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (registrations.remove(this)) spillable.release();
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.github.kleash.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Linear-space Myers diff (divide and conquer on the middle snake, as in GNU diff).
+ * <p>
+ * Two things keep it fast on very large inputs: lines that never occur on the other side are marked as
+ * deleted/inserted before the search even starts, and once a middle-snake search exceeds the cost limit it
+ * splits at the furthest-reaching point found so far instead of insisting on a minimal script. The result is
+ * then no longer guaranteed minimal, but time stays roughly proportional to (N + M) * limit.
+ */
+@Component("myers")
+public class MyersSequenceDiff implements SequenceDiffStrategy {
+
+    // Edit cost after which a middle-snake search settles for an approximate split (0 = derive from input size)
+    @Value("${file.comparison.text-diff.max-cost:0}")
+    private int maxCost;
+
+    @Override
+    public List<DiffHunk> diff(int[] source1, int[] source2) {
+        boolean[] deleted = new boolean[source1.length];
+        boolean[] inserted = new boolean[source2.length];
+
+        // Lines without any counterpart can only be deletions or insertions, so leave them out of the search
+        int idLimit = 0;
+        for (int id : source1) idLimit = Math.max(idLimit, id + 1);
+        for (int id : source2) idLimit = Math.max(idLimit, id + 1);
+        boolean[] inSource1 = new boolean[idLimit];
+        boolean[] inSource2 = new boolean[idLimit];
+        for (int id : source1) inSource1[id] = true;
+        for (int id : source2) inSource2[id] = true;
+
+        int[] kept1 = new int[source1.length];
+        int keptCount1 = 0;
+        for (int i = 0; i < source1.length; i++) {
+            if (inSource2[source1[i]]) kept1[keptCount1++] = i;
+            else deleted[i] = true;
+        }
+        int[] kept2 = new int[source2.length];
+        int keptCount2 = 0;
+        for (int j = 0; j < source2.length; j++) {
+            if (inSource1[source2[j]]) kept2[keptCount2++] = j;
+            else inserted[j] = true;
+        }
+
+        int[] a = new int[keptCount1];
+        for (int i = 0; i < keptCount1; i++) a[i] = source1[kept1[i]];
+        int[] b = new int[keptCount2];
+        for (int j = 0; j < keptCount2; j++) b[j] = source2[kept2[j]];
+
+        Search search = new Search(a, b, maxCost > 0 ? maxCost : defaultMaxCost(a.length + b.length));
+        search.run();
+        for (int i = 0; i < keptCount1; i++) deleted[kept1[i]] = search.deleted[i];
+        for (int j = 0; j < keptCount2; j++) inserted[kept2[j]] = search.inserted[j];
+
+        return toHunks(deleted, inserted);
+    }
+
+    // Same scaling as GNU diff: roughly the square root of the input size, with a floor
+    private static int defaultMaxCost(int totalLength) {
+        int cost = 1;
+        for (long diagonals = totalLength + 3L; diagonals != 0; diagonals >>= 2) {
+            cost <<= 1;
+        }
+        return Math.max(1024, cost);
+    }
+
+    private static List<DiffHunk> toHunks(boolean[] deleted, boolean[] inserted) {
+        List<DiffHunk> hunks = new ArrayList<>();
+        int i = 0;
+        int j = 0;
+        while (i < deleted.length || j < inserted.length) {
+            if (i < deleted.length && j < inserted.length && !deleted[i] && !inserted[j]) {
+                i++;
+                j++;
+                continue;
+            }
+            int start1 = i;
+            int start2 = j;
+            while (i < deleted.length && deleted[i]) i++;
+            while (j < inserted.length && inserted[j]) j++;
+            if (start1 == i && start2 == j) {
+                // One side ran out of unchanged lines before the other; whatever is left is changed
+                i = deleted.length;
+                j = inserted.length;
+            }
+            hunks.add(new DiffHunk(start1, i, start2, j));
+        }
+        return hunks;
+    }
+
+    private static class Search {
+        private final int[] a;
+        private final int[] b;
+        private final int tooExpensive;
+        private final boolean[] deleted;
+        private final boolean[] inserted;
+        // Furthest-reaching x per diagonal for the forward and backward searches, indexed by diagonal + offset
+        private final int[] forward;
+        private final int[] backward;
+        private final int offset;
+        private int xMid;
+        private int yMid;
+
+        Search(int[] a, int[] b, int tooExpensive) {
+            this.a = a;
+            this.b = b;
+            this.tooExpensive = tooExpensive;
+            this.deleted = new boolean[a.length];
+            this.inserted = new boolean[b.length];
+            this.forward = new int[a.length + b.length + 3];
+            this.backward = new int[a.length + b.length + 3];
+            this.offset = b.length + 1;
+        }
+
+        void run() {
+            ArrayDeque<int[]> work = new ArrayDeque<>();
+            work.push(new int[]{0, a.length, 0, b.length});
+            while (!work.isEmpty()) {
+                int[] range = work.pop();
+                int xOff = range[0], xLim = range[1], yOff = range[2], yLim = range[3];
+
+                // Slide down the common prefix and up the common suffix
+                while (xOff < xLim && yOff < yLim && a[xOff] == b[yOff]) {
+                    xOff++;
+                    yOff++;
+                }
+                while (xLim > xOff && yLim > yOff && a[xLim - 1] == b[yLim - 1]) {
+                    xLim--;
+                    yLim--;
+                }
+
+                if (xOff == xLim) {
+                    for (int y = yOff; y < yLim; y++) inserted[y] = true;
+                } else if (yOff == yLim) {
+                    for (int x = xOff; x < xLim; x++) deleted[x] = true;
+                } else {
+                    findMiddleSnake(xOff, xLim, yOff, yLim);
+                    work.push(new int[]{xMid, xLim, yMid, yLim});
+                    work.push(new int[]{xOff, xMid, yOff, yMid});
+                }
+            }
+        }
+
+        // Sets xMid/yMid to a point on an optimal (or, past the cost limit, a good) path through the range
+        private void findMiddleSnake(int xOff, int xLim, int yOff, int yLim) {
+            int[] fd = forward;
+            int[] bd = backward;
+            int o = offset;
+            int dMin = xOff - yLim;
+            int dMax = xLim - yOff;
+            int fMid = xOff - yOff;
+            int bMid = xLim - yLim;
+            int fMin = fMid, fMax = fMid;
+            int bMin = bMid, bMax = bMid;
+            boolean odd = ((fMid - bMid) & 1) != 0;
+
+            fd[fMid + o] = xOff;
+            bd[bMid + o] = xLim;
+
+            for (int cost = 1; ; cost++) {
+                // Extend the top-down search by one edit step on each diagonal
+                if (fMin > dMin) fd[--fMin - 1 + o] = -1;
+                else ++fMin;
+                if (fMax < dMax) fd[++fMax + 1 + o] = -1;
+                else --fMax;
+                for (int d = fMax; d >= fMin; d -= 2) {
+                    int tLo = fd[d - 1 + o];
+                    int tHi = fd[d + 1 + o];
+                    int x = tLo < tHi ? tHi : tLo + 1;
+                    int y = x - d;
+                    while (x < xLim && y < yLim && a[x] == b[y]) {
+                        x++;
+                        y++;
+                    }
+                    fd[d + o] = x;
+                    if (odd && bMin <= d && d <= bMax && bd[d + o] <= x) {
+                        xMid = x;
+                        yMid = y;
+                        return;
+                    }
+                }
+
+                // Same for the bottom-up search
+                if (bMin > dMin) bd[--bMin - 1 + o] = Integer.MAX_VALUE;
+                else ++bMin;
+                if (bMax < dMax) bd[++bMax + 1 + o] = Integer.MAX_VALUE;
+                else --bMax;
+                for (int d = bMax; d >= bMin; d -= 2) {
+                    int tLo = bd[d - 1 + o];
+                    int tHi = bd[d + 1 + o];
+                    int x = tLo < tHi ? tLo : tHi - 1;
+                    int y = x - d;
+                    while (x > xOff && y > yOff && a[x - 1] == b[y - 1]) {
+                        x--;
+                        y--;
+                    }
+                    bd[d + o] = x;
+                    if (!odd && fMin <= d && d <= fMax && x <= fd[d + o]) {
+                        xMid = x;
+                        yMid = y;
+                        return;
+                    }
+                }
+
+                if (cost >= tooExpensive) {
+                    // Too costly: split at whichever search got relatively further
+                    int fxyBest = -1;
+                    int fxBest = 0;
+                    for (int d = fMax; d >= fMin; d -= 2) {
+                        int x = Math.min(fd[d + o], xLim);
+                        int y = x - d;
+                        if (yLim < y) {
+                            x = yLim + d;
+                            y = yLim;
+                        }
+                        if (fxyBest < x + y) {
+                            fxyBest = x + y;
+                            fxBest = x;
+                        }
+                    }
+                    int bxyBest = Integer.MAX_VALUE;
+                    int bxBest = 0;
+                    for (int d = bMax; d >= bMin; d -= 2) {
+                        int x = Math.max(xOff, bd[d + o]);
+                        int y = x - d;
+                        if (y < yOff) {
+                            x = yOff + d;
+                            y = yOff;
+                        }
+                        if (x + y < bxyBest) {
+                            bxyBest = x + y;
+                            bxBest = x;
+                        }
+                    }
+                    if ((xLim + yLim) - bxyBest < fxyBest - (xOff + yOff)) {
+                        xMid = fxBest;
+                        yMid = fxyBest - fxBest;
+                    } else {
+                        xMid = bxBest;
+                        yMid = bxyBest - bxBest;
+                    }
+                    return;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.github.kleash.service;
+
+import com.github.kleash.dto.FilePairResult;
+import com.github.kleash.dto.LineDifference;
+import com.github.kleash.dto.ResultPage;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Keeps the content and differences of each compared pair on disk in the session directory, so the comparison
+ * response can carry summaries only and clients page through the details.
+ * <p>
+ * Each list is a record file ({@code .dat}: length-prefixed records) plus an index ({@code .idx}: the start offset
+ * of every record as a long), so a page at any offset costs one index read and one sequential read.
+ */
+@Service
+public class PairResultStore {
+    private static final Logger logger = LoggerFactory.getLogger(PairResultStore.class);
+    private static final String RESULTS_DIRECTORY = "results";
+    private static final String DIFFERENCES = "differences";
+    private static final String SOURCE1_CONTENT = "source1";
+    private static final String SOURCE2_CONTENT = "source2";
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final LineDifference.DiffType[] DIFF_TYPES = LineDifference.DiffType.values();
+
+    /**
+     * Writes the pair's content and differences (those in memory, then any overflow file) under a new pair id,
+     * records their sizes on the result and then drops them from it.
+     */
+    public void storeAndRelease(FilePairResult result, Path sessionPath) throws IOException {
+        result.setSource1LineCount(result.getSource1Content() != null ? result.getSource1Content().size() : 0);
+        result.setSource2LineCount(result.getSource2Content() != null ? result.getSource2Content().size() : 0);
+
+        String pairId = UUID.randomUUID().toString();
+        Path pairDirectory = sessionPath.resolve(RESULTS_DIRECTORY).resolve(pairId);
+        Files.createDirectories(pairDirectory);
+        writeRecords(pairDirectory, DIFFERENCES, result.getDifferences(), PairResultStore::writeDifference);
+        if (result.getDifferenceOverflowPath() != null) {
+            appendRecords(pairDirectory, DIFFERENCES, result.getDifferenceOverflowPath());
+            deleteRecordFiles(result.getDifferenceOverflowPath());
+            result.setDifferenceOverflowPath(null);
+        }
+        writeRecords(pairDirectory, SOURCE1_CONTENT, result.getSource1Content(), PairResultStore::writeString);
+        writeRecords(pairDirectory, SOURCE2_CONTENT, result.getSource2Content(), PairResultStore::writeString);
+        result.setDifferenceCount((int) (Files.size(pairDirectory.resolve(DIFFERENCES + ".idx")) / Long.BYTES));
+        result.setPairId(pairId);
+
+        result.setSource1Content(null);
+        result.setSource2Content(null);
+        result.setDifferences(new ArrayList<>());
+    }
+
+    // Directory for files a pair writes while it is still being compared
+    static Path workDirectory(Path sessionPath) throws IOException {
+        return Files.createDirectories(sessionPath.resolve(RESULTS_DIRECTORY));
+    }
+
+    // Starts a difference record file pair at basePath (.dat / .idx), in the store's format, to be appended to later
+    static DifferenceWriter openDifferenceWriter(Path basePath) throws IOException {
+        return new DifferenceWriter(basePath);
+    }
+
+    // Reads back, in order, the differences written to the record file pair at basePath
+    static void readDifferences(Path basePath, DifferenceConsumer consumer) throws IOException {
+        long total = Files.size(basePath.resolveSibling(basePath.getFileName() + ".idx")) / Long.BYTES;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(basePath.resolveSibling(basePath.getFileName() + ".dat")), BUFFER_BYTES))) {
+            for (long i = 0; i < total; i++) {
+                consumer.accept(readDifference(in));
+            }
+        }
+    }
+
+    static void deleteRecordFiles(Path basePath) throws IOException {
+        Files.deleteIfExists(basePath.resolveSibling(basePath.getFileName() + ".dat"));
+        Files.deleteIfExists(basePath.resolveSibling(basePath.getFileName() + ".idx"));
+    }
+
+    @FunctionalInterface
+    interface DifferenceConsumer {
+        void accept(LineDifference difference) throws IOException;
+    }
+
+    // Differences appended one at a time, e.g. those of a pair that do not fit in memory
+    static class DifferenceWriter implements Closeable {
+        private final CountingOutputStream counter;
+        private final DataOutputStream data;
+        private final DataOutputStream index;
+        private boolean closed;
+
+        private DifferenceWriter(Path basePath) throws IOException {
+            counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(basePath.resolveSibling(basePath.getFileName() + ".dat")), BUFFER_BYTES));
+            data = new DataOutputStream(counter);
+            index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(basePath.resolveSibling(basePath.getFileName() + ".idx")), BUFFER_BYTES));
+        }
+
+        void write(LineDifference difference) throws IOException {
+            index.writeLong(counter.count);
+            writeDifference(data, difference);
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            try {
+                data.close();
+            } finally {
+                index.close();
+            }
+        }
+    }
+
+    // Null if the session has no such pair
+    public ResultPage<LineDifference> readDifferences(Path sessionPath, String pairId, long offset, int limit) throws IOException {
+        return readPage(sessionPath, pairId, DIFFERENCES, offset, limit, PairResultStore::readDifference);
+    }
+
+    // Null if the session has no such pair
+    public ResultPage<String> readContent(Path sessionPath, String pairId, boolean source1, long offset, int limit) throws IOException {
+        return readPage(sessionPath, pairId, source1 ? SOURCE1_CONTENT : SOURCE2_CONTENT, offset, limit, PairResultStore::readString);
+    }
+
+    @FunctionalInterface
+    private interface RecordWriter<T> {
+        void write(DataOutputStream out, T record) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface RecordReader<T> {
+        T read(DataInputStream in) throws IOException;
+    }
+
+    private static <T> void writeRecords(Path pairDirectory, String name, List<T> records, RecordWriter<T> recordWriter) throws IOException {
+        List<T> toWrite = records != null ? records : Collections.emptyList();
+        try (CountingOutputStream counter = new CountingOutputStream(new BufferedOutputStream(Files.newOutputStream(pairDirectory.resolve(name + ".dat")), BUFFER_BYTES));
+             DataOutputStream data = new DataOutputStream(counter);
+             DataOutputStream index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(pairDirectory.resolve(name + ".idx")), BUFFER_BYTES))) {
+            for (T record : toWrite) {
+                index.writeLong(counter.count);
+                recordWriter.write(data, record);
+            }
+        }
+    }
+
+    // Appends the records of the file pair at sourceBase to list `name`, shifting their index entries past the existing data
+    private static void appendRecords(Path pairDirectory, String name, Path sourceBase) throws IOException {
+        Path dataFile = pairDirectory.resolve(name + ".dat");
+        long shift = Files.size(dataFile);
+        try (FileChannel source = FileChannel.open(sourceBase.resolveSibling(sourceBase.getFileName() + ".dat"), StandardOpenOption.READ);
+             FileChannel target = FileChannel.open(dataFile, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            long size = source.size();
+            for (long copied = 0; copied < size; ) {
+                copied += source.transferTo(copied, size - copied, target);
+            }
+        }
+        Path sourceIndex = sourceBase.resolveSibling(sourceBase.getFileName() + ".idx");
+        long entries = Files.size(sourceIndex) / Long.BYTES;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(sourceIndex), BUFFER_BYTES));
+             DataOutputStream index = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(pairDirectory.resolve(name + ".idx"), StandardOpenOption.APPEND), BUFFER_BYTES))) {
+            for (long i = 0; i < entries; i++) {
+                index.writeLong(in.readLong() + shift);
+            }
+        }
+    }
+
+    private <T> ResultPage<T> readPage(Path sessionPath, String pairId, String name, long offset, int limit, RecordReader<T> recordReader) throws IOException {
+        Path pairDirectory = resolvePairDirectory(sessionPath, pairId);
+        if (pairDirectory == null) return null;
+        Path indexFile = pairDirectory.resolve(name + ".idx");
+        Path dataFile = pairDirectory.resolve(name + ".dat");
+
+        try (FileChannel index = FileChannel.open(indexFile, StandardOpenOption.READ);
+             FileChannel data = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+            long total = index.size() / Long.BYTES;
+            long first = Math.max(0, Math.min(offset, total));
+            int count = (int) Math.min(limit, total - first);
+            List<T> items = new ArrayList<>(count);
+            if (count > 0) {
+                ByteBuffer position = ByteBuffer.allocate(Long.BYTES);
+                while (position.hasRemaining()) {
+                    if (index.read(position, first * Long.BYTES + position.position()) < 0) throw new EOFException("Truncated index " + indexFile);
+                }
+                data.position(position.getLong(0));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(data), BUFFER_BYTES));
+                for (int i = 0; i < count; i++) {
+                    items.add(recordReader.read(in));
+                }
+            }
+            return new ResultPage<>(first, total, items);
+        }
+    }
+
+    private Path resolvePairDirectory(Path sessionPath, String pairId) {
+        Path resultsDirectory = sessionPath.resolve(RESULTS_DIRECTORY).toAbsolutePath().normalize();
+        Path pairDirectory = resultsDirectory.resolve(pairId).normalize();
+        if (!resultsDirectory.equals(pairDirectory.getParent())) {
+            logger.warn("Rejected pair id outside the results directory: {}", pairId);
+            return null;
+        }
+        return Files.isDirectory(pairDirectory) ? pairDirectory : null;
+    }
+
+    private static void writeDifference(DataOutputStream out, LineDifference difference) throws IOException {
+        out.writeInt(difference.getLineNumber());
+        out.writeByte(difference.getType().ordinal());
+        writeString(out, difference.getSource1Line());
+        writeString(out, difference.getSource2Line());
+        writeString(out, difference.getKey());
+    }
+
+    private static LineDifference readDifference(DataInputStream in) throws IOException {
+        int lineNumber = in.readInt();
+        LineDifference.DiffType type = DIFF_TYPES[in.readUnsignedByte()];
+        String source1Line = readString(in);
+        String source2Line = readString(in);
+        String key = readString(in);
+        return new LineDifference(lineNumber, source1Line, source2Line, type, key);
+    }
+
+    // Length-prefixed UTF-8, -1 for null (writeUTF stops at 64 KB, which long lines exceed)
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // Byte position in the data file; DataOutputStream.size() is an int and wraps past 2 GB
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
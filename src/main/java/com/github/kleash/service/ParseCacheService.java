@@ -0,0 +1,340 @@
+package com.github.kleash.service;
+
+import com.github.kleash.util.FileTypeUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Parsed files by content: a file parsed once (e.g. a reference file compared against many others) is served from
+ * here afterwards, for as long as it has the same SHA-256 digest, without parsing it again. Entries are the
+ * {@link ColumnarRowCodec} form of the rows, held in an LRU memory tier and an LRU directory under the storage path,
+ * each bounded in bytes. Comparisons that want the same file at the same time share one parse. The memory tier
+ * counts against the heap budget, which empties it first when comparisons need the room.
+ */
+@Service
+public class ParseCacheService {
+    private static final Logger logger = LoggerFactory.getLogger(ParseCacheService.class);
+    private static final String DIRECTORY_NAME = ".parse-cache";
+    private static final String ENTRY_SUFFIX = ".rows";
+
+    @Autowired
+    private FileParserService fileParserService;
+
+    @Autowired
+    private StorageService storageService;
+
+    @Autowired
+    private MemoryBudgetService memoryBudgetService;
+
+    @Value("${file.comparison.parse-cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${file.comparison.parse-cache.memory-bytes:268435456}")
+    private long maxMemoryBytes;
+
+    @Value("${file.comparison.parse-cache.disk-bytes:2147483648}")
+    private long maxDiskBytes;
+
+    private Path directory;
+    // Both in access order, eldest first; guarded by this
+    private final LinkedHashMap<String, byte[]> memoryEntries = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, Long> diskEntries = new LinkedHashMap<>(16, 0.75f, true); // Entry size by key
+    private long memoryBytes;
+    private long diskBytes;
+    private final Map<String, CompletableFuture<byte[]>> loading = new ConcurrentHashMap<>();
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @PostConstruct
+    public void init() {
+        if (!enabled) return;
+        memoryBudgetService.register("parse cache memory tier", new MemoryBudgetService.Spillable() {
+            @Override
+            public long estimatedBytes() {
+                synchronized (ParseCacheService.this) {
+                    return memoryBytes;
+                }
+            }
+
+            @Override
+            public long spill() {
+                return dropMemoryTier();
+            }
+        });
+        directory = storageService.getBaseStoragePath().resolve(DIRECTORY_NAME);
+        try {
+            Files.createDirectories(directory);
+            // Entries left by an earlier run, least recently used first; partly written ones are dropped
+            List<Path> files;
+            try (Stream<Path> paths = Files.list(directory)) {
+                files = paths.collect(Collectors.toList());
+            }
+            files.sort(Comparator.comparing(ParseCacheService::lastModified));
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                if (name.endsWith(ENTRY_SUFFIX)) {
+                    // Evicts the oldest when the disk budget was lowered since
+                    for (String evictedKey : addDiskEntry(name.substring(0, name.length() - ENTRY_SUFFIX.length()), Files.size(file))) {
+                        Files.deleteIfExists(directory.resolve(evictedKey + ENTRY_SUFFIX));
+                    }
+                } else {
+                    Files.deleteIfExists(file);
+                }
+            }
+            logger.info("Parse cache at {} with {} entries ({} bytes).", directory, diskEntries.size(), diskBytes);
+        } catch (IOException e) {
+            logger.warn("Parse cache directory {} is not usable, caching in memory only: {}", directory, e.getMessage());
+            directory = null;
+        }
+    }
+
+    /**
+     * Same as {@link FileParserService#parseFileIntoRowsAndHeader(Path, String)}, from the cache when the file's
+     * content was parsed with the same options before. Each call gets its own rows.
+     */
+    public FileParserService.ParsedFileResult parseFileIntoRowsAndHeader(Path filePath, String sheet) throws IOException {
+        if (!enabled || filePath == null || !Files.isRegularFile(filePath)) {
+            return fileParserService.parseFileIntoRowsAndHeader(filePath, sheet);
+        }
+        String key = cacheKey(filePath, sheet);
+        byte[] entry = lookup(key);
+        if (entry != null) {
+            FileParserService.ParsedFileResult cached = decodeOrNull(entry, key);
+            if (cached != null) return cached;
+        }
+
+        CompletableFuture<byte[]> ownLoad = new CompletableFuture<>();
+        CompletableFuture<byte[]> otherLoad = loading.putIfAbsent(key, ownLoad);
+        if (otherLoad != null) {
+            entry = await(otherLoad);
+            FileParserService.ParsedFileResult cached = entry != null ? decodeOrNull(entry, key) : null;
+            if (cached != null) {
+                memoryHits.incrementAndGet();
+                return cached;
+            }
+            // That parse failed or was too large to cache; parse here, so failures are reported per pair as before
+            misses.incrementAndGet();
+            return fileParserService.parseFileIntoRowsAndHeader(filePath, sheet);
+        }
+
+        misses.incrementAndGet();
+        byte[] encoded = null;
+        try {
+            FileParserService.ParsedFileResult parsed = fileParserService.parseFileIntoRowsAndHeader(filePath, sheet);
+            encoded = ColumnarRowCodec.encode(key, parsed, Math.max(maxMemoryBytes, maxDiskBytes));
+            if (encoded != null) store(key, encoded);
+            return parsed;
+        } finally {
+            loading.remove(key);
+            ownLoad.complete(encoded);
+        }
+    }
+
+    public Map<String, Object> getStatistics() {
+        Map<String, Object> statistics = new LinkedHashMap<>();
+        long hits = memoryHits.get() + diskHits.get();
+        long lookups = hits + misses.get();
+        statistics.put("enabled", enabled);
+        statistics.put("hits", hits);
+        statistics.put("memoryHits", memoryHits.get());
+        statistics.put("diskHits", diskHits.get());
+        statistics.put("misses", misses.get());
+        statistics.put("hitRatio", lookups > 0 ? (double) hits / lookups : 0.0);
+        statistics.put("evictions", evictions.get());
+        synchronized (this) {
+            statistics.put("memoryEntries", memoryEntries.size());
+            statistics.put("memoryBytes", memoryBytes);
+            statistics.put("diskEntries", diskEntries.size());
+            statistics.put("diskBytes", diskBytes);
+        }
+        return statistics;
+    }
+
+    // Digest of the content plus everything that changes how it parses: the type (from the extension) and the sheet
+    private String cacheKey(Path filePath, String sheet) throws IOException {
+        FileFingerprint fingerprint = storageService.getFingerprint(filePath);
+        FileTypeUtil.FileType type = FileTypeUtil.getFileType(filePath.getFileName().toString());
+        boolean excel = type == FileTypeUtil.FileType.EXCEL_XLSX || type == FileTypeUtil.FileType.EXCEL_XLS;
+        String options = type + (excel && sheet != null ? "|" + sheet : "");
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((fingerprint.getDigest() + "|" + options).getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private byte[] lookup(String key) {
+        boolean onDisk;
+        synchronized (this) {
+            byte[] entry = memoryEntries.get(key);
+            if (entry != null) {
+                memoryHits.incrementAndGet();
+                return entry;
+            }
+            onDisk = diskEntries.get(key) != null;
+        }
+        if (!onDisk) return null;
+        Path file = directory.resolve(key + ENTRY_SUFFIX);
+        try {
+            byte[] entry = Files.readAllBytes(file);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis())); // Its rank after a restart
+            diskHits.incrementAndGet();
+            synchronized (this) {
+                addMemoryEntry(key, entry);
+            }
+            return entry;
+        } catch (NoSuchFileException e) {
+            removeDiskEntry(key); // Evicted meanwhile, or removed by hand
+            return null;
+        } catch (IOException e) {
+            logger.warn("Could not read parse cache entry {}: {}", file, e.getMessage());
+            return null;
+        }
+    }
+
+    private FileParserService.ParsedFileResult decodeOrNull(byte[] entry, String key) {
+        try {
+            return ColumnarRowCodec.decode(entry, key);
+        } catch (IOException e) {
+            logger.warn("Dropping unreadable parse cache entry {}: {}", key, e.getMessage());
+            synchronized (this) {
+                byte[] removed = memoryEntries.remove(key);
+                if (removed != null) memoryBytes -= removed.length;
+            }
+            removeDiskEntry(key);
+            return null;
+        }
+    }
+
+    private void store(String key, byte[] entry) {
+        synchronized (this) {
+            addMemoryEntry(key, entry);
+        }
+        if (directory == null || entry.length > maxDiskBytes) return;
+        Path file = directory.resolve(key + ENTRY_SUFFIX);
+        Path partial = directory.resolve(key + "." + UUID.randomUUID() + ".part");
+        try {
+            Files.write(partial, entry);
+            Files.move(partial, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            List<String> evicted;
+            synchronized (this) {
+                evicted = addDiskEntry(key, entry.length);
+            }
+            for (String evictedKey : evicted) {
+                Files.deleteIfExists(directory.resolve(evictedKey + ENTRY_SUFFIX));
+            }
+        } catch (IOException e) {
+            logger.warn("Could not write parse cache entry {}: {}", file, e.getMessage());
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException ignored) {
+                // Dropped at the next start
+            }
+        }
+    }
+
+    // Entries on disk stay there, so they are still hits, only slower ones
+    private synchronized long dropMemoryTier() {
+        long freed = memoryBytes;
+        evictions.addAndGet(memoryEntries.size());
+        memoryEntries.clear();
+        memoryBytes = 0;
+        return freed;
+    }
+
+    // Caller holds the lock
+    private void addMemoryEntry(String key, byte[] entry) {
+        if (entry.length > maxMemoryBytes) return;
+        byte[] replaced = memoryEntries.put(key, entry);
+        memoryBytes += entry.length - (replaced != null ? replaced.length : 0);
+        Iterator<byte[]> eldest = memoryEntries.values().iterator();
+        while (memoryBytes > maxMemoryBytes && eldest.hasNext()) {
+            memoryBytes -= eldest.next().length;
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    // Caller holds the lock (or is init); returns the keys whose files are to be deleted
+    private List<String> addDiskEntry(String key, long size) {
+        Long replaced = diskEntries.put(key, size);
+        diskBytes += size - (replaced != null ? replaced : 0);
+        List<String> evicted = new ArrayList<>();
+        Iterator<Map.Entry<String, Long>> eldest = diskEntries.entrySet().iterator();
+        while (diskBytes > maxDiskBytes && eldest.hasNext()) {
+            Map.Entry<String, Long> next = eldest.next();
+            if (next.getKey().equals(key)) continue;
+            diskBytes -= next.getValue();
+            evicted.add(next.getKey());
+            eldest.remove();
+            evictions.incrementAndGet();
+        }
+        return evicted;
+    }
+
+    private void removeDiskEntry(String key) {
+        synchronized (this) {
+            Long removed = diskEntries.remove(key);
+            if (removed == null) return;
+            diskBytes -= removed;
+        }
+        try {
+            Files.deleteIfExists(directory.resolve(key + ENTRY_SUFFIX));
+        } catch (IOException e) {
+            logger.debug("Could not delete parse cache entry {}: {}", key, e.getMessage());
+        }
+    }
+
+    private static byte[] await(CompletableFuture<byte[]> load) throws IOException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for a parse of the same file");
+        } catch (ExecutionException e) {
+            return null; // Never completed exceptionally; a failed parse completes with null
+        }
+    }
+
+    private static FileTime lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
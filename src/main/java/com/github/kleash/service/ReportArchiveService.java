@@ -0,0 +1,271 @@
+package com.github.kleash.service;
+
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.io.input.BoundedInputStream;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.FileSystemUtils;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Builds the ZIP of a session's reports straight into the download. Entries are deflated in parallel on a pool and
+ * written in order as each one is ready, so the download starts with the first entry rather than the last.
+ * Reports that storeReport gzipped are deflated already: their compressed data is copied into the archive as is.
+ * <p>
+ * The archive is also kept in the session directory and served from there until the session's reports change.
+ */
+@Service
+public class ReportArchiveService {
+    private static final Logger logger = LoggerFactory.getLogger(ReportArchiveService.class);
+    private static final int BUFFER_BYTES = 1 << 16;
+    private static final int GZIP_HEADER_BYTES = 10; // As GZIPOutputStream writes it: no name, comment or extra field
+    private static final int GZIP_TRAILER_BYTES = 8;
+
+    @Autowired
+    private StorageService storageService;
+
+    @Autowired
+    private ComparisonMetrics comparisonMetrics;
+
+    @Value("${file.comparison.report.compression-level:6}")
+    private int compressionLevel;
+
+    private final Map<Path, String> archiveSignatures = new ConcurrentHashMap<>(); // Reports each cached archive was built from
+    private ExecutorService deflateExecutor;
+
+    @PostConstruct
+    public void init() {
+        int poolSize = Runtime.getRuntime().availableProcessors();
+        AtomicInteger threadCounter = new AtomicInteger();
+        deflateExecutor = Executors.newFixedThreadPool(poolSize, runnable -> {
+            Thread thread = new Thread(runnable, "report-zip-" + threadCounter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        logger.info("Report archive executor initialised with {} threads.", poolSize);
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        deflateExecutor.shutdownNow();
+    }
+
+    public static String archiveFileName(Path sessionPath) {
+        return "comparison_reports_" + sessionPath.getFileName().toString() + ".zip";
+    }
+
+    // The archive built earlier from exactly the reports the session has now, or null
+    public Path getCachedArchive(Path sessionPath) throws IOException {
+        Path archive = sessionPath.resolve(archiveFileName(sessionPath)).toAbsolutePath().normalize();
+        String signature = archiveSignatures.get(archive);
+        if (signature == null) return null;
+        if (!Files.isRegularFile(archive)) {
+            archiveSignatures.remove(archive);
+            return null;
+        }
+        return signature.equals(signature(sessionPath, listReports(sessionPath))) ? archive : null;
+    }
+
+    /**
+     * Writes the archive of the session's reports to {@code out} (left open) and keeps a copy as the cached archive.
+     * If writing fails midway, e.g. because the client went away, nothing is cached.
+     */
+    public void writeArchive(Path sessionPath, OutputStream out) throws IOException {
+        long start = comparisonMetrics.start();
+        List<Path> reports = listReports(sessionPath);
+        String signature = signature(sessionPath, reports);
+        Path archive = sessionPath.resolve(archiveFileName(sessionPath)).toAbsolutePath().normalize();
+        Path partial = archive.resolveSibling(archive.getFileName() + "." + UUID.randomUUID() + ".part");
+        Path workDirectory = Files.createTempDirectory(sessionPath, ".zip-");
+        List<Future<PreparedEntry>> preparedEntries = new ArrayList<>();
+        boolean complete = false;
+        try (OutputStream cacheOut = new BufferedOutputStream(Files.newOutputStream(partial), BUFFER_BYTES);
+             ZipArchiveOutputStream zip = new ZipArchiveOutputStream(new TeeOutputStream(CloseShieldOutputStream.wrap(out), cacheOut))) {
+            // Submitted in archive order; the pool works ahead while earlier entries are still being sent
+            for (Path report : reports) {
+                preparedEntries.add(deflateExecutor.submit(() -> prepareEntry(sessionPath, report, workDirectory)));
+            }
+            for (Future<PreparedEntry> future : preparedEntries) {
+                PreparedEntry entry = awaitEntry(future);
+                try (InputStream raw = entry.openRawData()) {
+                    zip.addRawArchiveEntry(entry.toZipEntry(), raw);
+                }
+                if (entry.temporary) Files.deleteIfExists(entry.dataFile);
+            }
+            zip.finish();
+            complete = true;
+        } finally {
+            preparedEntries.forEach(future -> future.cancel(true));
+            FileSystemUtils.deleteRecursively(workDirectory);
+            if (!complete) Files.deleteIfExists(partial);
+            comparisonMetrics.recordArchive(complete ? ComparisonMetrics.SUCCESS : ComparisonMetrics.ERROR, start, reports.size());
+        }
+        Files.move(partial, archive, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        archiveSignatures.put(archive, signature);
+        logger.info("Created ZIP file: {} ({} entries)", archive, reports.size());
+    }
+
+    private List<Path> listReports(Path sessionPath) throws IOException {
+        try (Stream<Path> paths = Files.walk(sessionPath)) {
+            return paths.filter(Files::isRegularFile)
+                    .filter(path -> {
+                        String name = path.getFileName().toString().toLowerCase(Locale.ROOT);
+                        return name.endsWith(".csv") || name.endsWith(".csv" + StorageService.GZIP_SUFFIX);
+                    })
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+    }
+
+    // Digest of the reports' names, sizes and modification times
+    private static String signature(Path sessionPath, List<Path> reports) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+        for (Path report : reports) {
+            String line = sessionPath.relativize(report) + "\t" + Files.size(report) + "\t" + Files.getLastModifiedTime(report).toMillis() + "\n";
+            digest.update(line.getBytes(StandardCharsets.UTF_8));
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private PreparedEntry prepareEntry(Path sessionPath, Path report, Path workDirectory) throws IOException {
+        PreparedEntry entry = prepareEntryData(sessionPath, report, workDirectory);
+        entry.modifiedTime = Files.getLastModifiedTime(report).toMillis();
+        return entry;
+    }
+
+    private PreparedEntry prepareEntryData(Path sessionPath, Path report, Path workDirectory) throws IOException {
+        String entryName = sessionPath.relativize(report).toString().replace('\\', '/');
+        if (!entryName.endsWith(StorageService.GZIP_SUFFIX)) {
+            return deflate(report, entryName, false, workDirectory);
+        }
+        // Gzipped reports go into the archive as plain .csv entries, so its contents do not depend on the setting
+        String plainName = entryName.substring(0, entryName.length() - StorageService.GZIP_SUFFIX.length());
+        StorageService.GzipReport gzipReport = storageService.getGzipReport(report);
+        if (gzipReport == null) {
+            return deflate(report, plainName, true, workDirectory); // Not written by storeReport (or not since a restart)
+        }
+        long dataLength = Files.size(report) - GZIP_HEADER_BYTES - GZIP_TRAILER_BYTES;
+        return new PreparedEntry(plainName, report, false, GZIP_HEADER_BYTES, dataLength, gzipReport.getContentCrc(), gzipReport.getContentLength());
+    }
+
+    private PreparedEntry deflate(Path file, String entryName, boolean gunzip, Path workDirectory) throws IOException {
+        Path dataFile = Files.createTempFile(workDirectory, "entry-", ".deflate");
+        CRC32 crc = new CRC32();
+        long contentLength = 0;
+        Deflater deflater = new Deflater(compressionLevel, true); // Raw deflate data, as a ZIP entry holds it
+        try (InputStream in = gunzip ? new GZIPInputStream(Files.newInputStream(file), BUFFER_BYTES) : new BufferedInputStream(Files.newInputStream(file), BUFFER_BYTES);
+             OutputStream deflated = new DeflaterOutputStream(new BufferedOutputStream(Files.newOutputStream(dataFile), BUFFER_BYTES), deflater, BUFFER_BYTES)) {
+            byte[] buffer = new byte[BUFFER_BYTES];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                crc.update(buffer, 0, read);
+                deflated.write(buffer, 0, read);
+                contentLength += read;
+            }
+        } finally {
+            deflater.end();
+        }
+        return new PreparedEntry(entryName, dataFile, true, 0, Files.size(dataFile), crc.getValue(), contentLength);
+    }
+
+    private static PreparedEntry awaitEntry(Future<PreparedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while building report archive");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) throw (IOException) cause;
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw new IOException("Could not compress report: " + cause.getMessage(), cause);
+        }
+    }
+
+    // A report's deflated data: a byte range of dataFile, plus what the ZIP entry header needs
+    private static class PreparedEntry {
+        private final String name;
+        private final Path dataFile;
+        private final boolean temporary;
+        private final long dataOffset;
+        private final long dataLength;
+        private final long contentCrc;
+        private final long contentLength;
+        private long modifiedTime;
+
+        PreparedEntry(String name, Path dataFile, boolean temporary, long dataOffset, long dataLength, long contentCrc, long contentLength) {
+            this.name = name;
+            this.dataFile = dataFile;
+            this.temporary = temporary;
+            this.dataOffset = dataOffset;
+            this.dataLength = dataLength;
+            this.contentCrc = contentCrc;
+            this.contentLength = contentLength;
+        }
+
+        ZipArchiveEntry toZipEntry() {
+            ZipArchiveEntry entry = new ZipArchiveEntry(name);
+            entry.setMethod(ZipArchiveEntry.DEFLATED);
+            entry.setCompressedSize(dataLength);
+            entry.setSize(contentLength);
+            entry.setCrc(contentCrc);
+            entry.setTime(modifiedTime);
+            return entry;
+        }
+
+        InputStream openRawData() throws IOException {
+            FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ);
+            channel.position(dataOffset);
+            return BoundedInputStream.builder()
+                    .setInputStream(new BufferedInputStream(Channels.newInputStream(channel), BUFFER_BYTES))
+                    .setMaxCount(dataLength)
+                    .get();
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package com.github.kleash.service;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Forward-only reader over the rows of a parsed file. Lets the comparison walk both sides
+ * one row at a time instead of holding every row of both files in memory.
+ */
+public interface RowCursor extends Closeable {
+
+    /**
+     * @return the next row, or null once the input is exhausted (and on every call after that)
+     */
+    String[] next() throws IOException;
+
+    static RowCursor of(List<String[]> rows) {
+        Iterator<String[]> iterator = rows.iterator();
+        return new RowCursor() {
+            @Override
+            public String[] next() {
+                return iterator.hasNext() ? iterator.next() : null;
+            }
+
+            @Override
+            public void close() {
+                // Nothing to release for in-memory rows
+            }
+        };
+    }
+}
@@ -0,0 +1,516 @@
+package com.github.kleash.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * The rows of a parsed file, held column by column instead of as String arrays: each column keeps the UTF-8 bytes of
+ * its values in one byte arena with an int offset per value, and each cell is an int reference to a value. Short
+ * values repeated within a column (codes, flags, dates) are stored once. A cell costs four bytes plus its text, a
+ * fraction of a String and its share of a String[].
+ * <p>
+ * Cells are read through a {@link Row} accessor or materialized one row at a time by {@link #cursor()}. Read-only once
+ * built, so one store can be read from several threads (each with its own Row). Under heap pressure the arrays can be
+ * moved to a memory-mapped file ({@link #spillable}); readers are not affected.
+ */
+public final class RowStore {
+    static final int NULL_REF = -1;
+    private static final int MAX_DICTIONARY_SIZE = 4096; // Per column; values after that are stored each time
+    private static final int MAX_DICTIONARY_VALUE_LENGTH = 64; // Longer values are rarely repeated
+    private static final byte[] NULL_TEXT = "null".getBytes(StandardCharsets.UTF_8); // How String.join writes a null cell
+    private static final int WRITE_BUFFER_BYTES = 1 << 16;
+
+    private final int rowCount;
+    private volatile Columns columns;
+    private Path spillFile; // Guarded by this
+    private boolean released;
+
+    RowStore(int rowCount, int[] widths, byte[][] arenas, int[][] offsets, int[][] refs) {
+        this.rowCount = rowCount;
+        this.columns = new HeapColumns(widths, arenas, offsets, refs);
+    }
+
+    public static RowStore empty() {
+        return new RowStore(0, new int[0], new byte[0][], new int[0][], new int[0][]);
+    }
+
+    public int size() {
+        return rowCount;
+    }
+
+    public boolean isEmpty() {
+        return rowCount == 0;
+    }
+
+    public int width(int row) {
+        return columns.width(row);
+    }
+
+    public int columnCount() {
+        return columns.columnCount();
+    }
+
+    // Null for a null cell, and for a column beyond the row's width
+    public String cell(int row, int column) {
+        return cell(columns, row, column);
+    }
+
+    private static String cell(Columns columns, int row, int column) {
+        if (column >= columns.width(row)) return null;
+        int ref = columns.ref(column, row);
+        return ref == NULL_REF ? null : columns.text(column, ref);
+    }
+
+    // A copy of the row as the parser returned it
+    public String[] row(int row) {
+        Columns current = columns;
+        String[] cells = new String[current.width(row)];
+        for (int column = 0; column < cells.length; column++) {
+            cells[column] = cell(current, row, column);
+        }
+        return cells;
+    }
+
+    public Row accessor() {
+        return new Row();
+    }
+
+    // The rows in order, each materialized as its own String[] when the cursor reaches it
+    public RowCursor cursor() {
+        Row row = accessor();
+        return new RowCursor() {
+            private int next;
+
+            @Override
+            public String[] next() {
+                return next < rowCount ? row.at(next++).toArray() : null;
+            }
+
+            @Override
+            public void close() {
+                // Nothing to release; the store stays readable
+            }
+        };
+    }
+
+    /**
+     * The row's cells, except the skipped columns, joined with commas into one String, decoded once from the bytes
+     * rather than cell by cell. Same text as String.join over the kept cells.
+     */
+    String joinCells(int row, boolean[] skippedColumns) {
+        Columns current = columns;
+        int width = current.width(row);
+        int length = 0;
+        int kept = 0;
+        for (int column = 0; column < width; column++) {
+            if (column < skippedColumns.length && skippedColumns[column]) continue;
+            int ref = current.ref(column, row);
+            length += ref == NULL_REF ? NULL_TEXT.length : current.valueStart(column, ref + 1) - current.valueStart(column, ref);
+            kept++;
+        }
+        if (kept == 0) return "";
+        byte[] line = new byte[length + kept - 1];
+        int position = 0;
+        boolean first = true;
+        for (int column = 0; column < width; column++) {
+            if (column < skippedColumns.length && skippedColumns[column]) continue;
+            if (!first) line[position++] = ',';
+            first = false;
+            int ref = current.ref(column, row);
+            if (ref == NULL_REF) {
+                System.arraycopy(NULL_TEXT, 0, line, position, NULL_TEXT.length);
+                position += NULL_TEXT.length;
+            } else {
+                int start = current.valueStart(column, ref);
+                int valueLength = current.valueStart(column, ref + 1) - start;
+                current.copyBytes(column, start, line, position, valueLength);
+                position += valueLength;
+            }
+        }
+        return new String(line, StandardCharsets.UTF_8);
+    }
+
+    // Heap taken by the store's arrays; next to nothing once they are memory-mapped
+    public long estimatedBytes() {
+        return columns.heapBytes();
+    }
+
+    // For ColumnarRowCodec, which writes the columns as they are stored
+    int ref(int column, int row) {
+        return columns.ref(column, row);
+    }
+
+    int valueCount(int column) {
+        return columns.valueCount(column);
+    }
+
+    // Start of the value in its column's arena; the arena's length for value == valueCount
+    int valueStart(int column, int value) {
+        return columns.valueStart(column, value);
+    }
+
+    void copyArena(int column, byte[] target, int targetPosition) {
+        Columns current = columns;
+        current.copyBytes(column, 0, target, targetPosition, current.valueStart(column, current.valueCount(column)));
+    }
+
+    /**
+     * The store as a {@link MemoryBudgetService.Spillable}: spilling writes its arrays to a file in
+     * {@code directory} and maps them back read-only; releasing deletes that file.
+     */
+    MemoryBudgetService.Spillable spillable(Path directory) {
+        return new MemoryBudgetService.Spillable() {
+            @Override
+            public long estimatedBytes() {
+                return RowStore.this.estimatedBytes();
+            }
+
+            @Override
+            public long spill() throws IOException {
+                return spillTo(directory);
+            }
+
+            @Override
+            public void release() throws IOException {
+                releaseSpillFile();
+            }
+        };
+    }
+
+    private synchronized long spillTo(Path directory) throws IOException {
+        if (released || !(columns instanceof HeapColumns)) return 0;
+        HeapColumns heap = (HeapColumns) columns;
+        Path file = directory.resolve(".rows-" + UUID.randomUUID());
+        try {
+            MappedColumns mapped = MappedColumns.write(heap, file);
+            spillFile = file;
+            long freed = heap.heapBytes() - mapped.heapBytes();
+            columns = mapped; // Readers still holding the heap arrays finish with them
+            return freed;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+    }
+
+    private synchronized void releaseSpillFile() throws IOException {
+        released = true;
+        if (spillFile != null) {
+            // The mapping stays readable where the platform allows deleting a mapped file; elsewhere the session cleanup removes it
+            try {
+                Files.deleteIfExists(spillFile);
+            } catch (IOException e) {
+                // Left for the session directory cleanup
+            }
+            spillFile = null;
+        }
+    }
+
+    /**
+     * Flyweight over one row of the store: {@link #at} moves it to another row without allocating. Not thread-safe;
+     * each reader takes its own from {@link #accessor()}.
+     */
+    public final class Row {
+        private int row;
+
+        public Row at(int row) {
+            this.row = row;
+            return this;
+        }
+
+        public int index() {
+            return row;
+        }
+
+        public int width() {
+            return RowStore.this.width(row);
+        }
+
+        public String cell(int column) {
+            return RowStore.this.cell(row, column);
+        }
+
+        public String[] toArray() {
+            return RowStore.this.row(row);
+        }
+    }
+
+    // Where the arrays live: on the heap, or in a memory-mapped file
+    private abstract static class Columns {
+        abstract int columnCount();
+
+        abstract int width(int row);
+
+        abstract int ref(int column, int row);
+
+        abstract int valueCount(int column);
+
+        abstract int valueStart(int column, int value);
+
+        abstract void copyBytes(int column, int start, byte[] target, int targetPosition, int length);
+
+        abstract long heapBytes();
+
+        String text(int column, int ref) {
+            int start = valueStart(column, ref);
+            byte[] bytes = new byte[valueStart(column, ref + 1) - start];
+            copyBytes(column, start, bytes, 0, bytes.length);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+
+    private static final class HeapColumns extends Columns {
+        private final int[] widths;
+        private final byte[][] arenas;  // By column
+        private final int[][] offsets;  // By column: start of each value in the arena, plus the end of the last one
+        private final int[][] refs;     // By column and row: the value, or NULL_REF; undefined beyond the row's width
+
+        HeapColumns(int[] widths, byte[][] arenas, int[][] offsets, int[][] refs) {
+            this.widths = widths;
+            this.arenas = arenas;
+            this.offsets = offsets;
+            this.refs = refs;
+        }
+
+        @Override
+        int columnCount() {
+            return arenas.length;
+        }
+
+        @Override
+        int width(int row) {
+            return widths[row];
+        }
+
+        @Override
+        int ref(int column, int row) {
+            return refs[column][row];
+        }
+
+        @Override
+        int valueCount(int column) {
+            return offsets[column].length - 1;
+        }
+
+        @Override
+        int valueStart(int column, int value) {
+            return offsets[column][value];
+        }
+
+        @Override
+        void copyBytes(int column, int start, byte[] target, int targetPosition, int length) {
+            System.arraycopy(arenas[column], start, target, targetPosition, length);
+        }
+
+        @Override
+        String text(int column, int ref) {
+            int start = offsets[column][ref];
+            return new String(arenas[column], start, offsets[column][ref + 1] - start, StandardCharsets.UTF_8);
+        }
+
+        @Override
+        long heapBytes() {
+            long bytes = 16L + 4L * widths.length;
+            for (int column = 0; column < arenas.length; column++) {
+                bytes += 48L + arenas[column].length + 4L * offsets[column].length + 4L * refs[column].length;
+            }
+            return bytes;
+        }
+    }
+
+    // The same arrays, each a read-only mapped region of one file: widths, then per column offsets, refs and arena
+    private static final class MappedColumns extends Columns {
+        private final IntBuffer widths;
+        private final ByteBuffer[] arenas;
+        private final IntBuffer[] offsets;
+        private final IntBuffer[] refs;
+
+        private MappedColumns(IntBuffer widths, ByteBuffer[] arenas, IntBuffer[] offsets, IntBuffer[] refs) {
+            this.widths = widths;
+            this.arenas = arenas;
+            this.offsets = offsets;
+            this.refs = refs;
+        }
+
+        static MappedColumns write(HeapColumns heap, Path file) throws IOException {
+            int columnCount = heap.arenas.length;
+            ByteBuffer[] arenas = new ByteBuffer[columnCount];
+            IntBuffer[] offsets = new IntBuffer[columnCount];
+            IntBuffer[] refs = new IntBuffer[columnCount];
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                ByteBuffer buffer = ByteBuffer.allocate(WRITE_BUFFER_BYTES).order(ByteOrder.nativeOrder());
+                long widthsStart = channel.position();
+                writeInts(channel, buffer, heap.widths);
+                long[] regions = new long[columnCount * 3];
+                for (int column = 0; column < columnCount; column++) {
+                    regions[column * 3] = channel.position();
+                    writeInts(channel, buffer, heap.offsets[column]);
+                    regions[column * 3 + 1] = channel.position();
+                    writeInts(channel, buffer, heap.refs[column]);
+                    regions[column * 3 + 2] = channel.position();
+                    for (int written = 0; written < heap.arenas[column].length; ) {
+                        written += channel.write(ByteBuffer.wrap(heap.arenas[column], written, heap.arenas[column].length - written));
+                    }
+                }
+                IntBuffer widths = mapInts(channel, widthsStart, heap.widths.length);
+                for (int column = 0; column < columnCount; column++) {
+                    offsets[column] = mapInts(channel, regions[column * 3], heap.offsets[column].length);
+                    refs[column] = mapInts(channel, regions[column * 3 + 1], heap.refs[column].length);
+                    arenas[column] = channel.map(FileChannel.MapMode.READ_ONLY, regions[column * 3 + 2], heap.arenas[column].length);
+                }
+                return new MappedColumns(widths, arenas, offsets, refs); // Mappings outlive the channel
+            }
+        }
+
+        private static void writeInts(FileChannel channel, ByteBuffer buffer, int[] values) throws IOException {
+            if (4L * values.length > Integer.MAX_VALUE) throw new IOException("Array too large to map");
+            for (int value : values) {
+                if (buffer.remaining() < Integer.BYTES) flush(channel, buffer);
+                buffer.putInt(value);
+            }
+            flush(channel, buffer);
+        }
+
+        private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) channel.write(buffer);
+            buffer.clear();
+        }
+
+        private static IntBuffer mapInts(FileChannel channel, long position, int count) throws IOException {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * count).order(ByteOrder.nativeOrder()).asIntBuffer();
+        }
+
+        @Override
+        int columnCount() {
+            return arenas.length;
+        }
+
+        @Override
+        int width(int row) {
+            return widths.get(row);
+        }
+
+        @Override
+        int ref(int column, int row) {
+            return refs[column].get(row);
+        }
+
+        @Override
+        int valueCount(int column) {
+            return offsets[column].capacity() - 1;
+        }
+
+        @Override
+        int valueStart(int column, int value) {
+            return offsets[column].get(value);
+        }
+
+        @Override
+        void copyBytes(int column, int start, byte[] target, int targetPosition, int length) {
+            arenas[column].get(start, target, targetPosition, length); // Absolute, so concurrent readers do not interfere
+        }
+
+        @Override
+        long heapBytes() {
+            return 64L + 96L * arenas.length; // The buffer objects; their contents are in the page cache
+        }
+    }
+
+    /**
+     * Collects rows as they are parsed. Throws IOException when a single column's text no longer fits one arena
+     * (2 GB), which only a file that should be compared in streaming mode reaches.
+     */
+    public static final class Builder {
+        private int rowCount;
+        private int[] widths = new int[1024];
+        private ColumnBuilder[] columns = new ColumnBuilder[0];
+
+        public void add(String[] row) throws IOException {
+            if (rowCount == widths.length) widths = Arrays.copyOf(widths, grow(widths.length));
+            widths[rowCount] = row.length;
+            if (row.length > columns.length) {
+                int previous = columns.length;
+                columns = Arrays.copyOf(columns, row.length);
+                for (int column = previous; column < row.length; column++) columns[column] = new ColumnBuilder();
+            }
+            for (int column = 0; column < row.length; column++) {
+                columns[column].add(rowCount, row[column]);
+            }
+            rowCount++;
+        }
+
+        public int size() {
+            return rowCount;
+        }
+
+        public RowStore build() {
+            byte[][] arenas = new byte[columns.length][];
+            int[][] offsets = new int[columns.length][];
+            int[][] refs = new int[columns.length][];
+            for (int column = 0; column < columns.length; column++) {
+                ColumnBuilder builder = columns[column];
+                arenas[column] = Arrays.copyOf(builder.arena, builder.arenaLength);
+                offsets[column] = Arrays.copyOf(builder.offsets, builder.valueCount + 1);
+                refs[column] = Arrays.copyOf(builder.refs, rowCount);
+            }
+            RowStore store = new RowStore(rowCount, Arrays.copyOf(widths, rowCount), arenas, offsets, refs);
+            columns = new ColumnBuilder[0];
+            return store;
+        }
+
+        private static int grow(int length) {
+            return (int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, length * 2L));
+        }
+    }
+
+    private static final class ColumnBuilder {
+        private byte[] arena = new byte[256];
+        private int arenaLength;
+        private int[] offsets = new int[16];
+        private int valueCount;
+        private int[] refs = new int[1024];
+        private final Map<String, Integer> dictionary = new HashMap<>();
+
+        void add(int row, String value) throws IOException {
+            if (row >= refs.length) refs = Arrays.copyOf(refs, Math.max(Builder.grow(refs.length), row + 1));
+            if (value == null) {
+                refs[row] = NULL_REF;
+                return;
+            }
+            boolean dictionaryValue = value.length() <= MAX_DICTIONARY_VALUE_LENGTH;
+            if (dictionaryValue) {
+                Integer ref = dictionary.get(value);
+                if (ref != null) {
+                    refs[row] = ref;
+                    return;
+                }
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if ((long) arenaLength + bytes.length > Integer.MAX_VALUE - 8) {
+                throw new IOException("A column holds more than 2 GB of text; compare this file in streaming mode");
+            }
+            if (arenaLength + bytes.length > arena.length) {
+                arena = Arrays.copyOf(arena, Math.max(Builder.grow(arena.length), arenaLength + bytes.length));
+            }
+            System.arraycopy(bytes, 0, arena, arenaLength, bytes.length);
+            if (valueCount + 2 > offsets.length) offsets = Arrays.copyOf(offsets, Builder.grow(offsets.length));
+            offsets[valueCount] = arenaLength;
+            arenaLength += bytes.length;
+            offsets[valueCount + 1] = arenaLength;
+            if (dictionaryValue && dictionary.size() < MAX_DICTIONARY_SIZE) dictionary.put(value, valueCount);
+            refs[row] = valueCount++;
+        }
+    }
+}
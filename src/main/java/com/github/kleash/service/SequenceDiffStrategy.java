@@ -0,0 +1,49 @@
+package com.github.kleash.service;
+
+import java.util.List;
+
+/**
+ * Computes an edit script between two line sequences. Implementations are Spring beans whose bean name
+ * is the strategy name selected by file.comparison.text-diff.strategy.
+ */
+public interface SequenceDiffStrategy {
+
+    /**
+     * @param source1 line ids of Source 1; equal ids mean equal lines. Ids are small non-negative ints
+     *                (ideally numbered densely from 0), as they are used as array indexes
+     * @param source2 line ids of Source 2
+     * @return the changed regions in ascending order; everything outside them is matched line by line
+     */
+    List<DiffHunk> diff(int[] source1, int[] source2);
+
+    // Half-open ranges [start, end) of S1 lines replaced by S2 lines; an empty range is a pure insert or delete
+    class DiffHunk {
+        private final int source1Start;
+        private final int source1End;
+        private final int source2Start;
+        private final int source2End;
+
+        public DiffHunk(int source1Start, int source1End, int source2Start, int source2End) {
+            this.source1Start = source1Start;
+            this.source1End = source1End;
+            this.source2Start = source2Start;
+            this.source2End = source2End;
+        }
+
+        public int getSource1Start() {
+            return source1Start;
+        }
+
+        public int getSource1End() {
+            return source1End;
+        }
+
+        public int getSource2Start() {
+            return source2Start;
+        }
+
+        public int getSource2End() {
+            return source2End;
+        }
+    }
+}
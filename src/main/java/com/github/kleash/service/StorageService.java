@@ -1,32 +1,81 @@
 package com.github.kleash.service;
 
+import com.github.kleash.util.FileTypeUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.util.FileSystemUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import jakarta.annotation.PostConstruct;
+import java.io.BufferedOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.StandardCopyOption;
 import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.UUID;
-import java.util.stream.Stream;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 @Service
 public class StorageService {
 
     private static final Logger logger = LoggerFactory.getLogger(StorageService.class);
+    static final String GZIP_SUFFIX = ".gz";
+    private static final int REPORT_BUFFER_BYTES = 1 << 16;
+
+    // Produces the content of one report into the writer handed to it
+    @FunctionalInterface
+    public interface ReportContent {
+        void writeTo(Writer writer) throws IOException;
+    }
+
+    // CRC-32 and length of a gzipped report's content, which a ZIP entry needs alongside the deflated data
+    public static final class GzipReport {
+        private final long contentCrc;
+        private final long contentLength;
+        private long fileSize;
+
+        GzipReport(long contentCrc, long contentLength) {
+            this.contentCrc = contentCrc;
+            this.contentLength = contentLength;
+        }
+
+        public long getContentCrc() {
+            return contentCrc;
+        }
+
+        public long getContentLength() {
+            return contentLength;
+        }
+    }
+
+    @Autowired
+    private ComparisonMetrics comparisonMetrics;
 
     @Value("${file.comparison.storage.base-path}")
     private String basePathStringConfig; // Renamed to avoid conflict
+    @Value("${file.comparison.report.gzip:false}")
+    private boolean gzipReports;
+    // Deflate level (1-9) of gzipped reports and of the report ZIP
+    @Value("${file.comparison.report.compression-level:6}")
+    private int compressionLevel;
+    // Files whose fingerprint / gzip details are kept; most sessions are never cleaned up, so older ones are forgotten
+    @Value("${file.comparison.storage.remembered-files:10000}")
+    private int maxRememberedFiles;
     private Path baseStoragePath;
+    // Both in access order, eldest first, and guarded by themselves; a forgotten entry is just computed again
+    private final LinkedHashMap<Path, FileFingerprint> fingerprints = new LinkedHashMap<>(16, 0.75f, true); // Keyed by absolute stored path
+    private final LinkedHashMap<Path, GzipReport> gzipReportInfo = new LinkedHashMap<>(16, 0.75f, true); // Keyed by absolute report path
 
     public Path getBaseStoragePath() { // Getter for controller
         return baseStoragePath;
@@ -56,7 +105,16 @@ public class StorageService {
         if (file.isEmpty()) {
             throw new IOException("Failed to store empty file.");
         }
-        String originalFilename = file.getOriginalFilename();
+        try (InputStream inputStream = file.getInputStream()) {
+            return storeUploadedStream(file.getOriginalFilename(), inputStream, sessionPath);
+        }
+    }
+
+    /**
+     * Copies an upload into the session directory as it arrives. The digest and record count are taken in the same
+     * pass as the copy, so identical pairs can skip parsing later.
+     */
+    public Path storeUploadedStream(String originalFilename, InputStream inputStream, Path sessionPath) throws IOException {
         if (originalFilename == null || originalFilename.contains("..")) {
             throw new IOException("Security: Cannot store file with relative path outside current directory: " + originalFilename);
         }
@@ -65,47 +123,104 @@ public class StorageService {
             throw new IOException("Security: Cannot store file outside session directory: " + originalFilename);
         }
 
-        try (InputStream inputStream = file.getInputStream()) {
-            Files.copy(inputStream, destinationFile, StandardCopyOption.REPLACE_EXISTING);
-            logger.info("Stored uploaded file: {}", destinationFile);
+        long start = comparisonMetrics.start();
+        try (OutputStream outputStream = Files.newOutputStream(destinationFile)) {
+            FileFingerprint fingerprint = FileFingerprint.compute(inputStream, outputStream, FileTypeUtil.getFileType(originalFilename));
+            remember(fingerprints, destinationFile, fingerprint);
+            logger.info("Stored uploaded file: {} ({} bytes, sha256 {})", destinationFile, fingerprint.getSize(), fingerprint.getDigest());
+            comparisonMetrics.recordUpload(originalFilename, ComparisonMetrics.SUCCESS, start, fingerprint.getSize());
             return destinationFile;
+        } catch (IOException | RuntimeException e) {
+            comparisonMetrics.recordUpload(originalFilename, ComparisonMetrics.ERROR, start, 0);
+            Files.deleteIfExists(destinationFile); // An upload cut off midway is not a file to compare
+            throw e;
         }
     }
 
-    public Path storeReport(String csvContent, String reportFileName, Path sessionPath) throws IOException {
-        Path reportFilePath = sessionPath.resolve(reportFileName).normalize().toAbsolutePath();
-        if (!reportFilePath.getParent().equals(sessionPath.toAbsolutePath())) {
-            throw new IOException("Security: Cannot store report outside session directory: " + reportFileName);
+    // Moves a file stored elsewhere (e.g. an assembled chunked upload) into a session directory, keeping its fingerprint
+    public Path adoptFile(Path file, Path sessionPath, FileFingerprint fingerprint) throws IOException {
+        Path destinationFile = sessionPath.resolve(file.getFileName()).normalize().toAbsolutePath();
+        if (!destinationFile.getParent().equals(sessionPath.toAbsolutePath())) {
+            throw new IOException("Security: Cannot store file outside session directory: " + file.getFileName());
         }
-        Files.writeString(reportFilePath, csvContent, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
-        logger.info("Stored report file: {}", reportFilePath);
-        return reportFilePath;
+        Files.move(file, destinationFile);
+        forget(fingerprints, file.toAbsolutePath().normalize());
+        if (fingerprint != null) remember(fingerprints, destinationFile, fingerprint);
+        logger.info("Moved {} into session directory as {}", file, destinationFile);
+        return destinationFile;
     }
 
-    public Path createZipFromReports(Path sessionPath, String zipFileName) throws IOException {
-        Path zipFilePath = sessionPath.resolve(zipFileName).normalize().toAbsolutePath();
-        if (!zipFilePath.getParent().equals(sessionPath.toAbsolutePath())) {
-            throw new IOException("Security: Cannot create ZIP outside session directory " + zipFileName);
+    /**
+     * Fingerprint recorded when the file was stored; files that did not come through storeUploadedFile are read once to compute it.
+     * Files outside the storage directory (compared in place) can change between comparisons, so theirs is never kept.
+     */
+    public FileFingerprint getFingerprint(Path storedFile) throws IOException {
+        Path key = storedFile.toAbsolutePath().normalize();
+        FileFingerprint fingerprint = recall(fingerprints, key);
+        if (fingerprint == null) {
+            try (InputStream inputStream = Files.newInputStream(key)) {
+                fingerprint = FileFingerprint.compute(inputStream, null, FileTypeUtil.getFileType(key.getFileName().toString()));
+            }
+            if (key.startsWith(baseStoragePath)) remember(fingerprints, key, fingerprint);
         }
+        return fingerprint;
+    }
 
-        try (ZipOutputStream zos = new ZipOutputStream(Files.newOutputStream(zipFilePath));
-             Stream<Path> paths = Files.walk(sessionPath)) {
+    /**
+     * Writes a report straight to its file as it is generated; with gzip enabled the file is named <reportFileName>.gz.
+     * If a report of that name already exists (pairs whose file names sanitize alike, or a pair listed twice), a
+     * counter is added to the name, so pairs written in parallel never share a file. The CRC-32 and length of a
+     * gzipped report's content are remembered, so it can go into a ZIP without being inflated and deflated again.
+     */
+    public Path storeReport(String reportFileName, Path sessionPath, ReportContent content) throws IOException {
+        Path reportFilePath = createReportFile(reportFileName, sessionPath);
+        GzipReport gzipReport = null;
+        try (OutputStream fileOut = Files.newOutputStream(reportFilePath, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+             ReportGzipOutputStream gzipOut = gzipReports ? new ReportGzipOutputStream(fileOut, compressionLevel) : null;
+             OutputStream out = gzipReports ? gzipOut : new BufferedOutputStream(fileOut, REPORT_BUFFER_BYTES);
+             Writer writer = new OutputStreamWriter(out, StandardCharsets.UTF_8)) {
+            content.writeTo(writer);
+            if (gzipOut != null) {
+                writer.flush();
+                gzipOut.finish();
+                gzipReport = new GzipReport(gzipOut.getContentCrc(), gzipOut.getContentLength());
+            }
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(reportFilePath); // Do not leave a truncated report behind
+            throw e;
+        }
+        if (gzipReport != null) {
+            gzipReport.fileSize = Files.size(reportFilePath);
+            remember(gzipReportInfo, reportFilePath, gzipReport);
+        }
+        logger.info("Stored report file: {}", reportFilePath);
+        return reportFilePath;
+    }
 
-            paths.filter(path -> !Files.isDirectory(path))
-                    .filter(path -> path.toString().toLowerCase().endsWith(".csv"))
-                    .forEach(path -> {
-                        ZipEntry zipEntry = new ZipEntry(sessionPath.relativize(path).toString());
-                        try {
-                            zos.putNextEntry(zipEntry);
-                            Files.copy(path, zos);
-                            zos.closeEntry();
-                        } catch (IOException e) {
-                            logger.error("Error while adding file {} to zip: {}", path, e.getMessage());
-                        }
-                    });
+    // Creates the report's file under the first free name: reportFileName, then with _2, _3, ... before its extension
+    private Path createReportFile(String reportFileName, Path sessionPath) throws IOException {
+        int extension = reportFileName.lastIndexOf('.');
+        String baseName = extension > 0 ? reportFileName.substring(0, extension) : reportFileName;
+        String suffix = (extension > 0 ? reportFileName.substring(extension) : "") + (gzipReports ? GZIP_SUFFIX : "");
+        for (int attempt = 1; ; attempt++) {
+            String fileName = (attempt == 1 ? baseName : baseName + "_" + attempt) + suffix;
+            Path reportFilePath = sessionPath.resolve(fileName).normalize().toAbsolutePath();
+            if (!reportFilePath.getParent().equals(sessionPath.toAbsolutePath())) {
+                throw new IOException("Security: Cannot store report outside session directory: " + fileName);
+            }
+            try {
+                return Files.createFile(reportFilePath); // Atomic, so two pairs cannot both take a name
+            } catch (FileAlreadyExistsException e) {
+                // Taken by another pair of this session
+            }
         }
-        logger.info("Created ZIP file: {}", zipFilePath);
-        return zipFilePath;
+    }
+
+    // What storeReport recorded about a gzipped report, or null if it did not write this file (as it is now)
+    public GzipReport getGzipReport(Path reportFile) throws IOException {
+        Path key = reportFile.toAbsolutePath().normalize();
+        GzipReport gzipReport = recall(gzipReportInfo, key);
+        return gzipReport != null && gzipReport.fileSize == Files.size(key) ? gzipReport : null;
     }
 
     public String getRelativePathForClient(Path fullPath, Path sessionPath) {
@@ -125,6 +240,8 @@ public class StorageService {
         if (sessionPath != null && Files.exists(sessionPath) && sessionPath.startsWith(baseStoragePath)) {
             try {
                 FileSystemUtils.deleteRecursively(sessionPath);
+                forgetSession(fingerprints, sessionPath.toAbsolutePath());
+                forgetSession(gzipReportInfo, sessionPath.toAbsolutePath());
                 logger.info("Deleted session directory: {}", sessionPath);
             } catch (IOException e) {
                 logger.error("Could not delete session directory {}: {}", sessionPath, e.getMessage());
@@ -133,4 +250,49 @@ public class StorageService {
             logger.warn("Attempted to delete invalid or non-existent session directory: {}", sessionPath);
         }
     }
-}
\ No newline at end of file
+
+    private <V> void remember(LinkedHashMap<Path, V> entries, Path key, V value) {
+        synchronized (entries) {
+            entries.put(key, value);
+            Iterator<V> eldest = entries.values().iterator();
+            while (entries.size() > maxRememberedFiles) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+    }
+
+    private static <V> V recall(LinkedHashMap<Path, V> entries, Path key) {
+        synchronized (entries) {
+            return entries.get(key);
+        }
+    }
+
+    private static <V> void forget(LinkedHashMap<Path, V> entries, Path key) {
+        synchronized (entries) {
+            entries.remove(key);
+        }
+    }
+
+    private static <V> void forgetSession(LinkedHashMap<Path, V> entries, Path sessionPath) {
+        synchronized (entries) {
+            entries.keySet().removeIf(path -> path.startsWith(sessionPath));
+        }
+    }
+
+    // GZIPOutputStream at a chosen level that still reports its content CRC and length once finished
+    private static class ReportGzipOutputStream extends GZIPOutputStream {
+        ReportGzipOutputStream(OutputStream out, int level) throws IOException {
+            super(out, REPORT_BUFFER_BYTES);
+            def.setLevel(level);
+        }
+
+        long getContentCrc() {
+            return crc.getValue();
+        }
+
+        long getContentLength() {
+            return def.getBytesRead();
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.github.kleash.service;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.apache.commons.fileupload2.core.DiskFileItem;
+import org.apache.commons.fileupload2.core.DiskFileItemFactory;
+import org.apache.commons.fileupload2.core.FileItemInput;
+import org.apache.commons.fileupload2.core.FileItemInputIterator;
+import org.apache.commons.fileupload2.core.FileUploadSizeException;
+import org.apache.commons.fileupload2.jakarta.servlet6.JakartaServletFileUpload;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.util.unit.DataSize;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a multipart/form-data request part by part straight off the connection. File parts are written to the
+ * session directory as they arrive (fingerprinted on the way), so an upload is never buffered by the servlet
+ * container first; reading no faster than the disk accepts is what pushes back on the client.
+ */
+@Service
+public class StreamingUploadService {
+    private static final Logger logger = LoggerFactory.getLogger(StreamingUploadService.class);
+    private static final int MAX_FIELD_BYTES = 1 << 20; // Form fields are small JSON or flags
+    private static final int STREAM_BUFFER_BYTES = 1 << 16;
+
+    @Autowired
+    private StorageService storageService;
+
+    // Limits for streamed uploads; spring.servlet.multipart.* only applies to endpoints taking MultipartFile
+    @Value("${file.comparison.upload.max-file-size:10GB}")
+    private DataSize maxFileSize;
+
+    @Value("${file.comparison.upload.max-request-size:20GB}")
+    private DataSize maxRequestSize;
+
+    // Form fields and stored files of one request, by field name
+    public static class UploadedForm {
+        private final Map<String, String> fields = new HashMap<>();
+        private final Map<String, List<Path>> files = new HashMap<>();
+
+        public String getField(String name) {
+            return fields.get(name);
+        }
+
+        public List<Path> getFiles(String name) {
+            return files.getOrDefault(name, Collections.emptyList());
+        }
+    }
+
+    public boolean isMultipart(HttpServletRequest request) {
+        return JakartaServletFileUpload.isMultipartContent(request);
+    }
+
+    /**
+     * Stores every non-empty file part in {@code sessionPath}. Throws FileUploadSizeException when a file or the
+     * whole request exceeds its limit; files stored up to then are left for the caller to clean up with the session.
+     */
+    public UploadedForm receive(HttpServletRequest request, Path sessionPath) throws IOException {
+        JakartaServletFileUpload<DiskFileItem, DiskFileItemFactory> upload = new JakartaServletFileUpload<>();
+        upload.setFileSizeMax(maxFileSize.toBytes());
+        upload.setSizeMax(maxRequestSize.toBytes());
+        upload.setHeaderCharset(StandardCharsets.UTF_8);
+
+        UploadedForm form = new UploadedForm();
+        FileItemInputIterator items = upload.getItemIterator(request);
+        while (items.hasNext()) {
+            FileItemInput item = items.next();
+            if (item.isFormField()) {
+                form.fields.put(item.getFieldName(), readField(item));
+                continue;
+            }
+            String fileName = item.getName();
+            if (fileName == null || fileName.isEmpty()) continue; // A file input left empty
+            try (InputStream in = new BufferedInputStream(item.getInputStream(), STREAM_BUFFER_BYTES)) {
+                in.mark(1);
+                if (in.read() < 0) {
+                    logger.info("Skipping empty upload {} in field {}", fileName, item.getFieldName());
+                    continue;
+                }
+                in.reset();
+                form.files.computeIfAbsent(item.getFieldName(), name -> new ArrayList<>())
+                        .add(storageService.storeUploadedStream(fileName, in, sessionPath));
+            }
+        }
+        return form;
+    }
+
+    private String readField(FileItemInput item) throws IOException {
+        try (InputStream in = item.getInputStream()) {
+            byte[] value = in.readNBytes(MAX_FIELD_BYTES + 1);
+            if (value.length > MAX_FIELD_BYTES) {
+                throw new FileUploadSizeException("Form field " + item.getFieldName() + " exceeds " + MAX_FIELD_BYTES + " bytes",
+                        value.length, MAX_FIELD_BYTES);
+            }
+            return new String(value, StandardCharsets.UTF_8);
+        }
+    }
+}
@@ -0,0 +1,206 @@
+package com.github.kleash.service;
+
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reads one sheet of an .xlsx file with POI's SAX event model instead of building an XSSFWorkbook, so memory
+ * stays bounded by the shared strings table plus a small queue of rows, whatever the sheet size.
+ * <p>
+ * The SAX parse runs on its own thread and hands rows over through a bounded queue, which turns POI's push
+ * callbacks into the pull-style {@link RowCursor}. Cells are formatted with DataFormatter as before and missing
+ * cells become "". Formula cells yield their cached result, as Excel displays them (the event model cannot
+ * expand shared formulas into formula text).
+ */
+class XlsxRowCursor implements RowCursor {
+
+    private static final Logger logger = LoggerFactory.getLogger(XlsxRowCursor.class);
+    private static final int QUEUE_CAPACITY = 1024;
+    private static final String[] END_OF_SHEET = new String[0];
+    private static final AtomicInteger threadCounter = new AtomicInteger();
+
+    private final BlockingQueue<String[]> rows = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+    private final Thread producer;
+    private volatile boolean closed;
+    private volatile Exception failure;
+    private boolean finished;
+
+    /**
+     * @param sheet sheet name or 0-based index; null for the first sheet
+     */
+    XlsxRowCursor(Path filePath, String sheet) throws IOException {
+        OPCPackage opcPackage;
+        try {
+            opcPackage = OPCPackage.open(filePath.toFile(), PackageAccess.READ);
+        } catch (OpenXML4JException | RuntimeException e) {
+            throw new IOException("Not a readable .xlsx file: " + e.getMessage(), e);
+        }
+        InputStream sheetStream;
+        ReadOnlySharedStringsTable sharedStrings;
+        StylesTable styles;
+        try {
+            XSSFReader reader = new XSSFReader(opcPackage);
+            sharedStrings = new ReadOnlySharedStringsTable(opcPackage, false);
+            styles = reader.getStylesTable();
+            sheetStream = openSheet(reader, sheet);
+        } catch (IOException | OpenXML4JException | SAXException | RuntimeException e) {
+            opcPackage.revert();
+            if (e instanceof IOException) throw (IOException) e;
+            throw new IOException("Could not open workbook: " + e.getMessage(), e);
+        }
+
+        producer = new Thread(() -> produce(opcPackage, sheetStream, sharedStrings, styles),
+                "xlsx-reader-" + threadCounter.incrementAndGet());
+        producer.setDaemon(true);
+        producer.start();
+    }
+
+    // Sheet streams are opened lazily by the iterator, so skipping sheets does not read them
+    private static InputStream openSheet(XSSFReader reader, String sheet) throws IOException, OpenXML4JException {
+        XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+        Integer sheetIndex = null;
+        if (sheet != null) {
+            try {
+                sheetIndex = Integer.parseInt(sheet.trim());
+            } catch (NumberFormatException e) {
+                // Not an index, match by name only
+            }
+        }
+        InputStream byIndex = null;
+        for (int index = 0; sheets.hasNext(); index++) {
+            InputStream sheetStream = sheets.next();
+            if (sheet == null || sheet.equals(sheets.getSheetName())) {
+                if (byIndex != null) byIndex.close();
+                return sheetStream;
+            }
+            if (sheetIndex != null && sheetIndex == index) {
+                byIndex = sheetStream; // A sheet named like this index would still take precedence
+            } else {
+                sheetStream.close();
+            }
+        }
+        if (byIndex != null) return byIndex;
+        throw new IOException(sheet == null ? "Workbook has no sheets" : "Sheet '" + sheet + "' not found");
+    }
+
+    private void produce(OPCPackage opcPackage, InputStream sheetStream, ReadOnlySharedStringsTable sharedStrings, StylesTable styles) {
+        try (InputStream in = sheetStream) {
+            XMLReader xmlReader = XMLHelper.newXMLReader();
+            xmlReader.setContentHandler(new XSSFSheetXMLHandler(styles, sharedStrings, new RowCollector(), new DataFormatter(), false));
+            xmlReader.parse(new InputSource(in));
+        } catch (CancellationException e) {
+            // Reader closed before the end of the sheet
+        } catch (IOException | SAXException | ParserConfigurationException | RuntimeException e) {
+            if (!closed) failure = e;
+        } finally {
+            opcPackage.revert(); // Read-only package: release it without saving
+        }
+        try {
+            put(END_OF_SHEET);
+        } catch (CancellationException e) {
+            // Nobody is waiting for the end marker any more
+        }
+    }
+
+    private void put(String[] row) {
+        try {
+            while (!rows.offer(row, 100, TimeUnit.MILLISECONDS)) {
+                if (closed) throw new CancellationException();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CancellationException();
+        }
+    }
+
+    @Override
+    public String[] next() throws IOException {
+        if (finished) return null;
+        String[] row;
+        try {
+            row = rows.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading sheet rows");
+        }
+        if (row != END_OF_SHEET) return row;
+        finished = true;
+        if (failure != null) {
+            throw new IOException("Could not read sheet: " + failure.getMessage(), failure);
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        rows.clear();
+        try {
+            producer.join(1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (producer.isAlive()) {
+            logger.warn("XLSX reader thread {} did not stop within 1s of close.", producer.getName());
+        }
+    }
+
+    // Collects the cells of each row, filling gaps left by cells that are absent from the sheet XML
+    private class RowCollector implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final List<String> cells = new ArrayList<>();
+
+        @Override
+        public void startRow(int rowNum) {
+            cells.clear();
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            put(cells.toArray(new String[0]));
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            int column = cellReference != null ? columnIndex(cellReference) : cells.size();
+            while (cells.size() < column) cells.add("");
+            cells.add(formattedValue != null ? formattedValue : "");
+        }
+
+        // 0-based column of an A1-style reference, e.g. "AB12" -> 27
+        private int columnIndex(String cellReference) {
+            int column = 0;
+            for (int i = 0; i < cellReference.length(); i++) {
+                char c = cellReference.charAt(i);
+                if (c < 'A' || c > 'Z') break;
+                column = column * 26 + (c - 'A' + 1);
+            }
+            return column - 1;
+        }
+    }
+}